@@ -29,6 +29,7 @@ import com.github.arikastarvo.comet.input.Input;
 import com.github.arikastarvo.comet.input.InputConfiguration;
 import com.github.arikastarvo.comet.input.ReferenceInput;
 import com.github.arikastarvo.comet.input.URICapableInputConfiguration;
+import com.github.arikastarvo.comet.output.AsyncOutputConfiguration;
 import com.github.arikastarvo.comet.output.file.FileOutput;
 import com.github.arikastarvo.comet.output.file.FileOutputConfiguration;
 import com.github.arikastarvo.comet.output.noop.NoopOutput;
@@ -39,6 +40,7 @@ import com.github.arikastarvo.comet.reference.Reference;
 import com.github.arikastarvo.comet.reference.ReferenceReloadCallback;
 import com.github.arikastarvo.comet.reference.SQLiteReference;
 import com.github.arikastarvo.comet.utils.FileSystem;
+import com.github.arikastarvo.comet.utils.OverflowPolicy;
 
 public class CometConfigurationYaml {
 	
@@ -369,6 +371,146 @@ public class CometConfigurationYaml {
 				
 			}
 			
+			/**
+			 *
+			 * Parser tuning
+			 *
+			 */
+			if(configurationObj.containsKey("parser") && configurationObj.get("parser") != null) {
+				if(configurationObj.get("parser") instanceof Map) {
+					Map<String, Object> parserConf = ((Map<String, Object>)configurationObj.get("parser"));
+					
+					if(parserConf.containsKey("combined-matching") && parserConf.get("combined-matching") instanceof Boolean) {
+						conf.parserConfiguration.combinedMatching = (Boolean)parserConf.get("combined-matching");
+					}
+					if(parserConf.containsKey("threads") && parserConf.get("threads") instanceof Integer) {
+						conf.parserConfiguration.threads = (Integer)parserConf.get("threads");
+					}
+					if(parserConf.containsKey("queue-size") && parserConf.get("queue-size") instanceof Integer) {
+						conf.parserConfiguration.queueSize = (Integer)parserConf.get("queue-size");
+					}
+					if(parserConf.containsKey("batch-size") && parserConf.get("batch-size") instanceof Integer) {
+						conf.parserConfiguration.batchSize = (Integer)parserConf.get("batch-size");
+					}
+					if(parserConf.containsKey("object-array-events") && parserConf.get("object-array-events") instanceof Boolean) {
+						conf.parserConfiguration.objectArrayEvents = (Boolean)parserConf.get("object-array-events");
+					}
+					if(parserConf.containsKey("field-projection") && parserConf.get("field-projection") instanceof Boolean) {
+						conf.parserConfiguration.fieldProjection = (Boolean)parserConf.get("field-projection");
+					}
+					if(parserConf.containsKey("prune-event-types") && parserConf.get("prune-event-types") instanceof Boolean) {
+						conf.parserConfiguration.pruneEventTypes = (Boolean)parserConf.get("prune-event-types");
+					}
+					if(parserConf.containsKey("adaptive-ordering") && parserConf.get("adaptive-ordering") instanceof Boolean) {
+						conf.parserConfiguration.adaptiveOrdering = (Boolean)parserConf.get("adaptive-ordering");
+					}
+					if(parserConf.containsKey("adaptive-ordering-interval") && parserConf.get("adaptive-ordering-interval") instanceof Integer) {
+						conf.parserConfiguration.adaptiveOrderingInterval = (Integer)parserConf.get("adaptive-ordering-interval");
+					}
+					if(parserConf.containsKey("regex-step-budget") && parserConf.get("regex-step-budget") instanceof Number) {
+						conf.parserConfiguration.regexStepBudget = ((Number)parserConf.get("regex-step-budget")).longValue();
+					}
+					if(parserConf.containsKey("regex-quarantine-threshold") && parserConf.get("regex-quarantine-threshold") instanceof Integer) {
+						conf.parserConfiguration.regexQuarantineThreshold = (Integer)parserConf.get("regex-quarantine-threshold");
+					}
+					if(parserConf.containsKey("line-cache-size") && parserConf.get("line-cache-size") instanceof Integer) {
+						conf.parserConfiguration.lineCacheSize = (Integer)parserConf.get("line-cache-size");
+					}
+					if(parserConf.containsKey("byte-lines") && parserConf.get("byte-lines") instanceof Boolean) {
+						conf.parserConfiguration.byteLines = (Boolean)parserConf.get("byte-lines");
+					}
+				} else {
+					log.error("parser configuration must be a map");
+				}
+			}
+			
+			/**
+			 *
+			 * Esper runtime threading and contexts
+			 *
+			 */
+			if(configurationObj.containsKey("esper") && configurationObj.get("esper") != null) {
+				if(configurationObj.get("esper") instanceof Map) {
+					Map<String, Object> esperConf = ((Map<String, Object>)configurationObj.get("esper"));
+					
+					if(esperConf.containsKey("inbound-threads") && esperConf.get("inbound-threads") instanceof Integer) {
+						conf.esperConfiguration.inboundThreads = (Integer)esperConf.get("inbound-threads");
+					}
+					if(esperConf.containsKey("inbound-capacity") && esperConf.get("inbound-capacity") instanceof Integer) {
+						conf.esperConfiguration.inboundCapacity = (Integer)esperConf.get("inbound-capacity");
+					}
+					if(esperConf.containsKey("outbound-threads") && esperConf.get("outbound-threads") instanceof Integer) {
+						conf.esperConfiguration.outboundThreads = (Integer)esperConf.get("outbound-threads");
+					}
+					if(esperConf.containsKey("outbound-capacity") && esperConf.get("outbound-capacity") instanceof Integer) {
+						conf.esperConfiguration.outboundCapacity = (Integer)esperConf.get("outbound-capacity");
+					}
+					if(esperConf.containsKey("contexts") && esperConf.get("contexts") != null) {
+						if(esperConf.get("contexts") instanceof Map) {
+							for(Map.Entry<String, Object> context : ((Map<String, Object>)esperConf.get("contexts")).entrySet()) {
+								if(context.getValue() instanceof String) {
+									conf.esperConfiguration.contexts.put(context.getKey(), (String)context.getValue());
+								} else {
+									log.error("key field of context '{}' must be a string", context.getKey());
+								}
+							}
+						} else {
+							log.error("esper contexts must be a map of context names and key fields");
+						}
+					}
+					if(esperConf.containsKey("lanes") && esperConf.get("lanes") instanceof Integer) {
+						conf.esperConfiguration.lanes = (Integer)esperConf.get("lanes");
+					}
+					if(esperConf.containsKey("route-by") && esperConf.get("route-by") instanceof String) {
+						conf.esperConfiguration.routeBy = (String)esperConf.get("route-by");
+					}
+					if(esperConf.containsKey("lane-queue-size") && esperConf.get("lane-queue-size") instanceof Integer) {
+						conf.esperConfiguration.laneQueueSize = (Integer)esperConf.get("lane-queue-size");
+					}
+					if(esperConf.containsKey("shards") && esperConf.get("shards") instanceof Integer) {
+						conf.esperConfiguration.shards = (Integer)esperConf.get("shards");
+					}
+					if(esperConf.containsKey("shard-key") && esperConf.get("shard-key") instanceof String) {
+						conf.esperConfiguration.shardKey = (String)esperConf.get("shard-key");
+					}
+					if(esperConf.containsKey("clock-granularity") && esperConf.get("clock-granularity") instanceof Number) {
+						conf.esperConfiguration.clockGranularity = ((Number)esperConf.get("clock-granularity")).longValue();
+					}
+					if(esperConf.containsKey("clock-lateness") && esperConf.get("clock-lateness") instanceof Number) {
+						conf.esperConfiguration.clockLateness = ((Number)esperConf.get("clock-lateness")).longValue();
+					}
+				} else {
+					log.error("esper configuration must be a map");
+				}
+			}
+			
+			/**
+			 *
+			 * Ingest queue between inputs and runtime
+			 *
+			 */
+			if(configurationObj.containsKey("ingest") && configurationObj.get("ingest") != null) {
+				if(configurationObj.get("ingest") instanceof Map) {
+					Map<String, Object> ingestConf = ((Map<String, Object>)configurationObj.get("ingest"));
+					
+					if(ingestConf.containsKey("queue-size") && ingestConf.get("queue-size") instanceof Integer) {
+						conf.ingestConfiguration.queueSize = (Integer)ingestConf.get("queue-size");
+					}
+					if(ingestConf.containsKey("overflow") && ingestConf.get("overflow") instanceof String) {
+						try {
+							conf.ingestConfiguration.overflow = OverflowPolicy.of((String)ingestConf.get("overflow"));
+						} catch (IllegalArgumentException e) {
+							log.error("unknown ingest overflow policy '{}' (block, drop-oldest, drop-newest or sample), using {}", ingestConf.get("overflow"), conf.ingestConfiguration.overflow);
+						}
+					}
+					if(ingestConf.containsKey("sample-rate") && ingestConf.get("sample-rate") instanceof Integer) {
+						conf.ingestConfiguration.sampleRate = (Integer)ingestConf.get("sample-rate");
+					}
+				} else {
+					log.error("ingest configuration must be a map");
+				}
+			}
+			
 			if(configurationObj.containsKey("input")) {
 
 				List<Map<String, Object>> inputDefinitions = normalizeInputConfigurations(configurationObj.get("input"));
@@ -1267,7 +1409,7 @@ public class CometConfigurationYaml {
 		if (conf.getListener(outputId) == null) {
 			Output output = outConfContainer.outputConfiguration.createOutputInstance();
 			try {
-				conf.addListener(outputId, (CustomUpdateListener)new EventUpdateListener(output));
+				conf.addListener(outputId, (CustomUpdateListener)new EventUpdateListener(output, parseAsyncOutputConfiguration(outConfContainer.extra.get("async"))));
 			} catch (Exception e) {
 				log.debug("Could not register ouput with type {} (id: {}). Cause: {}", output.getClass().getSimpleName(), outputId, e.getMessage(), e);
 			}
@@ -1289,6 +1431,43 @@ public class CometConfigurationYaml {
 
 
 
+	/**
+	 * parse async settings of output (true for defaults or map of queue-size, overflow, sample-rate and batch-size)
+	 * 
+	 * @param asyncDefinition value of async key, may be null
+	 * @return null if output is synchronous
+	 */
+	private static AsyncOutputConfiguration parseAsyncOutputConfiguration(Object asyncDefinition) {
+		if(asyncDefinition == null || Boolean.FALSE.equals(asyncDefinition)) {
+			return null;
+		}
+		AsyncOutputConfiguration asyncConf = new AsyncOutputConfiguration();
+		asyncConf.queueSize = 8192;
+		if(asyncDefinition instanceof Map) {
+			Map<String, Object> asyncMap = (Map<String, Object>)asyncDefinition;
+			if(asyncMap.containsKey("queue-size") && asyncMap.get("queue-size") instanceof Integer) {
+				asyncConf.queueSize = (Integer)asyncMap.get("queue-size");
+			}
+			if(asyncMap.containsKey("overflow") && asyncMap.get("overflow") instanceof String) {
+				try {
+					asyncConf.overflow = OverflowPolicy.of((String)asyncMap.get("overflow"));
+				} catch (IllegalArgumentException e) {
+					log.error("unknown output overflow policy '{}' (block, drop-oldest, drop-newest or sample), using {}", asyncMap.get("overflow"), asyncConf.overflow);
+				}
+			}
+			if(asyncMap.containsKey("sample-rate") && asyncMap.get("sample-rate") instanceof Integer) {
+				asyncConf.sampleRate = (Integer)asyncMap.get("sample-rate");
+			}
+			if(asyncMap.containsKey("batch-size") && asyncMap.get("batch-size") instanceof Integer) {
+				asyncConf.batchSize = (Integer)asyncMap.get("batch-size");
+			}
+		} else if(!Boolean.TRUE.equals(asyncDefinition)) {
+			log.error("output async configuration must be a boolean or a map");
+			return null;
+		}
+		return asyncConf;
+	}
+
 	/***
 	 * Generate list of output hashmaps from yaml configuration
 	 *
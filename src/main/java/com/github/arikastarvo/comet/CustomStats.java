@@ -3,34 +3,60 @@ package com.github.arikastarvo.comet;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Named counters, safe to be updated from several threads without locking
+ */
 public class CustomStats {
 
-	private Map<String, Map<String, Integer>> stats = new HashMap<String, Map<String, Integer>>();
+	private Map<String, Map<String, LongAdder>> stats = new ConcurrentHashMap<String, Map<String, LongAdder>>();
 	
 	public CustomStats() {
-		Arrays.asList("matchcount", "desercount", "matches", "nonmatches").forEach(it -> stats.put(it, new HashMap<String, Integer>()));
+		Arrays.asList("matchcount", "desercount", "matches", "nonmatches", "convfail", "budgetexceeded", "linecache").forEach(it -> stats.put(it, new ConcurrentHashMap<String, LongAdder>()));
 	}
 	
 	public Integer set(String target, String level, Integer value) {
-		stats.get(target).put(level, value);
+		LongAdder counter = counter(target, level);
+		counter.reset();
+		counter.add(value);
 		return value;
 	}
 	public Integer get(String target, String level) {
-		return stats.get(target).get(level);
+		LongAdder counter = stats.get(target).get(level);
+		return counter == null ? null : counter.intValue();
 	}
 	
 	public Integer inc(String target, String level) {
-		if(!(stats.get(target).containsKey(level)) || stats.get(target).get(level) == null) {
-			stats.get(target).put(level, 0);
+		LongAdder counter = counter(target, level);
+		counter.increment();
+		return counter.intValue();
+	}
+	
+	/**
+	 * @return counter of given target and level (created if missing), can be kept for faster updates
+	 */
+	public LongAdder counter(String target, String level) {
+		Map<String, LongAdder> counters = stats.get(target);
+		LongAdder counter = counters.get(level);
+		if(counter == null) {
+			counter = counters.computeIfAbsent(level, it -> new LongAdder());
 		}
-		stats.get(target).put(level, stats.get(target).get(level) + 1);
-		
-		return stats.get(target).get(level);
+		return counter;
 	}
 	
+	/**
+	 * @return snapshot of current values
+	 */
 	public Map<String, Map<String, Integer>> stats() {
-		return this.stats;
+		Map<String, Map<String, Integer>> snapshot = new HashMap<String, Map<String, Integer>>();
+		stats.forEach( (target, counters) -> {
+			Map<String, Integer> values = new HashMap<String, Integer>();
+			counters.forEach( (level, counter) -> values.put(level, counter.intValue()));
+			snapshot.put(target, values);
+		});
+		return snapshot;
 	}
 	
 }
@@ -15,6 +15,21 @@ public abstract class CustomUpdateListener implements UpdateListener {
 		return output;
 	}
 	
+	/**
+	 * start output (when runtime starts, before first results come in)
+	 *
+	 * @param name monitor name and output id, threads of output are named after it
+	 */
+	public void start(String name) {
+	}
+	
+	/**
+	 * stop output (after results that are still on their way are written)
+	 */
+	public void stop() {
+		output.Stop();
+	}
+	
 	/*public void setOutput(Output output) {
 		this.output = output;
 	}*/
@@ -1,17 +1,39 @@
 package com.github.arikastarvo.comet;
 
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import com.espertech.esper.common.client.EventBean;
+import com.espertech.esper.common.internal.event.arr.ObjectArrayEventBean;
 import com.espertech.esper.common.internal.event.map.MapEventBean;
 import com.espertech.esper.runtime.client.EPRuntime;
 import com.espertech.esper.runtime.client.EPStatement;
+import com.github.arikastarvo.comet.output.AsyncOutputConfiguration;
 import com.github.arikastarvo.comet.output.Output;
+import com.github.arikastarvo.comet.output.OutputDispatcher;
 
 public class EventUpdateListener extends CustomUpdateListener {
 
+	/**
+	 * queue and writer thread of output, null if results are written in listener thread
+	 */
+	private final OutputDispatcher dispatcher;
+
 	public EventUpdateListener(Output output) {
+		this(output, null);
+	}
+	
+	/**
+	 * @param asyncConfiguration if it has queue size, results are written out in output's own thread (started with {@link #start(String)})
+	 */
+	public EventUpdateListener(Output output, AsyncOutputConfiguration asyncConfiguration) {
 		super(output);
+		if(asyncConfiguration != null && asyncConfiguration.isAsync()) {
+			this.dispatcher = new OutputDispatcher(asyncConfiguration, this::write);
+		} else {
+			this.dispatcher = null;
+		}
 	}
 	
 	@Override
@@ -19,16 +41,73 @@ public class EventUpdateListener extends CustomUpdateListener {
 		//statement.getAnnotations();
 		if ( newEvents != null ) { 
 			for (EventBean event : newEvents) {
-				
-				// this thing replaces inline esper map objects with their underlying objects (maps)
-				// it has an effect on new{foo='bar'} for example
-				((Map<String, Object>)event.getUnderlying()).entrySet().forEach( (Map.Entry<String, Object> v) -> {
-					if (v.getValue() instanceof MapEventBean) {
-						v.setValue(((MapEventBean) v.getValue()).getUnderlying());
-					}
-				});
-				output.printOutput(event.getUnderlying());
+				if(dispatcher != null) {
+					dispatcher.dispatch(event);
+				} else {
+					output.printOutput(underlying(event));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * write batch of results in writer thread
+	 */
+	private void write(List<Object> events) {
+		for(int i = 0; i < events.size(); i++) {
+			events.set(i, underlying((EventBean)events.get(i)));
+		}
+		output.printBatch(events);
+	}
+	
+	@Override
+	public void start(String name) {
+		if(dispatcher != null) {
+			dispatcher.start(name + "-writer");
+		}
+	}
+	
+	@Override
+	public void stop() {
+		if(dispatcher != null) {
+			dispatcher.stop();
+		}
+		super.stop();
+	}
+	
+	/**
+	 * @return output queue counters, null if results are written in listener thread
+	 */
+	public Map<String, Long> getDispatchStats() {
+		return dispatcher != null ? dispatcher.stats() : null;
+	}
+	
+	private static Object underlying(EventBean event) {
+		// object-array events (select * from object-array typed events) are turned into maps, unset fields are left out like in map events
+		if(event instanceof ObjectArrayEventBean) {
+			Map<String, Object> map = new LinkedHashMap<String, Object>();
+			for(String name : event.getEventType().getPropertyNames()) {
+				Object value = event.get(name);
+				if(value != null) {
+					map.put(name, value instanceof EventBean ? underlying((EventBean)value) : value);
+				}
+			}
+			return map;
+		}
+		
+		// this thing replaces inline esper map objects with their underlying objects (maps)
+		// it has an effect on new{foo='bar'} for example
+		// map is copied instead of changed in place, because the same event goes to every listener of statement (and writer threads)
+		Map<String, Object> map = (Map<String, Object>)event.getUnderlying();
+		Map<String, Object> unwrapped = null;
+		for(Map.Entry<String, Object> v : map.entrySet()) {
+			if (v.getValue() instanceof MapEventBean || v.getValue() instanceof ObjectArrayEventBean) {
+				if(unwrapped == null) {
+					unwrapped = new LinkedHashMap<String, Object>(map);
+				}
+				unwrapped.put(v.getKey(), underlying((EventBean) v.getValue()));
 			}
 		}
+		return unwrapped != null ? unwrapped : map;
 	}
 }
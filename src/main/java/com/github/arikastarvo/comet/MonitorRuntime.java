@@ -5,9 +5,8 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -39,6 +38,7 @@ import com.github.arikastarvo.comet.output.file.FileOutputConfiguration;
 import com.github.arikastarvo.comet.output.stdout.StdoutOutput;
 import com.github.arikastarvo.comet.output.stdout.StdoutOutputConfiguration;
 import com.github.arikastarvo.comet.parser.Parser;
+import com.github.arikastarvo.comet.parser.TimestampParser;
 import com.github.arikastarvo.comet.persistence.PersistenceManager;
 
 public abstract class MonitorRuntime extends Thread implements InputEventReceiver {
@@ -210,10 +210,17 @@ public abstract class MonitorRuntime extends Thread implements InputEventReceive
 	//////
 	
 	
+	public void startOutputs() {
+		log.debug("Starting outputs");
+		for(Map.Entry<String, CustomUpdateListener> listener : configuration.getListeners().entrySet()) {
+			listener.getValue().start(configuration.runtimeName + "-" + listener.getKey());
+		}
+	}
+	
 	public void stopOutputs() {
 		log.debug("Stopping outputs");
 		for(CustomUpdateListener listener : configuration.getListeners().values()) {
-			listener.getOutput().Stop();
+			listener.stop();
 		}
 	}
 	
@@ -306,6 +313,34 @@ public abstract class MonitorRuntime extends Thread implements InputEventReceive
 		handleLine(line, result, true, configuration.keepMatches, inputId);
 	}
 	
+	public void parseAndSend(String line, Map<String, Object> result, Boolean keepMatches, String inputId) {
+		handleLine(line, result, true, keepMatches, inputId);
+	}
+	
+	/**
+	 * parse batch of lines
+	 * 
+	 * @return parsed events in the same order as lines
+	 */
+	public List<Map<String, Object>> parse(List<? extends CharSequence> lines, Boolean keepMatches, String inputId) {
+		List<Map<String, Object>> events = new ArrayList<Map<String, Object>>(lines.size());
+		for(CharSequence line : lines) {
+			Map<String, Object> result = new HashMap<String, Object>();
+			handleLine(line.toString(), result, false, keepMatches, inputId);
+			events.add(result);
+		}
+		return events;
+	}
+	
+	/**
+	 * parse batch of lines and send them to runtime (in the same order)
+	 */
+	public void parseAndSend(List<? extends CharSequence> lines, Boolean keepMatches, String inputId) {
+		for(CharSequence line : lines) {
+			handleLine(line.toString(), null, true, keepMatches, inputId);
+		}
+	}
+	
 	public void send(String type, Map<String, Object> data) {
 		intoRuntime(type, data);
 	}
@@ -329,10 +364,8 @@ public abstract class MonitorRuntime extends Thread implements InputEventReceive
 		}
 		
 		if(result.containsKey("logts")) {
-			SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'hh:mm:ssX");
 		    try {
-				Date parsedDate = dateFormat.parse((String)result.get("logts"));
-				result.put("logts_timestamp", parsedDate.getTime());
+				result.put("logts_timestamp", TimestampParser.ISO8601.parse((String)result.get("logts")));
 			} catch (ParseException e) {
 				// pass
 			}
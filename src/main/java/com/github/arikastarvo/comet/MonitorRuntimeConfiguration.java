@@ -24,6 +24,9 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import com.github.arikastarvo.comet.input.Input;
+import com.github.arikastarvo.comet.parser.ParserConfiguration;
+import com.github.arikastarvo.comet.runtime.EsperConfiguration;
+import com.github.arikastarvo.comet.runtime.IngestConfiguration;
 import com.github.arikastarvo.comet.persistence.PersistenceConfiguration;
 import com.github.arikastarvo.comet.reference.Reference;
 
@@ -340,6 +343,15 @@ public class MonitorRuntimeConfiguration {
 	// persistence
 	public PersistenceConfiguration persistenceConfiguration = new PersistenceConfiguration();
 	
+	// parser tuning
+	public ParserConfiguration parserConfiguration = new ParserConfiguration();
+	
+	// esper runtime threading and contexts
+	public EsperConfiguration esperConfiguration = new EsperConfiguration();
+	
+	// queue between inputs and runtime
+	public IngestConfiguration ingestConfiguration = new IngestConfiguration();
+	
 	private List<Map<String, Object>> configurationTimeEventTypes = new ArrayList<Map<String, Object>>();
 	
 	public void addEventType(String eventType) {
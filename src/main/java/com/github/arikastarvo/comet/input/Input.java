@@ -61,6 +61,23 @@ public abstract class Input<T extends Input<T>> extends Thread {
 		return isShutdown;
 	}
 	
+	/**
+	 * @return number of lines to be parsed at once by inputs that read lines
+	 */
+	protected int parseBatchSize() {
+		if(monitorRuntime != null && monitorRuntime.configuration != null) {
+			return Math.max(1, monitorRuntime.configuration.parserConfiguration.batchSize);
+		}
+		return 1;
+	}
+	
+	/**
+	 * @return true if inputs that read lines should read them as bytes (see {@link com.github.arikastarvo.comet.utils.ByteLineReader})
+	 */
+	protected boolean byteLines() {
+		return monitorRuntime != null && monitorRuntime.configuration != null && monitorRuntime.configuration.parserConfiguration.byteLines;
+	}
+	
 	public void setAsShutdown() {
 		isShutdown = true;
 	}	
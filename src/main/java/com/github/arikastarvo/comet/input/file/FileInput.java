@@ -11,6 +11,7 @@ import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.io.StringReader;
 import java.net.URI;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -37,6 +38,7 @@ import com.github.arikastarvo.comet.input.InputConnector;
 import com.github.arikastarvo.comet.input.ReferenceInput;
 import com.github.arikastarvo.comet.input.RepeatableInput;
 import com.github.arikastarvo.comet.reference.ReferenceReloadCallback;
+import com.github.arikastarvo.comet.utils.ByteLineReader;
 
 @InputConnector(
 	name = FileInput.NAME,
@@ -177,68 +179,17 @@ public class FileInput extends Input<FileInput> implements RepeatableInput, Refe
 		if(file.exists() && file.isFile()) { // verify that we are dealing with existing files
 			
 			Map<Integer, Map<String, Object>> filenameMetadataBuffer = new HashMap<Integer, Map<String, Object>>();
-			Map<Integer, BufferedReader> readers = new HashMap<Integer, BufferedReader>();
-			Map<Integer, Map<String, Object>> contentBuffer = new HashMap<Integer, Map<String, Object>>();
+			Map<Integer, LineSource> readers = new HashMap<Integer, LineSource>();
+			// parsed lines are read ahead in batches, head of every buffer is the next line of that file
+			Map<Integer, ArrayDeque<Map<String, Object>>> contentBuffer = new HashMap<Integer, ArrayDeque<Map<String, Object>>>();
 			Map<Integer, Long> sortedIndex = new HashMap<Integer, Long>();
 
-			BufferedReader reader;
-			if(isGZipped(file)) {
-				InputStream fileStream = new FileInputStream(file);
-				InputStream gzipStream = new GZIPInputStream(fileStream);
-				Reader decoder = new InputStreamReader(gzipStream, "UTF-8");
-				reader = new BufferedReader(decoder);
-			} else {
-				reader = new BufferedReader(new FileReader(file));
-			}
-			
-			String contentLine = reader.readLine();
-			Map<String, Object> parsed = new HashMap<String, Object>();
-			if (filenameMetadataBuffer.containsKey(reader.hashCode())) {
-				parsed.putAll(filenameMetadataBuffer.get(reader.hashCode()));
-			}
-			
-			if(monitorRuntime != null) {
-				monitorRuntime.parse(contentLine, parsed, true, this.id);
-			} else {
-				parsed.put("data", contentLine);
-			}
-
-			if(parsed.containsKey("logts_timestamp") && parsed.get("logts_timestamp") instanceof Long) {
-				sortedIndex.put(reader.hashCode(), (Long)parsed.get("logts_timestamp"));
-			} else {
-				sortedIndex.put(reader.hashCode(), 0L);
-			}
-			readers.put(reader.hashCode(), reader);
-			contentBuffer.put(reader.hashCode(), parsed);
+			LineSource reader = open(file);
+			addReader(reader, readers, contentBuffer, sortedIndex, filenameMetadataBuffer);
 			
 			while ((line = br.readLine()) != null) {
-				
-				file = new File(line);
-				if(isGZipped(file)) {
-					InputStream fileStream = new FileInputStream(file);
-					InputStream gzipStream = new GZIPInputStream(fileStream);
-					Reader decoder = new InputStreamReader(gzipStream, "UTF-8");
-					reader = new BufferedReader(decoder);
-				} else {
-					reader = new BufferedReader(new FileReader(file));
-				}
-				contentLine = reader.readLine();
-				parsed = new HashMap<String, Object>();
-				parsed.putAll(filenameMetadataBuffer.get(reader.hashCode()));
-				
-				if(monitorRuntime != null) {
-					monitorRuntime.parse(contentLine, parsed, true, this.id);
-				} else {
-					parsed.put("data", contentLine);
-				}
-
-				if(parsed.containsKey("logts_timestamp") && parsed.get("logts_timestamp") instanceof Long) {
-					sortedIndex.put(reader.hashCode(), (Long)parsed.get("logts_timestamp"));
-				} else {
-					sortedIndex.put(reader.hashCode(), 0L);
-				}
-				readers.put(reader.hashCode(), reader);
-				contentBuffer.put(reader.hashCode(), parsed);
+				reader = open(new File(line));
+				addReader(reader, readers, contentBuffer, sortedIndex, filenameMetadataBuffer);
 			}
 
 			/** here should be while loop that reads from different buffers until all buffers are empty **/
@@ -252,7 +203,8 @@ public class FileInput extends Input<FileInput> implements RepeatableInput, Refe
 				Integer lowestKey = lowestEntry.getKey();
 
 				// we output current first item
-				Map<String, Object> cur = contentBuffer.get(lowestKey);
+				ArrayDeque<Map<String, Object>> buffer = contentBuffer.get(lowestKey);
+				Map<String, Object> cur = buffer.poll();
 				
 				List<String> curMatchedTypes = new ArrayList<String>();
 				if(cur != null && cur.containsKey("__match") && cur.get("__match") instanceof List) {
@@ -272,25 +224,12 @@ public class FileInput extends Input<FileInput> implements RepeatableInput, Refe
 					app.listeners.forEach((k, listener) -> listener.getOutput().printOutput(cur) );
 				}*/
 				
-				// now we re-read a line from current lowestKey buffer to replace previous printout with new data
-				contentLine = readers.get(lowestKey).readLine();
-				if(contentLine != null) {
-					parsed = new HashMap<String, Object>();
-					if(filenameMetadataBuffer.containsKey(readers.get(lowestKey).hashCode())) {
-						parsed.putAll(filenameMetadataBuffer.get(readers.get(lowestKey).hashCode()));
-					}
-					
-					if(monitorRuntime != null) {
-						monitorRuntime.parse(contentLine, parsed, true, this.id);
-					} else {
-						parsed.put("data", contentLine);
-					}
-					if(parsed.containsKey("logts_timestamp") && parsed.get("logts_timestamp") instanceof Long) {
-						sortedIndex.put(readers.get(lowestKey).hashCode(), (Long)parsed.get("logts_timestamp"));
-					} else {
-						sortedIndex.put(readers.get(lowestKey).hashCode(), 0L);
-					}
-					contentBuffer.put(readers.get(lowestKey).hashCode(), parsed);
+				// now we move to next line of current lowestKey buffer (reading next batch if buffer has been used up)
+				if(buffer.isEmpty()) {
+					fill(readers.get(lowestKey), buffer, filenameMetadataBuffer.get(lowestKey));
+				}
+				if(!buffer.isEmpty()) {
+					sortedIndex.put(lowestKey, timestamp(buffer.peek()));
 				} else {
 					sortedIndex.remove(lowestKey);
 					filenameMetadataBuffer.remove(lowestKey);
@@ -302,9 +241,88 @@ public class FileInput extends Input<FileInput> implements RepeatableInput, Refe
 			log.warn("input '{}' is not an existing file for file-input ... ", file.getAbsolutePath());
 		}
 	}
+	
+	/**
+	 * lines of one file, either decoded strings or byte lines (see {@link ByteLineReader})
+	 */
+	private interface LineSource {
+		CharSequence readLine() throws IOException;
+	}
+	
+	private LineSource open(File file) throws IOException {
+		if(byteLines()) {
+			InputStream fileStream = new FileInputStream(file);
+			ByteLineReader reader = new ByteLineReader(isGZipped(file) ? new GZIPInputStream(fileStream) : fileStream);
+			return reader::readLine;
+		}
+		BufferedReader reader;
+		if(isGZipped(file)) {
+			InputStream fileStream = new FileInputStream(file);
+			InputStream gzipStream = new GZIPInputStream(fileStream);
+			Reader decoder = new InputStreamReader(gzipStream, "UTF-8");
+			reader = new BufferedReader(decoder);
+		} else {
+			reader = new BufferedReader(new FileReader(file));
+		}
+		return reader::readLine;
+	}
+	
+	private void addReader(LineSource reader, Map<Integer, LineSource> readers, Map<Integer, ArrayDeque<Map<String, Object>>> contentBuffer, Map<Integer, Long> sortedIndex, Map<Integer, Map<String, Object>> filenameMetadataBuffer) throws IOException {
+		ArrayDeque<Map<String, Object>> buffer = new ArrayDeque<Map<String, Object>>();
+		if(fill(reader, buffer, filenameMetadataBuffer.get(reader.hashCode()))) {
+			sortedIndex.put(reader.hashCode(), timestamp(buffer.peek()));
+			readers.put(reader.hashCode(), reader);
+			contentBuffer.put(reader.hashCode(), buffer);
+		}
+	}
+	
+	/**
+	 * read and parse next batch of lines from reader
+	 * 
+	 * @return false if there are no more lines
+	 */
+	private boolean fill(LineSource reader, ArrayDeque<Map<String, Object>> buffer, Map<String, Object> metadata) throws IOException {
+		int batchSize = parseBatchSize();
+		List<CharSequence> lines = new ArrayList<CharSequence>(batchSize);
+		CharSequence contentLine;
+		while (lines.size() < batchSize && (contentLine = reader.readLine()) != null) {
+			lines.add(contentLine);
+		}
+		if(lines.size() == 0) {
+			return false;
+		}
+		
+		List<Map<String, Object>> parsed;
+		if(monitorRuntime != null) {
+			parsed = monitorRuntime.parse(lines, true, this.id);
+		} else {
+			parsed = new ArrayList<Map<String, Object>>(lines.size());
+			for(CharSequence l : lines) {
+				Map<String, Object> event = new HashMap<String, Object>();
+				event.put("data", l.toString());
+				parsed.add(event);
+			}
+		}
+		if(metadata != null) {
+			parsed.forEach( event -> metadata.forEach(event::putIfAbsent));
+		}
+		buffer.addAll(parsed);
+		return true;
+	}
+	
+	private static long timestamp(Map<String, Object> parsed) {
+		if(parsed.containsKey("logts_timestamp") && parsed.get("logts_timestamp") instanceof Long) {
+			return (Long)parsed.get("logts_timestamp");
+		}
+		return 0L;
+	}
 
 	public class TailerListenerAdapterImplementation extends TailerListenerAdapter {
 		String id;
+		
+		// lines are collected and parsed in batches, batch is flushed when tailer has reached end of file
+		List<String> batch = new ArrayList<String>();
+		
 		TailerListenerAdapterImplementation(String id) { 
 			super();
 			this.id = id;
@@ -312,10 +330,36 @@ public class FileInput extends Input<FileInput> implements RepeatableInput, Refe
 		}
 		
 		public void handle(String line) {
-			Map<String, Object> parsed = new HashMap<String, Object>();
-			monitorRuntime.parse(line, parsed, true, this.id);
-			ier.send((String)parsed.get("eventType"), parsed);
-			//monitorRuntime.parseAndSend(line, null, id);
+			batch.add(line);
+			if(batch.size() >= parseBatchSize()) {
+				flush();
+			}
+		}
+		
+		@Override
+		public void endOfFileReached() {
+			flush();
+		}
+		
+		@Override
+		public void fileRotated() {
+			flush();
+		}
+		
+		private void flush() {
+			if(batch.size() == 0) {
+				return;
+			}
+			List<String> lines = batch;
+			batch = new ArrayList<String>();
+			if(ier == monitorRuntime) {
+				// lets runtime decide where parsing happens
+				monitorRuntime.parseAndSend(lines, true, this.id);
+			} else {
+				for(Map<String, Object> parsed : monitorRuntime.parse(lines, true, this.id)) {
+					ier.send((String)parsed.get("eventType"), parsed);
+				}
+			}
 		}
 	}
 	
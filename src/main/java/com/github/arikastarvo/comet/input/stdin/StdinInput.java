@@ -4,12 +4,15 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.logging.log4j.LogManager;
 
 import com.github.arikastarvo.comet.CometApplication;
 import com.github.arikastarvo.comet.input.Input;
 import com.github.arikastarvo.comet.input.InputConnector;
+import com.github.arikastarvo.comet.utils.ByteLineReader;
 
 @InputConnector(
 	name = StdinInput.NAME,
@@ -43,10 +46,14 @@ public class StdinInput extends Input<StdinInput> {
 
 	public void run() {
 		this.log = LogManager.getLogger(StdinInput.class);
-		this.ic.reader = new InputStreamReader(System.in);
 		try {
 			//new ReaderInput(id, app, this.ic);
-			reader();
+			if(byteLines()) {
+				byteReader();
+			} else {
+				this.ic.reader = new InputStreamReader(System.in);
+				reader();
+			}
 		} catch (IOException e) {
 			log.error("error during stdin input init: " + e.getMessage());
 			log.debug("error during stdin input init: " + e.getMessage(), e);
@@ -56,9 +63,41 @@ public class StdinInput extends Input<StdinInput> {
 	private void reader() throws IOException {
 
 		BufferedReader br = new BufferedReader(ic.reader);
+		int batchSize = parseBatchSize();
+		List<String> batch = new ArrayList<String>(batchSize);
 		String line;
 		while ((line = br.readLine()) != null) {
-			monitorRuntime.parseAndSend(line, null, this.id);
+			batch.add(line);
+			// do not hold back lines if there is nothing more to read right now
+			if(batch.size() >= batchSize || !br.ready()) {
+				monitorRuntime.parseAndSend(batch, monitorRuntime.configuration.keepMatches, this.id);
+				batch = new ArrayList<String>(batchSize);
+			}
+		}
+		if(batch.size() > 0) {
+			monitorRuntime.parseAndSend(batch, monitorRuntime.configuration.keepMatches, this.id);
+		}
+	}
+	
+	/**
+	 * same as {@link #reader()}, but lines are read as bytes and ASCII lines are not decoded
+	 */
+	private void byteReader() throws IOException {
+		
+		ByteLineReader br = new ByteLineReader(System.in);
+		int batchSize = parseBatchSize();
+		List<CharSequence> batch = new ArrayList<CharSequence>(batchSize);
+		CharSequence line;
+		while ((line = br.readLine()) != null) {
+			batch.add(line);
+			// do not hold back lines if there is nothing more to read right now
+			if(batch.size() >= batchSize || !br.ready()) {
+				monitorRuntime.parseAndSend(batch, monitorRuntime.configuration.keepMatches, this.id);
+				batch = new ArrayList<CharSequence>(batchSize);
+			}
+		}
+		if(batch.size() > 0) {
+			monitorRuntime.parseAndSend(batch, monitorRuntime.configuration.keepMatches, this.id);
 		}
 	}
 
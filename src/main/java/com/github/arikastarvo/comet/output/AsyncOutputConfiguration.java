@@ -0,0 +1,33 @@
+package com.github.arikastarvo.comet.output;
+
+import com.github.arikastarvo.comet.utils.OverflowPolicy;
+
+public class AsyncOutputConfiguration {
+
+	/**
+	 * max number of results waiting for output writer thread, 0 means results are written in esper listener thread
+	 */
+	public int queueSize = 0;
+	
+	/**
+	 * what to do with new results when output queue is full
+	 */
+	public OverflowPolicy overflow = OverflowPolicy.BLOCK;
+	
+	/**
+	 * with sample overflow policy, every n-th result is kept when output queue is full
+	 */
+	public int sampleRate = 10;
+	
+	/**
+	 * max number of results written at once
+	 */
+	public int batchSize = 256;
+	
+	/**
+	 * @return true if results are written in output's own thread
+	 */
+	public boolean isAsync() {
+		return queueSize > 0;
+	}
+}
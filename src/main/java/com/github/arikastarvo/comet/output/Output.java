@@ -1,5 +1,6 @@
 package com.github.arikastarvo.comet.output;
 
+import java.util.List;
 import java.util.Map;
 
 import com.github.arikastarvo.comet.MonitorRuntimeConfiguration;
@@ -19,6 +20,15 @@ public abstract class Output {
 	public abstract void printOutput(Object data);	
 	public abstract void printOutput(String data);
 	
+	/**
+	 * Write out batch of results (used with asynchronous output), outputs can override it to flush once per batch
+	 */
+	public void printBatch(List<Object> batch) {
+		for(Object data : batch) {
+			printOutput(data);
+		}
+	}
+	
 	public abstract void Stop();
 	
 	public abstract String getDescription();
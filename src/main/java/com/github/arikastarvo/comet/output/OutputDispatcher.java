@@ -0,0 +1,139 @@
+package com.github.arikastarvo.comet.output;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.github.arikastarvo.comet.utils.BoundedDispatcher;
+
+/**
+ * Bounded queue and writer thread of one output.
+ *
+ * Esper listener only puts results into a lock-free ring buffer, writer thread takes them in batches and writes them out, so slow disk or pipe does not slow down event evaluation.
+ * When queue is full, overflow policy decides whether listener waits or results are dropped (see {@link BoundedDispatcher}). Results are written in the order they came in.
+ *
+ * Writer thread is started with {@link #start()}, when the runtime starts.
+ *
+ * @author tarvo
+ *
+ */
+public class OutputDispatcher {
+
+	private static class Entry {
+		final Object result;
+		final long queuedAt;
+
+		Entry(Object result, long queuedAt) {
+			this.result = result;
+			this.queuedAt = queuedAt;
+		}
+	}
+
+	Logger log = LogManager.getLogger(OutputDispatcher.class);
+
+	private final BoundedDispatcher<Entry> queue;
+
+	private final Consumer<List<Object>> writer;
+
+	/**
+	 * results of batch being written (used only by writer thread)
+	 */
+	private final List<Object> batch = new ArrayList<Object>();
+
+	private final AtomicLong enqueued = new AtomicLong();
+
+	private final AtomicLong written = new AtomicLong();
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	private final AtomicLong lagNanos = new AtomicLong();
+
+	private final AtomicLong maxLagNanos = new AtomicLong();
+
+	/**
+	 * @param conf queue size, overflow policy and batch size
+	 * @param writer writes out batch of results (called from writer thread)
+	 */
+	public OutputDispatcher(AsyncOutputConfiguration conf, Consumer<List<Object>> writer) {
+		this.writer = writer;
+		this.queue = new BoundedDispatcher<Entry>("output-writer", conf.queueSize, conf.overflow, conf.sampleRate, conf.batchSize, this::write, evicted -> dropped.incrementAndGet());
+	}
+
+	/**
+	 * start writer thread
+	 *
+	 * @param name name of writer thread
+	 */
+	public void start(String name) {
+		queue.start(name);
+	}
+
+	/**
+	 * Queue result for writing, depending on overflow policy waits for room or drops results if queue is full
+	 */
+	public void dispatch(Object result) {
+		if(queue.put(new Entry(result, System.nanoTime()))) {
+			enqueued.incrementAndGet();
+		} else {
+			dropped.incrementAndGet();
+		}
+	}
+
+	private void write(List<Entry> entries) {
+		for(Entry entry : entries) {
+			batch.add(entry.result);
+		}
+		try {
+			writer.accept(batch);
+		} catch (RuntimeException e) {
+			log.warn("writing output failed: {}", e.getMessage());
+			log.debug("writing output failed: {}", e.getMessage(), e);
+		}
+		long now = System.nanoTime();
+		for(Entry entry : entries) {
+			long lag = now - entry.queuedAt;
+			lagNanos.addAndGet(lag);
+			if(lag > maxLagNanos.get()) {
+				maxLagNanos.accumulateAndGet(lag, Math::max);
+			}
+		}
+		written.addAndGet(entries.size());
+		batch.clear();
+	}
+
+	/**
+	 * Stop accepting new results, wait until already queued results have been written and stop thread
+	 */
+	public void stop() {
+		queue.stop();
+	}
+
+	/**
+	 * @return number of results waiting to be written
+	 */
+	public int size() {
+		return queue.size();
+	}
+
+	/**
+	 * @return queue counters and lag (time from listener to written out)
+	 */
+	public Map<String, Long> stats() {
+		Map<String, Long> stats = new LinkedHashMap<String, Long>();
+		long count = written.get();
+		stats.put("depth", (long)size());
+		stats.put("enqueued", enqueued.get());
+		stats.put("written", count);
+		stats.put("dropped", dropped.get());
+		stats.put("lag-avg-ms", count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(lagNanos.get() / count));
+		stats.put("lag-max-ms", TimeUnit.NANOSECONDS.toMillis(maxLagNanos.get()));
+		return stats;
+	}
+}
@@ -7,6 +7,7 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
+import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
@@ -61,17 +62,28 @@ public class FileOutput extends Output {
 	}
 	
 	public void printOutput(Object data) {
-		if(oc.template != null) {
-			printOutput(new StringSubstitutor(StdoutOutput.asFlattendMap((Map<String, Object>)data)).replace(oc.template));
-		} else {
-			printOutput(JsonStream.serialize(data));
-		}
+		printOutput(format(data));
 	}
 	
 	public void printOutput(String data) {
 		this.outputStream.println(data);
 		this.outputStream.flush();
 	}
+	
+	@Override
+	public void printBatch(List<Object> batch) {
+		for(Object data : batch) {
+			this.outputStream.println(format(data));
+		}
+		this.outputStream.flush();
+	}
+	
+	private String format(Object data) {
+		if(oc.template != null) {
+			return new StringSubstitutor(StdoutOutput.asFlattendMap((Map<String, Object>)data)).replace(oc.template);
+		}
+		return JsonStream.serialize(data);
+	}
 
 	public void Stop() {
 		this.outputStream.flush();
@@ -0,0 +1,71 @@
+package com.github.arikastarvo.comet.parser;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live match counts of patterns, used for reordering siblings whose relative order does not matter (same order value or children of a pattern with exclusive-children).
+ *
+ * Hits are counted without locking. Scores decay on every update, so the order follows changes in log mix instead of being dominated by old counts.
+ *
+ * @author tarvo
+ *
+ */
+public class AdaptiveOrder {
+
+	/**
+	 * weight of previous score on update
+	 */
+	private static final double DECAY = 0.5;
+
+	private final Map<String, LongAdder> hits = new ConcurrentHashMap<String, LongAdder>();
+
+	private final Map<String, Double> scores = new HashMap<String, Double>();
+
+	private final int interval;
+
+	/**
+	 * @param patterns parsed pattern definitions
+	 * @param interval number of lines (per parsing thread) between reorders
+	 */
+	public AdaptiveOrder(List<PatternDefinition> patterns, int interval) {
+		this.interval = Math.max(1, interval);
+		for(PatternDefinition pattern : patterns) {
+			hits.put(pattern.getName(), new LongAdder());
+		}
+	}
+
+	/**
+	 * count a match of pattern
+	 */
+	public void hit(String pattern) {
+		LongAdder counter = hits.get(pattern);
+		if(counter != null) {
+			counter.increment();
+		}
+	}
+
+	/**
+	 * fold hits since last update into scores
+	 *
+	 * @return snapshot of scores by pattern name
+	 */
+	public synchronized Map<String, Double> update() {
+		hits.forEach( (pattern, counter) -> scores.merge(pattern, (double)counter.sumThenReset(), (score, count) -> score * DECAY + count));
+		return getScores();
+	}
+
+	/**
+	 * @return snapshot of current scores by pattern name
+	 */
+	public synchronized Map<String, Double> getScores() {
+		return new HashMap<String, Double>(scores);
+	}
+
+	public int getInterval() {
+		return interval;
+	}
+}
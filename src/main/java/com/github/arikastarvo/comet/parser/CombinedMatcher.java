@@ -0,0 +1,244 @@
+package com.github.arikastarvo.comet.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.krakens.grok.api.Grok;
+
+/**
+ * Combined matcher of one hierarchy level (enabled with {@link ParserConfiguration#combinedMatching}).
+ *
+ * Groks of all sibling patterns (per match field) are compiled into one alternation, each alternative tagged with a capturing group. Alternation is ordered, so one scan of the line tells which is the first sibling (by order) that can match.
+ * Siblings before it can be skipped, the sibling itself and everything after it are evaluated as usual (conditions, captures etc.).
+ *
+ * Groks with backreferences or inline flags are not combined, these patterns are always evaluated one by one.
+ *
+ * @author tarvo
+ *
+ */
+public class CombinedMatcher {
+
+	private static final Logger log = LoggerFactory.getLogger(CombinedMatcher.class);
+
+	private static final Pattern UNSUPPORTED = Pattern.compile("\\\\k<|\\\\[1-9]|\\(\\?[a-zA-Z-]+[:)]");
+
+	private static final int NO_MATCH = Integer.MAX_VALUE;
+
+	private final String[] fields;
+
+	private final Pattern[] combined;
+
+	/**
+	 * field index -&gt; alternative -&gt; capturing group of alternative
+	 */
+	private final int[][] tagGroups;
+
+	/**
+	 * field index -&gt; alternative -&gt; pattern index
+	 */
+	private final int[][] alternativePatterns;
+
+	/**
+	 * pattern index -&gt; field index, -1 if pattern is not combined
+	 */
+	private final int[] fieldIndex;
+
+	/**
+	 * Per line scan state of a level
+	 */
+	public class Scan {
+		private final int[] first = new int[fields.length];
+		private final boolean[] scanned = new boolean[fields.length];
+
+		/**
+		 * forget scan results, needed if event fields have been changed
+		 */
+		public void reset() {
+			for(int i = 0; i < scanned.length; i++) {
+				scanned[i] = false;
+			}
+		}
+	}
+
+	private CombinedMatcher(String[] fields, Pattern[] combined, int[][] tagGroups, int[][] alternativePatterns, int[] fieldIndex) {
+		this.fields = fields;
+		this.combined = combined;
+		this.tagGroups = tagGroups;
+		this.alternativePatterns = alternativePatterns;
+		this.fieldIndex = fieldIndex;
+	}
+
+	/**
+	 * @param patterns sibling patterns in matching order
+	 * @return combined matcher or null if there is nothing to combine
+	 */
+	public static CombinedMatcher build(List<PatternDefinition> patterns) {
+
+		List<String> fieldNames = new ArrayList<String>();
+		List<StringBuilder> regexes = new ArrayList<StringBuilder>();
+		List<List<Integer>> tags = new ArrayList<List<Integer>>();
+		List<List<Integer>> alternatives = new ArrayList<List<Integer>>();
+		List<Integer> groupCounts = new ArrayList<Integer>();
+
+		int[] fieldIndex = new int[patterns.size()];
+
+		for(int p = 0; p < patterns.size(); p++) {
+			fieldIndex[p] = -1;
+			PatternDefinition pattern = patterns.get(p);
+			List<Grok> groks = Parser.groks(pattern.get("pattern"));
+			if(groks.isEmpty()) {
+				continue;
+			}
+
+			// all groks of pattern have to be combinable, otherwise pattern is handled separately
+			List<String> alternativeRegexes = new ArrayList<String>();
+			List<Integer> alternativeGroupCounts = new ArrayList<Integer>();
+			for(Grok grok : groks) {
+				String regex = grok.getNamedRegex();
+				if(UNSUPPORTED.matcher(regex).find()) {
+					break;
+				}
+				try {
+					String unnamed = removeGroupNames(regex);
+					alternativeGroupCounts.add(Pattern.compile(unnamed).matcher("").groupCount());
+					alternativeRegexes.add(unnamed);
+				} catch (RuntimeException e) {
+					break;
+				}
+			}
+			if(alternativeRegexes.size() != groks.size()) {
+				log.debug("pattern '{}' can not be combined with its siblings, matching it separately", pattern.getName());
+				continue;
+			}
+
+			String field = Parser.matchField(pattern);
+			int idx = fieldNames.indexOf(field);
+			if(idx < 0) {
+				idx = fieldNames.size();
+				fieldNames.add(field);
+				regexes.add(new StringBuilder());
+				tags.add(new ArrayList<Integer>());
+				alternatives.add(new ArrayList<Integer>());
+				groupCounts.add(0);
+			}
+			fieldIndex[p] = idx;
+
+			for(int a = 0; a < alternativeRegexes.size(); a++) {
+				StringBuilder regex = regexes.get(idx);
+				if(regex.length() > 0) {
+					regex.append('|');
+				}
+				regex.append('(').append(alternativeRegexes.get(a)).append(')');
+				tags.get(idx).add(groupCounts.get(idx) + 1);
+				alternatives.get(idx).add(p);
+				groupCounts.set(idx, groupCounts.get(idx) + 1 + alternativeGroupCounts.get(a));
+			}
+		}
+
+		if(fieldNames.isEmpty()) {
+			return null;
+		}
+
+		Pattern[] combined = new Pattern[fieldNames.size()];
+		int[][] tagGroups = new int[fieldNames.size()][];
+		int[][] alternativePatterns = new int[fieldNames.size()][];
+		for(int i = 0; i < combined.length; i++) {
+			try {
+				combined[i] = Pattern.compile(regexes.get(i).toString());
+			} catch (RuntimeException e) {
+				log.warn("combining patterns for field '{}' failed, matching them one by one. error: {}", fieldNames.get(i), e.getMessage());
+				for(int p = 0; p < fieldIndex.length; p++) {
+					if(fieldIndex[p] == i) {
+						fieldIndex[p] = -1;
+					}
+				}
+				continue;
+			}
+			tagGroups[i] = tags.get(i).stream().mapToInt(Integer::intValue).toArray();
+			alternativePatterns[i] = alternatives.get(i).stream().mapToInt(Integer::intValue).toArray();
+		}
+		return new CombinedMatcher(fieldNames.toArray(new String[fieldNames.size()]), combined, tagGroups, alternativePatterns, fieldIndex);
+	}
+
+	public Scan newScan() {
+		return new Scan();
+	}
+
+	/**
+	 * @param scan per line scan state
+	 * @param pattern index of the pattern in level
+	 * @param event event data parsed so far
+	 * @param budget regex step budget, null if unlimited
+	 * @return true if pattern is combined and combined scan showed that it can not match
+	 */
+	public boolean canSkip(Scan scan, int pattern, Map<String, Object> event, RegexBudget budget) {
+		int field = fieldIndex[pattern];
+		if(field < 0) {
+			return false;
+		}
+		if(!scan.scanned[field]) {
+			scan.first[field] = first(field, event.get(fields[field]), budget);
+			scan.scanned[field] = true;
+		}
+		return pattern < scan.first[field];
+	}
+
+	/**
+	 * @return index of the first pattern that matches given value, NO_MATCH if none
+	 */
+	private int first(int field, Object value, RegexBudget budget) {
+		if(value == null) {
+			return NO_MATCH;
+		}
+		CharSequence text = value instanceof CharSequence ? (CharSequence)value : value.toString();
+		Matcher m = combined[field].matcher(budget == null ? text : budget.of(text));
+		try {
+			if(!m.matches()) {
+				return NO_MATCH;
+			}
+		} catch (RegexBudget.ExceededException e) {
+			// scan is too expensive for this value, nothing can be skipped
+			log.debug("combined scan exceeded regex step budget, trying patterns one by one");
+			return 0;
+		}
+		int[] tags = tagGroups[field];
+		for(int a = 0; a < tags.length; a++) {
+			if(m.start(tags[a]) >= 0) {
+				return alternativePatterns[field][a];
+			}
+		}
+		return NO_MATCH;
+	}
+
+	/**
+	 * Turn named groups into non-capturing ones, so alternatives could be combined (names would clash otherwise)
+	 */
+	static String removeGroupNames(String regex) {
+		StringBuilder sb = new StringBuilder(regex.length());
+		int i = 0;
+		while(i < regex.length()) {
+			char c = regex.charAt(i);
+			int next;
+			if(c == '\\') {
+				next = LiteralPrefilter.skipEscapeOrLiteral(regex, i);
+			} else if(c == '[') {
+				next = LiteralPrefilter.skipClass(regex, i);
+			} else if(c == '(' && regex.startsWith("(?<", i) && !regex.startsWith("(?<=", i) && !regex.startsWith("(?<!", i)) {
+				sb.append("(?:");
+				i = regex.indexOf('>', i) + 1;
+				continue;
+			} else {
+				next = i + 1;
+			}
+			sb.append(regex, i, next);
+			i = next;
+		}
+		return sb.toString();
+	}
+}
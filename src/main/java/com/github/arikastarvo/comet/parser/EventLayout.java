@@ -0,0 +1,189 @@
+package com.github.arikastarvo.comet.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fixed field positions of a pattern event type, for sending events as object arrays instead of maps.
+ *
+ * Layout of a child pattern is the layout of its parent followed by fields the child adds (same way as esper lays out object-array subtypes), so an event of a child type is also a valid event of its parent.
+ * This only works with single inheritance, so layouts are built only if every pattern has at most one parent.
+ *
+ * @author tarvo
+ *
+ */
+public class EventLayout {
+
+	private static final Logger log = LoggerFactory.getLogger(EventLayout.class);
+
+	/**
+	 * fields every event type has (set by parser and runtime), these are part of top level layouts
+	 */
+	public static final Map<String, Object> BASE_FIELDS = new LinkedHashMap<String, Object>() {{
+		put("eventType", "string");
+		put("logts_timestamp", "long");
+	}};
+
+	private final String type;
+
+	private final String parent;
+
+	private final String[] names;
+
+	private final Object[] types;
+
+	/**
+	 * index of first field that is not inherited from parent
+	 */
+	private final int ownStart;
+
+	private final Map<String, Integer> index = new HashMap<String, Integer>();
+
+	private EventLayout(String type, EventLayout parent, Map<String, Object> fields) {
+		this.type = type;
+		this.parent = parent == null ? null : parent.type;
+
+		List<String> fieldNames = new ArrayList<String>();
+		List<Object> fieldTypes = new ArrayList<Object>();
+		if(parent != null) {
+			fieldNames.addAll(Arrays.asList(parent.names));
+			fieldTypes.addAll(Arrays.asList(parent.types));
+		}
+		this.ownStart = fieldNames.size();
+
+		Map<String, Object> own = new LinkedHashMap<String, Object>();
+		if(parent == null) {
+			own.putAll(BASE_FIELDS);
+		}
+		if(fields != null) {
+			fields.forEach(own::putIfAbsent);
+		}
+		Set<String> inherited = new HashSet<String>(fieldNames);
+		own.forEach( (name, fieldType) -> {
+			if(!inherited.contains(name)) {
+				fieldNames.add(name);
+				fieldTypes.add(fieldType);
+			}
+		});
+
+		this.names = fieldNames.toArray(new String[fieldNames.size()]);
+		this.types = fieldTypes.toArray(new Object[fieldTypes.size()]);
+		for(int i = 0; i < names.length; i++) {
+			index.put(names[i], i);
+		}
+	}
+
+	/**
+	 * @param patterns fully parsed pattern definitions
+	 * @return layouts by event type, null if patterns can not be laid out as object arrays (multiple parents, unknown parents or cycles)
+	 */
+	public static Map<String, EventLayout> build(List<PatternDefinition> patterns) {
+		Map<String, PatternDefinition> byName = new LinkedHashMap<String, PatternDefinition>();
+		for(PatternDefinition pattern : patterns) {
+			if(pattern.hasParents() && new HashSet<String>(pattern.getParents()).size() > 1) {
+				log.debug("pattern '{}' has multiple parents, object-array layouts are not possible", pattern.getName());
+				return null;
+			}
+			byName.put(pattern.getName(), pattern);
+		}
+
+		Map<String, EventLayout> layouts = new LinkedHashMap<String, EventLayout>();
+		for(String name : byName.keySet()) {
+			if(layout(name, byName, layouts, new HashSet<String>()) == null) {
+				return null;
+			}
+		}
+		return layouts;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static EventLayout layout(String name, Map<String, PatternDefinition> byName, Map<String, EventLayout> layouts, Set<String> visiting) {
+		if(layouts.containsKey(name)) {
+			return layouts.get(name);
+		}
+		PatternDefinition pattern = byName.get(name);
+		if(pattern == null || !visiting.add(name)) {
+			log.debug("pattern '{}' is missing or part of a cycle, object-array layouts are not possible", name);
+			return null;
+		}
+		EventLayout parent = null;
+		if(pattern.hasParents()) {
+			parent = layout(pattern.getParents().get(0), byName, layouts, visiting);
+			if(parent == null) {
+				return null;
+			}
+		}
+		Object fields = pattern.get("fields");
+		EventLayout layout = new EventLayout(name, parent, fields instanceof Map ? (Map<String, Object>)fields : null);
+		layouts.put(name, layout);
+		return layout;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	/**
+	 * @return parent type, null for top level types
+	 */
+	public String getParent() {
+		return parent;
+	}
+
+	/**
+	 * @return all field names in layout order
+	 */
+	public String[] getNames() {
+		return names;
+	}
+
+	/**
+	 * @return field names that are not inherited from parent (this is what esper type is registered with)
+	 */
+	public String[] getOwnNames() {
+		return Arrays.copyOfRange(names, ownStart, names.length);
+	}
+
+	/**
+	 * @return field types that are not inherited from parent
+	 */
+	public Object[] getOwnTypes() {
+		return Arrays.copyOfRange(types, ownStart, types.length);
+	}
+
+	/**
+	 * @return position of field, -1 if field is not part of layout
+	 */
+	public int indexOf(String field) {
+		Integer i = index.get(field);
+		return i == null ? -1 : i;
+	}
+
+	/**
+	 * Copy event into new object array, fields that are not part of layout are left out
+	 */
+	public Object[] toArray(Map<String, Object> event) {
+		Object[] array = new Object[names.length];
+		for(int i = 0; i < names.length; i++) {
+			array[i] = event.get(names[i]);
+		}
+		return array;
+	}
+
+	/**
+	 * @return true if other layout has the same fields in the same order
+	 */
+	public boolean sameAs(EventLayout other) {
+		return other != null && Arrays.equals(names, other.names) && Objects.equals(parent, other.parent);
+	}
+}
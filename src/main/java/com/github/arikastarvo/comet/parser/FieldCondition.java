@@ -0,0 +1,131 @@
+package com.github.arikastarvo.comet.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Precompiled field level condition (<code>cond</code> or <code>softcond</code> entry of a pattern definition).
+ *
+ * Condition value is a regex that has to match the whole field value. Values without any regex metacharacters are compared as plain strings.
+ *
+ * @author tarvo
+ *
+ */
+public class FieldCondition {
+
+	private static final String REGEX_METACHARACTERS = "\\^$.|?*+()[]{}";
+
+	private final String field;
+
+	/**
+	 * set if condition value has no regex metacharacters
+	 */
+	private final String literal;
+
+	/**
+	 * null if condition value is null or not a valid regex; such condition never matches
+	 */
+	private final Pattern pattern;
+
+	private final ThreadLocal<Matcher> matcher;
+
+	public FieldCondition(String field, String condition) {
+		this.field = field;
+
+		Pattern compiled = null;
+		String literalValue = null;
+		if(condition != null) {
+			if(isLiteral(condition)) {
+				literalValue = condition;
+			} else {
+				try {
+					compiled = Pattern.compile(condition);
+				} catch (PatternSyntaxException e) {
+					// invalid condition, pattern definition will never match
+				}
+			}
+		}
+		this.literal = literalValue;
+		this.pattern = compiled;
+		this.matcher = compiled != null ? ThreadLocal.withInitial(() -> this.pattern.matcher("")) : null;
+	}
+
+	public String getField() {
+		return field;
+	}
+
+	public boolean isValid() {
+		return literal != null || pattern != null;
+	}
+
+	/**
+	 * @param value field value, must not be null
+	 * @return true if value matches the condition
+	 */
+	public boolean matches(Object value) {
+		CharSequence str = value instanceof CharSequence ? (CharSequence)value : value.toString();
+		if(literal != null) {
+			return literal.contentEquals(str);
+		} else if (pattern != null) {
+			return matcher.get().reset(str).matches();
+		}
+		return false;
+	}
+
+	/**
+	 * Hard conditions - field has to exist, be non-null and match
+	 *
+	 * @return true if all conditions match
+	 */
+	public static boolean allMatch(FieldCondition[] conditions, Map<String, Object> event) {
+		for(int i = 0; i < conditions.length; i++) {
+			Object value = event.get(conditions[i].field);
+			if(value == null || !conditions[i].matches(value)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Soft conditions - only apply if event has non-null value for the field
+	 *
+	 * @return true if all conditions match
+	 */
+	public static boolean allMatchIfPresent(FieldCondition[] conditions, Map<String, Object> event) {
+		for(int i = 0; i < conditions.length; i++) {
+			Object value = event.get(conditions[i].field);
+			if(value != null && !conditions[i].matches(value)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param conditions condition map as defined in pattern definition (field -&gt; regex)
+	 * @return compiled conditions, empty array if there are none
+	 */
+	public static FieldCondition[] compile(Object conditions) {
+		List<FieldCondition> compiled = new ArrayList<FieldCondition>();
+		if(conditions instanceof Map) {
+			for(Map.Entry<?, ?> entry : ((Map<?, ?>)conditions).entrySet()) {
+				compiled.add(new FieldCondition(String.valueOf(entry.getKey()), entry.getValue() != null ? entry.getValue().toString() : null));
+			}
+		}
+		return compiled.toArray(new FieldCondition[compiled.size()]);
+	}
+
+	private static boolean isLiteral(String condition) {
+		for(int i = 0; i < condition.length(); i++) {
+			if(REGEX_METACHARACTERS.indexOf(condition.charAt(i)) >= 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,110 @@
+package com.github.arikastarvo.comet.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Precompiled type conversion of one pattern field (int, long, float or double). String typed fields do not get a converter at all.
+ *
+ * @author tarvo
+ *
+ */
+public class FieldConverter {
+
+	private final String field;
+
+	private final String type;
+
+	private final Class<?> targetClass;
+
+	private final Function<String, Object> parser;
+
+	/**
+	 * conversion failures are logged only once per field, after that they are just counted
+	 */
+	private final AtomicBoolean failureLogged = new AtomicBoolean(false);
+
+	private FieldConverter(String field, String type, Class<?> targetClass, Function<String, Object> parser) {
+		this.field = field;
+		this.type = type;
+		this.targetClass = targetClass;
+		this.parser = parser;
+	}
+
+	/**
+	 * @param field field name
+	 * @param type field type as in pattern definition
+	 * @return converter, or null if field type does not need conversion
+	 */
+	public static FieldConverter forType(String field, Object type) {
+		if(!(type instanceof String)) {
+			return null;
+		}
+		switch((String)type) {
+			case "int":
+				return new FieldConverter(field, "int", Integer.class, Integer::parseInt);
+			case "long":
+				return new FieldConverter(field, "long", Long.class, Long::parseLong);
+			case "float":
+				return new FieldConverter(field, "float", Float.class, Float::parseFloat);
+			case "double":
+				return new FieldConverter(field, "double", Double.class, Double::parseDouble);
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * @param fields field definitions of a pattern (name -&gt; type)
+	 * @return converters for fields that need conversion
+	 */
+	public static FieldConverter[] compile(Object fields) {
+		List<FieldConverter> converters = new ArrayList<FieldConverter>();
+		if(fields instanceof Map) {
+			for(Map.Entry<?, ?> entry : ((Map<?, ?>)fields).entrySet()) {
+				FieldConverter converter = forType(String.valueOf(entry.getKey()), entry.getValue());
+				if(converter != null) {
+					converters.add(converter);
+				}
+			}
+		}
+		return converters.toArray(new FieldConverter[converters.size()]);
+	}
+
+	/**
+	 * Convert field value in place. Missing fields and values that already have the target type are left as they are.
+	 *
+	 * @param event event data
+	 * @return false if value could not be converted (value is left as it was)
+	 */
+	public boolean convert(Map<String, Object> event) {
+		Object value = event.get(field);
+		if(value == null || targetClass.isInstance(value)) {
+			return true;
+		}
+		try {
+			event.put(field, parser.apply(value.toString()));
+			return true;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	public String getField() {
+		return field;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	/**
+	 * @return true only for the first call
+	 */
+	boolean firstFailure() {
+		return !failureLogged.get() && failureLogged.compareAndSet(false, true);
+	}
+}
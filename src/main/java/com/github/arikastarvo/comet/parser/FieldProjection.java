@@ -0,0 +1,95 @@
+package com.github.arikastarvo.comet.parser;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Set of event fields that are actually needed after parsing (referenced by deployed statements).
+ *
+ * Parser skips type conversion and nested json/urlargs/csv expansion of fields that are not needed and drops them (including raw data) from parsed events.
+ * Fields that patterns themselves read during matching (match fields, conditions, source timestamps, replaces) are still converted and expanded, they are only dropped at the end.
+ *
+ * @author tarvo
+ *
+ */
+public class FieldProjection {
+
+	/**
+	 * fields runtime needs for every event (type, timestamps)
+	 */
+	public static final Set<String> ALWAYS_KEPT = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList("__match", "eventType", "logts", "logts_timestamp")));
+
+	private final Set<String> used;
+
+	private final Set<String> internal = new HashSet<String>();
+
+	/**
+	 * @param used fields referenced by statements
+	 * @param patterns parsed pattern definitions
+	 */
+	public FieldProjection(Collection<String> used, List<PatternDefinition> patterns) {
+		this.used = new HashSet<String>(used);
+		this.used.addAll(ALWAYS_KEPT);
+
+		for(PatternDefinition pattern : patterns) {
+			internal.add(Parser.matchField(pattern));
+			for(FieldCondition condition : pattern.getConditions()) {
+				internal.add(condition.getField());
+			}
+			for(FieldCondition condition : pattern.getSoftConditions()) {
+				internal.add(condition.getField());
+			}
+			if(pattern.get("srctime-field") instanceof String) {
+				internal.add((String)pattern.get("srctime-field"));
+			}
+			for(FieldReplace replace : pattern.getReplaces()) {
+				internal.add(replace.getField());
+			}
+		}
+	}
+
+	/**
+	 * @return true if field is kept in parsed event
+	 */
+	public boolean keeps(String field) {
+		return used.contains(field);
+	}
+
+	/**
+	 * @return true if field value has to be converted or expanded (it is kept or patterns read it during matching)
+	 */
+	public boolean needs(String field) {
+		return used.contains(field) || internal.contains(field);
+	}
+
+	/**
+	 * @return true if any of the fields is needed
+	 */
+	public boolean needsAny(Collection<String> fields) {
+		for(String field : fields) {
+			if(needs(field)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * remove fields that are not kept from parsed event
+	 */
+	public void apply(Map<String, Object> event) {
+		event.keySet().removeIf( field -> !used.contains(field));
+	}
+
+	/**
+	 * @return fields that are kept
+	 */
+	public Set<String> getUsed() {
+		return Collections.unmodifiableSet(used);
+	}
+}
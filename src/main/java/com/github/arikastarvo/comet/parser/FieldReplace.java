@@ -0,0 +1,77 @@
+package com.github.arikastarvo.comet.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Precompiled <code>replace</code> entry of a pattern definition - every match of regex in field value is replaced with replacement (same as {@link String#replaceAll(String, String)}).
+ *
+ * @author tarvo
+ *
+ */
+public class FieldReplace {
+
+	private static final Logger log = LoggerFactory.getLogger(FieldReplace.class);
+
+	private final String field;
+
+	private final Pattern pattern;
+
+	private final String replacement;
+
+	private final ThreadLocal<Matcher> matcher;
+
+	private FieldReplace(String field, Pattern pattern, String replacement) {
+		this.field = field;
+		this.pattern = pattern;
+		this.replacement = replacement;
+		this.matcher = ThreadLocal.withInitial(() -> this.pattern.matcher(""));
+	}
+
+	/**
+	 * @param replaces replace list as defined in pattern definition (maps with field, regex and replacement)
+	 * @return compiled replaces in definition order, entries that are incomplete or have invalid regex are left out
+	 */
+	public static FieldReplace[] compile(Object replaces) {
+		List<FieldReplace> compiled = new ArrayList<FieldReplace>();
+		if(replaces instanceof List) {
+			for(Object replace : (List<?>)replaces) {
+				if(!(replace instanceof Map)) {
+					continue;
+				}
+				Map<?, ?> definition = (Map<?, ?>)replace;
+				if(!definition.containsKey("field") || !definition.containsKey("regex") || !definition.containsKey("replacement")) {
+					continue;
+				}
+				try {
+					compiled.add(new FieldReplace(String.valueOf(definition.get("field")), Pattern.compile(String.valueOf(definition.get("regex"))), String.valueOf(definition.get("replacement"))));
+				} catch (PatternSyntaxException e) {
+					log.warn("invalid replace regex '{}' for field '{}', ignoring it : {}", definition.get("regex"), definition.get("field"), e.getMessage());
+				}
+			}
+		}
+		return compiled.toArray(new FieldReplace[compiled.size()]);
+	}
+
+	/**
+	 * Replace field value in place, missing fields are left as they are
+	 */
+	public void apply(Map<String, Object> event) {
+		Object value = event.get(field);
+		if(value == null) {
+			return;
+		}
+		event.put(field, matcher.get().reset(value instanceof CharSequence ? (CharSequence)value : value.toString()).replaceAll(replacement));
+	}
+
+	public String getField() {
+		return field;
+	}
+}
@@ -0,0 +1,199 @@
+package com.github.arikastarvo.comet.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import io.krakens.grok.api.Grok;
+import io.krakens.grok.api.Match;
+
+/**
+ * Matches a compiled grok and writes captured groups straight into event map.
+ *
+ * Does the same thing as <code>match.putAll(grok.match(text).capture())</code> (field names, quote stripping, duplicate names as lists), but without building intermediate maps.
+ * Groups that did not participate in the match are skipped, so they do not overwrite values that are already in the event.
+ *
+ * Groks with inline type conversion (<code>%{INT:name:int}</code>) are matched the same way, but captures are then handed over to grok's {@link Match}, which applies the converters.
+ *
+ * @author tarvo
+ *
+ */
+public class GrokCapture {
+
+	private final Grok grok;
+
+	private final Pattern pattern;
+
+	private final ThreadLocal<Matcher> matcher;
+
+	/**
+	 * regex group names, in the same order as grok itself captures them
+	 */
+	private final String[] groupNames;
+
+	/**
+	 * regex group indexes, null if indexes could not be resolved (groups are then looked up by name)
+	 */
+	private final int[] groupIndexes;
+
+	/**
+	 * event field names of groups
+	 */
+	private final String[] fieldNames;
+
+	/**
+	 * grok has inline type conversions, captures are converted by grok
+	 */
+	private final boolean delegate;
+
+	/**
+	 * for groups with duplicate field names - indexes of previous groups with same name, null otherwise
+	 */
+	private final int[][] previousDuplicates;
+
+	public GrokCapture(Grok grok) {
+		this.grok = grok;
+		this.pattern = Pattern.compile(grok.getNamedRegex());
+		this.matcher = ThreadLocal.withInitial(() -> this.pattern.matcher(""));
+
+		List<String> names = new ArrayList<String>();
+		List<String> fields = new ArrayList<String>();
+		boolean converted = false;
+		for(String id : grok.namedGroups) {
+			String key = grok.getNamedRegexCollectionById(id);
+			if(key == null || key.isEmpty()) {
+				key = id;
+			}
+			if("UNWANTED".equals(key)) {
+				continue;
+			}
+			if(grok.converters.containsKey(key)) {
+				converted = true;
+			}
+			names.add(id);
+			fields.add(key);
+		}
+
+		this.groupNames = names.toArray(new String[names.size()]);
+		this.fieldNames = fields.toArray(new String[fields.size()]);
+		this.delegate = converted;
+
+		int[] indexes = null;
+		try {
+			Map<String, Integer> namedGroups = Parser.namedGroups(pattern);
+			indexes = new int[groupNames.length];
+			for(int i = 0; i < groupNames.length; i++) {
+				indexes[i] = namedGroups.get(groupNames[i]);
+			}
+		} catch (Exception e) {
+			// not accessible, fall back to lookups by name
+			indexes = null;
+		}
+		this.groupIndexes = indexes;
+
+		this.previousDuplicates = new int[fieldNames.length][];
+		for(int i = 0; i < fieldNames.length; i++) {
+			List<Integer> previous = new ArrayList<Integer>();
+			for(int j = 0; j < i; j++) {
+				if(fieldNames[j].equals(fieldNames[i])) {
+					previous.add(j);
+				}
+			}
+			if(!previous.isEmpty()) {
+				previousDuplicates[i] = previous.stream().mapToInt(Integer::intValue).toArray();
+			}
+		}
+	}
+
+	public Grok getGrok() {
+		return grok;
+	}
+
+	/**
+	 * Match text (whole text has to match) and write captured values into event
+	 *
+	 * @param text text to match
+	 * @param event event where captures are written to
+	 * @return true if text matched
+	 */
+	public boolean matchInto(CharSequence text, Map<String, Object> event) {
+		Matcher m = matcher.get().reset(text);
+		try {
+			if(!m.matches()) {
+				return false;
+			}
+			if(delegate) {
+				// captures are read from groups, so converting them does not touch the text again
+				event.putAll(new Match(text, grok, m, m.start(), m.end()).capture());
+				return true;
+			}
+			for(int i = 0; i < groupNames.length; i++) {
+				String raw = group(m, i);
+				if(raw == null) {
+					continue;
+				}
+				put(m, i, fieldNames[i], cleanString(raw), event);
+			}
+			return true;
+		} finally {
+			// do not keep reference to the text
+			m.reset("");
+		}
+	}
+
+	private String group(Matcher m, int i) {
+		return groupIndexes != null ? m.group(groupIndexes[i]) : m.group(groupNames[i]);
+	}
+
+	/**
+	 * duplicate field names within one grok are collected into list (in group order)
+	 */
+	@SuppressWarnings("unchecked")
+	private void put(Matcher m, int i, String field, Object value, Map<String, Object> event) {
+		if(previousDuplicates[i] == null) {
+			event.put(field, value);
+			return;
+		}
+		int previous = 0;
+		for(int j : previousDuplicates[i]) {
+			if(group(m, j) != null) {
+				previous++;
+			}
+		}
+		if(previous == 0) {
+			event.put(field, value);
+		} else if (previous == 1) {
+			List<Object> values = new ArrayList<Object>();
+			values.add(event.get(field));
+			values.add(value);
+			event.put(field, values);
+		} else {
+			((List<Object>)event.get(field)).add(value);
+		}
+	}
+
+	/**
+	 * strip surrounding quotes, same as grok does
+	 */
+	static String cleanString(String value) {
+		if(value.isEmpty()) {
+			return value;
+		}
+		char first = value.charAt(0);
+		char last = value.charAt(value.length() - 1);
+		if(first == last && (first == '"' || first == '\'')) {
+			if(value.length() <= 2) {
+				return "";
+			}
+			for(int i = 1; i < value.length() - 1; i++) {
+				if(value.charAt(i) == first) {
+					return value;
+				}
+			}
+			return value.substring(1, value.length() - 1);
+		}
+		return value;
+	}
+}
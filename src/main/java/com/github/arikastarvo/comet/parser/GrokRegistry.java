@@ -0,0 +1,376 @@
+package com.github.arikastarvo.comet.parser;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.yaml.snakeyaml.Yaml;
+
+import com.github.arikastarvo.comet.CometApplication;
+
+import io.krakens.grok.api.Grok;
+import io.krakens.grok.api.GrokCompiler;
+
+/**
+ * JVM wide registry of parsed pattern files and compiled groks, shared by all parsers (and monitors).
+ *
+ * Pattern files are parsed once per content (sha-256 of file bytes), parsers get their own deep copies of pattern definitions.
+ * Groks are compiled once per pattern and set of grok definitions it is compiled with (fingerprint of definitions), so parsers with the same definitions share compiled groks and their capture helpers.
+ * Default grok definitions and the list of embedded pattern files are resolved only once. Embedded pattern files are listed in {@link #PATTERN_INDEX} (generated at build time), jar is scanned only if index is missing.
+ *
+ * Parsed files and compiled groks are kept in bounded LRU maps, so files that change over time (and monitors that are reloaded with them) do not pile up in registry.
+ * Evicted entries stay valid for parsers that already use them, they are only parsed or compiled again for new parsers.
+ *
+ * @author tarvo
+ *
+ */
+public class GrokRegistry {
+
+	private static final Logger log = LoggerFactory.getLogger(GrokRegistry.class);
+
+	/**
+	 * index of embedded pattern files (one resource name per line)
+	 */
+	public static final String PATTERN_INDEX = "cometpatterns/index.txt";
+
+	private static final String EMBEDDED_PATTERN_FILE = "^cometpatterns/[0-9]+.*\\.yaml";
+
+	/**
+	 * max number of parsed pattern files kept in registry
+	 */
+	public static final int MAX_FILES = 256;
+
+	/**
+	 * max number of compiled groks (and their capture helpers) kept in registry
+	 */
+	public static final int MAX_GROKS = 8192;
+
+	private static final GrokRegistry INSTANCE = new GrokRegistry(MAX_FILES, MAX_GROKS);
+
+	/**
+	 * Parsed content of one pattern file
+	 */
+	public static class PatternFile {
+
+		private final Map<String, String> grok;
+
+		private final List<Map<String, Object>> patterns;
+
+		PatternFile(Map<String, String> grok, List<Map<String, Object>> patterns) {
+			this.grok = grok == null ? Collections.<String, String>emptyMap() : Collections.unmodifiableMap(grok);
+			this.patterns = patterns == null ? Collections.<Map<String, Object>>emptyList() : patterns;
+		}
+
+		/**
+		 * @return grok definitions of the file
+		 */
+		public Map<String, String> getGrok() {
+			return grok;
+		}
+
+		/**
+		 * @return copies of raw pattern definitions (parsing patterns modifies them)
+		 */
+		@SuppressWarnings("unchecked")
+		public List<Map<String, Object>> getPatterns() {
+			List<Map<String, Object>> copies = new ArrayList<Map<String, Object>>(patterns.size());
+			for(Map<String, Object> pattern : patterns) {
+				copies.add((Map<String, Object>)deepCopy(pattern));
+			}
+			return copies;
+		}
+	}
+
+	/**
+	 * sha-256 of content -> parsed file
+	 */
+	private final Map<String, PatternFile> files;
+
+	/**
+	 * fingerprint of definitions and pattern -> compiled grok
+	 */
+	private final Map<String, Grok> groks;
+
+	/**
+	 * grok does not override equals, so this is by identity
+	 */
+	private final Map<Grok, GrokCapture> captures;
+
+	private volatile Map<String, String> defaultDefinitions = null;
+
+	private volatile List<String> embeddedPatternFiles = null;
+
+	/**
+	 * @param maxFiles max number of parsed pattern files kept
+	 * @param maxGroks max number of compiled groks kept
+	 */
+	public GrokRegistry(int maxFiles, int maxGroks) {
+		this.files = lru(maxFiles);
+		this.groks = lru(maxGroks);
+		this.captures = lru(maxGroks);
+	}
+
+	public static GrokRegistry getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @return synchronized map that drops least recently used entries above given size
+	 */
+	private static <K, V> Map<K, V> lru(int maxSize) {
+		int limit = Math.max(1, maxSize);
+		return Collections.synchronizedMap(new LinkedHashMap<K, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				return size() > limit;
+			}
+		});
+	}
+
+	/**
+	 * @return default grok definitions of java-grok and grok-patterns.txt
+	 */
+	public Map<String, String> defaultDefinitions() {
+		Map<String, String> definitions = defaultDefinitions;
+		if(definitions == null) {
+			synchronized(this) {
+				if(defaultDefinitions == null) {
+					GrokCompiler gc = GrokCompiler.newInstance();
+					try {
+						gc.registerDefaultPatterns();
+					} catch (Exception e) {
+						log.warn("Registering default grok patterns failed");
+						log.debug("Registering default grok patterns failed", e);
+					}
+					try {
+						InputStream is = getClass().getClassLoader().getResourceAsStream("grok-patterns.txt");
+						if(is != null) {
+							gc.register(is);
+							log.debug("Registered default grok patterns");
+						}
+					} catch (IOException e) {
+						log.warn("Registering custom grok patterns failed : " + e.getMessage());
+						log.debug("Registering custom grok patterns failed : " + e.getMessage(), e);
+					}
+					defaultDefinitions = Collections.unmodifiableMap(new HashMap<String, String>(gc.getPatternDefinitions()));
+				}
+				definitions = defaultDefinitions;
+			}
+		}
+		return definitions;
+	}
+
+	/**
+	 * @return resource names of embedded pattern files, from index if there is one, otherwise by scanning the jar
+	 */
+	public List<String> embeddedPatternFiles() {
+		List<String> names = embeddedPatternFiles;
+		if(names == null) {
+			synchronized(this) {
+				if(embeddedPatternFiles == null) {
+					List<String> index = readIndex();
+					embeddedPatternFiles = Collections.unmodifiableList(index != null ? index : scanJar());
+				}
+				names = embeddedPatternFiles;
+			}
+		}
+		return names;
+	}
+
+	private List<String> readIndex() {
+		InputStream is = getClass().getClassLoader().getResourceAsStream(PATTERN_INDEX);
+		if(is == null) {
+			return null;
+		}
+		List<String> names = new ArrayList<String>();
+		try(BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+			for(String line = reader.readLine(); line != null; line = reader.readLine()) {
+				line = line.trim();
+				if(line.matches(EMBEDDED_PATTERN_FILE)) {
+					names.add(line);
+				}
+			}
+		} catch (IOException e) {
+			log.warn("Could not read embedded pattern index, scanning jar instead. Cause :" + e.getMessage());
+			return null;
+		}
+		log.debug("read {} embedded pattern files from index", names.size());
+		return names;
+	}
+
+	private List<String> scanJar() {
+		List<String> names = new ArrayList<String>();
+		CodeSource src = CometApplication.class.getProtectionDomain().getCodeSource();
+		if(src != null) {
+			URL embeddedPatterns = src.getLocation();
+			try(ZipInputStream zip = new ZipInputStream(embeddedPatterns.openStream())) {
+				while(true) {
+					ZipEntry e = zip.getNextEntry();
+					if (e == null)
+						break;
+					String name = e.getName();
+					if (name.matches(EMBEDDED_PATTERN_FILE)) {
+						names.add(name);
+					}
+				}
+			} catch (IOException e) {
+				log.warn("Could not load default patterns. Starting without them. Cause :" + e.getMessage());
+				log.debug("Could not load default patterns. Starting without them. Cause :" + e.getMessage(), e);
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * @param name classpath resource name
+	 * @return parsed pattern file, null if resource does not exist
+	 */
+	public PatternFile readResource(String name) throws IOException {
+		InputStream is = getClass().getClassLoader().getResourceAsStream(name);
+		if(is == null) {
+			return null;
+		}
+		try {
+			return read(is.readAllBytes());
+		} finally {
+			is.close();
+		}
+	}
+
+	public PatternFile readFile(File file) throws IOException {
+		return read(Files.readAllBytes(file.toPath()));
+	}
+
+	/**
+	 * @param content yaml content of pattern file
+	 * @return parsed pattern file (cached by content)
+	 */
+	@SuppressWarnings("unchecked")
+	public PatternFile read(byte[] content) {
+		String key = hash(content);
+		PatternFile file = files.get(key);
+		if(file == null) {
+			// parsed outside of lock, so other files can be read meanwhile
+			Map<String, Object> rawObj = new Yaml().load(new ByteArrayInputStream(content));
+			if(rawObj == null) {
+				file = new PatternFile(null, null);
+			} else {
+				file = new PatternFile((Map<String, String>)rawObj.get("grok"), (List<Map<String, Object>>)rawObj.get("patterns"));
+			}
+			PatternFile previous = files.putIfAbsent(key, file);
+			if(previous != null) {
+				file = previous;
+			}
+		}
+		return file;
+	}
+
+	/**
+	 * @return fingerprint of grok definitions (same definitions give the same fingerprint)
+	 */
+	public String fingerprint(Map<String, String> definitions) {
+		StringBuilder sb = new StringBuilder();
+		new TreeMap<String, String>(definitions).forEach( (name, regex) -> sb.append(name).append('\0').append(regex).append('\0'));
+		return hash(sb.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @param gc compiler with grok definitions
+	 * @param fingerprint fingerprint of compiler definitions (see {@link #fingerprint(Map)})
+	 * @param pattern grok expression
+	 * @return compiled grok, shared with other parsers that use the same definitions
+	 * @throws IllegalArgumentException if pattern can not be compiled
+	 */
+	public Grok compile(GrokCompiler gc, String fingerprint, String pattern) {
+		String key = fingerprint + '\0' + pattern;
+		Grok grok = groks.get(key);
+		if(grok == null) {
+			grok = gc.compile(pattern, true);
+			Grok previous = groks.putIfAbsent(key, grok);
+			if(previous != null) {
+				grok = previous;
+			}
+		}
+		return grok;
+	}
+
+	/**
+	 * @return capture helper of compiled grok (shared, it keeps its matchers per thread)
+	 */
+	public GrokCapture capture(Grok grok) {
+		GrokCapture capture = captures.get(grok);
+		if(capture == null) {
+			capture = new GrokCapture(grok);
+			GrokCapture previous = captures.putIfAbsent(grok, capture);
+			if(previous != null) {
+				capture = previous;
+			}
+		}
+		return capture;
+	}
+
+	/**
+	 * @return number of compiled groks in registry
+	 */
+	public int size() {
+		return groks.size();
+	}
+
+	/**
+	 * @return number of parsed pattern files in registry
+	 */
+	public int fileCount() {
+		return files.size();
+	}
+
+	private static String hash(byte[] content) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+			StringBuilder sb = new StringBuilder(digest.length * 2);
+			for(byte b : digest) {
+				sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Object deepCopy(Object value) {
+		if(value instanceof Map) {
+			Map<Object, Object> copy = new LinkedHashMap<Object, Object>();
+			((Map<Object, Object>)value).forEach( (key, item) -> copy.put(key, deepCopy(item)));
+			return copy;
+		} else if(value instanceof List) {
+			List<Object> copy = new ArrayList<Object>();
+			for(Object item : (List<Object>)value) {
+				copy.add(deepCopy(item));
+			}
+			return copy;
+		}
+		return value;
+	}
+}
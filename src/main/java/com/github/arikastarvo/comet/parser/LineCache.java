@@ -0,0 +1,163 @@
+package com.github.arikastarvo.comet.parser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of parse results by raw line, for sources that repeat identical lines (health checks, repeated kernel messages).
+ *
+ * Cached snapshot is the parsed event as it was after matching (including matched type chain), hits get a copy of it without running any regex.
+ * Only flat events are cached - events with nested values (json, urlargs, duplicate captures) would need deep copies, so they are parsed every time.
+ * Lines matched by a pattern with <code>cache: false</code> (anywhere in the type chain) are not cached.
+ * Lines longer than {@value #MAX_LINE_LENGTH} characters are not looked up at all (see {@link #key(CharSequence)}), they are counted as skipped instead of misses.
+ *
+ * Parser replaces the cache with an empty one whenever the plan or field projection changes.
+ *
+ * @author tarvo
+ *
+ */
+public class LineCache {
+
+	/**
+	 * longer lines are not cached
+	 */
+	static final int MAX_LINE_LENGTH = 4096;
+
+	private final int size;
+
+	private final Map<String, Map<String, Object>> entries;
+
+	private final Set<String> uncachedTypes;
+
+	private final LongAdder hits;
+
+	private final LongAdder misses;
+
+	private final LongAdder skipped;
+
+	/**
+	 * @param size max number of cached lines
+	 * @param patterns parsed pattern definitions
+	 */
+	public LineCache(int size, List<PatternDefinition> patterns) {
+		this(size, new HashSet<String>(), new LongAdder(), new LongAdder(), new LongAdder());
+		for(PatternDefinition pattern : patterns) {
+			if("false".equals(String.valueOf(pattern.get("cache")))) {
+				uncachedTypes.add(pattern.getName());
+			}
+		}
+	}
+
+	private LineCache(int size, Set<String> uncachedTypes, LongAdder hits, LongAdder misses, LongAdder skipped) {
+		this.size = Math.max(1, size);
+		this.uncachedTypes = uncachedTypes;
+		this.hits = hits;
+		this.misses = misses;
+		this.skipped = skipped;
+		this.entries = new LinkedHashMap<String, Map<String, Object>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Map<String, Object>> eldest) {
+				return size() > LineCache.this.size;
+			}
+		};
+	}
+
+	/**
+	 * @return new empty cache with the same settings and metrics (threads still parsing with this one can not pollute it)
+	 */
+	public LineCache renewed() {
+		return new LineCache(size, uncachedTypes, hits, misses, skipped);
+	}
+
+	/**
+	 * Cache key of line, length is checked before the line is turned into a string (byte line views are not decoded for lines that are not cached)
+	 *
+	 * @return key for {@link #get(String, Map)} and {@link #put(String, Map)}, null if line is too long to be cached (counted as skipped)
+	 */
+	public String key(CharSequence line) {
+		if(line.length() > MAX_LINE_LENGTH) {
+			skipped.increment();
+			return null;
+		}
+		return line.toString();
+	}
+
+	/**
+	 * copy cached result of line into event
+	 *
+	 * @param key key of line (see {@link #key(CharSequence)})
+	 * @return true on hit
+	 */
+	public boolean get(String key, Map<String, Object> event) {
+		Map<String, Object> cached;
+		synchronized(entries) {
+			cached = entries.get(key);
+		}
+		if(cached == null) {
+			misses.increment();
+			return false;
+		}
+		hits.increment();
+		event.putAll(cached);
+		event.put("__match", new ArrayList<Object>((List<?>)cached.get("__match")));
+		return true;
+	}
+
+	/**
+	 * store snapshot of parsed event, if it can be cached
+	 *
+	 * @param key key of line (see {@link #key(CharSequence)})
+	 */
+	public void put(String key, Map<String, Object> event) {
+		if(!(event.get("__match") instanceof List)) {
+			return;
+		}
+		for(Object type : (List<?>)event.get("__match")) {
+			if(uncachedTypes.contains(type)) {
+				return;
+			}
+		}
+		Map<String, Object> snapshot = new HashMap<String, Object>(event);
+		for(Map.Entry<String, Object> field : snapshot.entrySet()) {
+			if(!field.getKey().equals("__match") && (field.getValue() instanceof Map || field.getValue() instanceof List)) {
+				return;
+			}
+		}
+		snapshot.put("__match", new ArrayList<Object>((List<?>)event.get("__match")));
+		synchronized(entries) {
+			entries.put(key, snapshot);
+		}
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return number of lines that were too long to be cached
+	 */
+	public long getSkipped() {
+		return skipped.sum();
+	}
+
+	/**
+	 * @return number of cached lines
+	 */
+	public int size() {
+		synchronized(entries) {
+			return entries.size();
+		}
+	}
+}
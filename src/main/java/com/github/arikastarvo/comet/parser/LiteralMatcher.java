@@ -0,0 +1,199 @@
+package com.github.arikastarvo.comet.parser;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Aho-Corasick multi-string matcher. Finds all the given literals that occur in a text with a single pass over it.
+ *
+ * ASCII literals are compiled into a dense DFA over the alphabet of characters that actually occur in literals. Literals containing non-ASCII characters (rare in patterns) are checked with plain indexOf.
+ *
+ * @author tarvo
+ *
+ */
+public class LiteralMatcher {
+
+	/**
+	 * ascii char -&gt; alphabet class, 0 means char is not part of any literal
+	 */
+	private final int[] charClass = new int[128];
+
+	private final int alphabetSize;
+
+	/**
+	 * complete transition table, state * alphabetSize + class -&gt; next state
+	 */
+	private final int[] delta;
+
+	/**
+	 * literal ids that end in given state (includes outputs of failure states)
+	 */
+	private final int[][] outputs;
+
+	private final String[] slowLiterals;
+	private final int[] slowLiteralIds;
+
+	private final int literalCount;
+
+	public LiteralMatcher(List<String> literals) {
+		this.literalCount = literals.size();
+
+		List<String> slow = new ArrayList<String>();
+		List<Integer> slowIds = new ArrayList<Integer>();
+
+		// build alphabet
+		int classes = 1;
+		for(int id = 0; id < literals.size(); id++) {
+			String literal = literals.get(id);
+			if(!isAscii(literal)) {
+				continue;
+			}
+			for(int i = 0; i < literal.length(); i++) {
+				char c = literal.charAt(i);
+				if(charClass[c] == 0) {
+					charClass[c] = classes++;
+				}
+			}
+		}
+		this.alphabetSize = classes;
+
+		// build trie
+		List<int[]> gotoTable = new ArrayList<int[]>();
+		List<List<Integer>> stateOutputs = new ArrayList<List<Integer>>();
+		gotoTable.add(newRow());
+		stateOutputs.add(new ArrayList<Integer>());
+
+		for(int id = 0; id < literals.size(); id++) {
+			String literal = literals.get(id);
+			if(literal.isEmpty()) {
+				continue;
+			}
+			if(!isAscii(literal)) {
+				slow.add(literal);
+				slowIds.add(id);
+				continue;
+			}
+			int state = 0;
+			for(int i = 0; i < literal.length(); i++) {
+				int cls = charClass[literal.charAt(i)];
+				int next = gotoTable.get(state)[cls];
+				if(next < 0) {
+					next = gotoTable.size();
+					gotoTable.add(newRow());
+					stateOutputs.add(new ArrayList<Integer>());
+					gotoTable.get(state)[cls] = next;
+				}
+				state = next;
+			}
+			stateOutputs.get(state).add(id);
+		}
+
+		// breadth first over trie to compute failure links and complete the transition table
+		int states = gotoTable.size();
+		int[] failure = new int[states];
+		delta = new int[states * alphabetSize];
+		Queue<Integer> queue = new ArrayDeque<Integer>();
+
+		for(int cls = 0; cls < alphabetSize; cls++) {
+			int next = gotoTable.get(0)[cls];
+			if(next > 0) {
+				failure[next] = 0;
+				delta[cls] = next;
+				queue.add(next);
+			} else {
+				delta[cls] = 0;
+			}
+		}
+		while(!queue.isEmpty()) {
+			int state = queue.poll();
+			stateOutputs.get(state).addAll(stateOutputs.get(failure[state]));
+			for(int cls = 0; cls < alphabetSize; cls++) {
+				int next = gotoTable.get(state)[cls];
+				if(next > 0) {
+					failure[next] = delta[failure[state] * alphabetSize + cls];
+					delta[state * alphabetSize + cls] = next;
+					queue.add(next);
+				} else {
+					delta[state * alphabetSize + cls] = delta[failure[state] * alphabetSize + cls];
+				}
+			}
+		}
+
+		outputs = new int[states][];
+		for(int state = 0; state < states; state++) {
+			List<Integer> out = stateOutputs.get(state);
+			if(!out.isEmpty()) {
+				outputs[state] = out.stream().distinct().mapToInt(Integer::intValue).toArray();
+			}
+		}
+
+		slowLiterals = slow.toArray(new String[slow.size()]);
+		slowLiteralIds = slowIds.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	/**
+	 * @return number of literals, ids of literals are their indexes in the list given to constructor
+	 */
+	public int size() {
+		return literalCount;
+	}
+
+	/**
+	 * @return new bitset large enough to hold scan results
+	 */
+	public long[] newResult() {
+		return new long[(literalCount + 63) >>> 6];
+	}
+
+	/**
+	 * Find all the literals in text
+	 *
+	 * @param text text to be scanned
+	 * @param found bitset where bits of found literal ids are set (see {@link #newResult()})
+	 */
+	public void scan(CharSequence text, long[] found) {
+		Arrays.fill(found, 0L);
+		int state = 0;
+		int length = text.length();
+		for(int i = 0; i < length; i++) {
+			char c = text.charAt(i);
+			state = delta[state * alphabetSize + (c < 128 ? charClass[c] : 0)];
+			int[] out = outputs[state];
+			if(out != null) {
+				for(int id : out) {
+					found[id >>> 6] |= 1L << id;
+				}
+			}
+		}
+		if(slowLiterals.length > 0) {
+			String str = text.toString();
+			for(int i = 0; i < slowLiterals.length; i++) {
+				if(str.contains(slowLiterals[i])) {
+					found[slowLiteralIds[i] >>> 6] |= 1L << slowLiteralIds[i];
+				}
+			}
+		}
+	}
+
+	public static boolean isFound(long[] found, int id) {
+		return (found[id >>> 6] & (1L << id)) != 0;
+	}
+
+	private int[] newRow() {
+		int[] row = new int[alphabetSize];
+		Arrays.fill(row, -1);
+		return row;
+	}
+
+	private static boolean isAscii(String literal) {
+		for(int i = 0; i < literal.length(); i++) {
+			if(literal.charAt(i) >= 128) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,457 @@
+package com.github.arikastarvo.comet.parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import io.krakens.grok.api.Grok;
+
+/**
+ * Literal prefilter of one hierarchy level.
+ *
+ * Required literal substrings are extracted from the named regex of every grok of sibling patterns and all of them are put into one {@link LiteralMatcher} per match field. Line is scanned once (lazily, on first use) and only groks whose literals were all found are worth trying.
+ *
+ * @author tarvo
+ *
+ */
+public class LiteralPrefilter {
+
+	private static final Pattern CASE_INSENSITIVE_FLAGS = Pattern.compile("\\(\\?[a-zA-Z-]*[ix][a-zA-Z-]*[:)]");
+
+	/**
+	 * distinct match fields of the level
+	 */
+	private final String[] fields;
+
+	private final LiteralMatcher[] matchers;
+
+	/**
+	 * pattern index -&gt; index in fields
+	 */
+	private final int[] fieldIndex;
+
+	/**
+	 * pattern index -&gt; grok index -&gt; required literal ids, null if grok has to be always tried
+	 */
+	private final int[][][] required;
+
+	/**
+	 * Per line scan state of a level
+	 */
+	public class Scan {
+		private final long[][] found = new long[fields.length][];
+		private final boolean[] scanned = new boolean[fields.length];
+
+		/**
+		 * forget scan results, needed if event fields have been changed
+		 */
+		public void reset() {
+			for(int i = 0; i < scanned.length; i++) {
+				scanned[i] = false;
+			}
+		}
+	}
+
+	private LiteralPrefilter(String[] fields, LiteralMatcher[] matchers, int[] fieldIndex, int[][][] required) {
+		this.fields = fields;
+		this.matchers = matchers;
+		this.fieldIndex = fieldIndex;
+		this.required = required;
+	}
+
+	/**
+	 * @param patterns sibling patterns in matching order
+	 * @return prefilter for these patterns, or null if none of the patterns has any required literals
+	 */
+	public static LiteralPrefilter build(List<PatternDefinition> patterns) {
+
+		List<String> fieldNames = new ArrayList<String>();
+		List<List<String>> literalsPerField = new ArrayList<List<String>>();
+		List<Map<String, Integer>> literalIdsPerField = new ArrayList<Map<String, Integer>>();
+
+		int[] fieldIndex = new int[patterns.size()];
+		int[][][] required = new int[patterns.size()][][];
+		boolean anyLiterals = false;
+
+		for(int p = 0; p < patterns.size(); p++) {
+			PatternDefinition pattern = patterns.get(p);
+			String field = Parser.matchField(pattern);
+			int idx = fieldNames.indexOf(field);
+			if(idx < 0) {
+				idx = fieldNames.size();
+				fieldNames.add(field);
+				literalsPerField.add(new ArrayList<String>());
+				literalIdsPerField.add(new HashMap<String, Integer>());
+			}
+			fieldIndex[p] = idx;
+
+			List<Grok> groks = Parser.groks(pattern.get("pattern"));
+			required[p] = new int[groks.size()][];
+			for(int g = 0; g < groks.size(); g++) {
+				List<String> literals = requiredLiterals(groks.get(g).getNamedRegex());
+				if(literals.isEmpty()) {
+					continue;
+				}
+				anyLiterals = true;
+				int[] ids = new int[literals.size()];
+				for(int l = 0; l < literals.size(); l++) {
+					String literal = literals.get(l);
+					List<String> fieldLiterals = literalsPerField.get(idx);
+					ids[l] = literalIdsPerField.get(idx).computeIfAbsent(literal, it -> {
+						fieldLiterals.add(it);
+						return fieldLiterals.size() - 1;
+					});
+				}
+				required[p][g] = ids;
+			}
+		}
+
+		if(!anyLiterals) {
+			return null;
+		}
+
+		LiteralMatcher[] matchers = new LiteralMatcher[fieldNames.size()];
+		for(int i = 0; i < matchers.length; i++) {
+			matchers[i] = new LiteralMatcher(literalsPerField.get(i));
+		}
+		return new LiteralPrefilter(fieldNames.toArray(new String[fieldNames.size()]), matchers, fieldIndex, required);
+	}
+
+	public Scan newScan() {
+		return new Scan();
+	}
+
+	/**
+	 * @param scan per line scan state
+	 * @param pattern index of the pattern in level
+	 * @param grok index of the grok in pattern
+	 * @param text value of the match field of the pattern
+	 * @return false if grok can not match the text
+	 */
+	public boolean mayMatch(Scan scan, int pattern, int grok, CharSequence text) {
+		int[] ids = required[pattern].length > grok ? required[pattern][grok] : null;
+		if(ids == null) {
+			return true;
+		}
+		int field = fieldIndex[pattern];
+		if(!scan.scanned[field]) {
+			if(scan.found[field] == null) {
+				scan.found[field] = matchers[field].newResult();
+			}
+			matchers[field].scan(text, scan.found[field]);
+			scan.scanned[field] = true;
+		}
+		long[] found = scan.found[field];
+		for(int id : ids) {
+			if(!LiteralMatcher.isFound(found, id)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	//////////////////////////
+	//  literal extraction  //
+	//////////////////////////
+
+
+	/**
+	 * Extract literal substrings that have to be present in every text that the regex matches.
+	 *
+	 * Extraction is conservative - everything that is not understood (character classes, optional parts, alternations, case-insensitive flags etc.) just doesn't produce any literals.
+	 *
+	 * @param regex java regex
+	 * @return required literals, empty list if none could be found
+	 */
+	public static List<String> requiredLiterals(String regex) {
+		if(CASE_INSENSITIVE_FLAGS.matcher(regex).find()) {
+			// case insensitive or comments mode anywhere makes literals unreliable
+			return Collections.emptyList();
+		}
+		Set<String> literals = new LinkedHashSet<String>();
+		try {
+			if(!collect(regex, 0, regex.length(), literals)) {
+				return Collections.emptyList();
+			}
+		} catch (RuntimeException e) {
+			// something that we did not understand
+			return Collections.emptyList();
+		}
+		return new ArrayList<String>(literals);
+	}
+
+	/**
+	 * @return false if literals of whole regex can not be trusted
+	 */
+	private static boolean collect(String re, int from, int to, Set<String> literals) {
+
+		if(hasTopLevelAlternation(re, from, to)) {
+			// any of the branches may match, so nothing is required (at least on this level)
+			return true;
+		}
+
+		StringBuilder run = new StringBuilder();
+		int i = from;
+		while(i < to) {
+			char c = re.charAt(i);
+			int next;
+			// literal char of this atom, or -1 if atom is not a single literal char
+			int literal = -1;
+			// group content range, if atom is a group that should be descended into
+			int groupFrom = -1, groupTo = -1;
+
+			switch(c) {
+				case '\\':
+					literal = escapedLiteral(re.charAt(i + 1));
+					next = literal >= 0 ? i + 2 : skipEscape(re, i);
+					break;
+				case '[':
+					next = skipClass(re, i);
+					break;
+				case '(':
+					int close = groupEnd(re, i);
+					next = close + 1;
+					if(re.startsWith("(?=", i) || re.startsWith("(?!", i) || re.startsWith("(?<=", i) || re.startsWith("(?<!", i)) {
+						// lookaround, ignore
+					} else if(re.startsWith("(?<", i)) {
+						groupFrom = re.indexOf('>', i) + 1;
+						groupTo = close;
+					} else if(re.startsWith("(?:", i) || re.startsWith("(?>", i)) {
+						groupFrom = i + 3;
+						groupTo = close;
+					} else if(re.startsWith("(?", i)) {
+						// inline flags, (?flags) or (?flags:X)
+						int colon = re.indexOf(':', i);
+						int flagsEnd = colon > 0 && colon < close ? colon : close;
+						String flags = re.substring(i + 2, flagsEnd);
+						if(flags.indexOf('i') >= 0 || flags.indexOf('x') >= 0) {
+							return false;
+						}
+						if(flagsEnd == colon) {
+							groupFrom = colon + 1;
+							groupTo = close;
+						}
+					} else {
+						groupFrom = i + 1;
+						groupTo = close;
+					}
+					break;
+				case ')':
+				case '|':
+				case '*':
+				case '+':
+				case '?':
+				case '{':
+					// should not happen in valid regex
+					return false;
+				case '.':
+				case '^':
+				case '$':
+					next = i + 1;
+					break;
+				default:
+					literal = c;
+					next = i + 1;
+			}
+
+			// quantifier
+			int min = 1;
+			boolean repeated = false;
+			if(next < to) {
+				char q = re.charAt(next);
+				boolean quantified = true;
+				if(q == '?' || q == '*' || q == '+') {
+					min = q == '+' ? 1 : 0;
+					repeated = q != '?';
+					next++;
+				} else if(q == '{') {
+					int end = re.indexOf('}', next);
+					String[] bounds = re.substring(next + 1, end).split(",", -1);
+					min = Integer.parseInt(bounds[0].trim());
+					repeated = bounds.length > 1 || min > 1;
+					next = end + 1;
+				} else {
+					quantified = false;
+				}
+				if(quantified && next < to && (re.charAt(next) == '?' || re.charAt(next) == '+')) {
+					// lazy or possessive quantifier
+					next++;
+				}
+			}
+
+			if(literal >= 0 && min > 0) {
+				run.append((char)literal);
+				if(repeated) {
+					flush(run, literals);
+					run.append((char)literal);
+				}
+			} else {
+				flush(run, literals);
+				if(groupFrom >= 0 && min > 0) {
+					if(!collect(re, groupFrom, groupTo, literals)) {
+						return false;
+					}
+				}
+			}
+			i = next;
+		}
+		flush(run, literals);
+		return true;
+	}
+
+	private static void flush(StringBuilder run, Set<String> literals) {
+		if(run.length() > 0) {
+			literals.add(run.toString());
+			run.setLength(0);
+		}
+	}
+
+	/**
+	 * @return literal char for escape sequence (\t, \., ...), -1 if escape is not a literal
+	 */
+	private static int escapedLiteral(char e) {
+		switch(e) {
+			case 't': return '\t';
+			case 'n': return '\n';
+			case 'r': return '\r';
+			case 'f': return '\f';
+			case 'a': return '\u0007';
+			case 'e': return '\u001B';
+			default:
+				if(Character.isLetterOrDigit(e)) {
+					return -1;
+				}
+				return e;
+		}
+	}
+
+	/**
+	 * @return index after the (non-literal) escape sequence starting at i
+	 */
+	private static int skipEscape(String re, int i) {
+		char e = re.charAt(i + 1);
+		switch(e) {
+			case 'p':
+			case 'P':
+			case 'N':
+				return re.charAt(i + 2) == '{' ? re.indexOf('}', i) + 1 : i + 3;
+			case 'x':
+				if(re.charAt(i + 2) == '{') {
+					return re.indexOf('}', i) + 1;
+				}
+				return i + 4;
+			case 'u':
+				return i + 6;
+			case 'c':
+				return i + 3;
+			case 'k':
+				return re.indexOf('>', i) + 1;
+			case 'Q':
+				int end = re.indexOf("\\E", i);
+				return end < 0 ? re.length() : end + 2;
+			case '0':
+				int j = i + 2;
+				while(j < re.length() && j < i + 5 && re.charAt(j) >= '0' && re.charAt(j) <= '7') {
+					j++;
+				}
+				return j;
+			default:
+				if(e >= '1' && e <= '9') {
+					int k = i + 2;
+					while(k < re.length() && Character.isDigit(re.charAt(k))) {
+						k++;
+					}
+					return k;
+				}
+				return i + 2;
+		}
+	}
+
+	/**
+	 * @return index after the character class starting at i
+	 */
+	static int skipClass(String re, int i) {
+		int j = i + 1;
+		if(re.charAt(j) == '^') {
+			j++;
+		}
+		if(re.charAt(j) == ']') {
+			j++;
+		}
+		int depth = 1;
+		while(true) {
+			char c = re.charAt(j);
+			if(c == '\\') {
+				j = re.charAt(j + 1) == 'Q' ? re.indexOf("\\E", j) + 2 : j + 2;
+				continue;
+			} else if(c == '[') {
+				depth++;
+			} else if(c == ']') {
+				depth--;
+				if(depth == 0) {
+					return j + 1;
+				}
+			}
+			j++;
+		}
+	}
+
+	/**
+	 * @return index of the closing parenthesis of group starting at i
+	 */
+	private static int groupEnd(String re, int i) {
+		int depth = 0;
+		int j = i;
+		while(true) {
+			char c = re.charAt(j);
+			if(c == '\\') {
+				j = skipEscapeOrLiteral(re, j);
+				continue;
+			} else if(c == '[') {
+				j = skipClass(re, j);
+				continue;
+			} else if(c == '(') {
+				depth++;
+			} else if(c == ')') {
+				depth--;
+				if(depth == 0) {
+					return j;
+				}
+			}
+			j++;
+		}
+	}
+
+	private static boolean hasTopLevelAlternation(String re, int from, int to) {
+		int depth = 0;
+		int j = from;
+		while(j < to) {
+			char c = re.charAt(j);
+			if(c == '\\') {
+				j = skipEscapeOrLiteral(re, j);
+				continue;
+			} else if(c == '[') {
+				j = skipClass(re, j);
+				continue;
+			} else if(c == '(') {
+				depth++;
+			} else if(c == ')') {
+				depth--;
+			} else if(c == '|' && depth == 0) {
+				return true;
+			}
+			j++;
+		}
+		return false;
+	}
+
+	static int skipEscapeOrLiteral(String re, int i) {
+		return escapedLiteral(re.charAt(i + 1)) >= 0 ? i + 2 : skipEscape(re, i);
+	}
+}
@@ -0,0 +1,183 @@
+package com.github.arikastarvo.comet.parser;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.github.arikastarvo.comet.CustomStats;
+import com.opencsv.CSVParser;
+
+/**
+ * Mutable per thread state of matching lines with a {@link Parser}.
+ *
+ * Parser itself (pattern plan, compiled groks, prefilters) is immutable and shared, everything that is written during matching lives here, so several threads can use the same parser without locking.
+ * Scan buffers are allocated once per level and reused for following lines.
+ *
+ * Context is not thread-safe, every thread needs its own (see {@link Parser#newContext()}). Parser keeps one per thread for calls without explicit context.
+ *
+ * @author tarvo
+ *
+ */
+public class MatchContext {
+
+	private PatternPlan plan;
+
+	private FieldProjection projection;
+
+	private LineCache lineCache;
+
+	private LiteralPrefilter.Scan[] scans;
+
+	private CombinedMatcher.Scan[] combinedScans;
+
+	private CSVParser csvParser = null;
+
+	private RegexBudget regexBudget = null;
+
+	/**
+	 * stats counted during current batch (target -&gt; level -&gt; count)
+	 */
+	private final Map<String, Map<String, int[]>> batchStats = new HashMap<String, Map<String, int[]>>();
+
+	private boolean batch = false;
+
+	/**
+	 * lines parsed since last reorder check
+	 */
+	private int lines = 0;
+
+	MatchContext(PatternPlan plan) {
+		bind(plan, null, null);
+	}
+
+	/**
+	 * drop scan buffers of previous plan if plan has been changed
+	 */
+	void bind(PatternPlan plan, FieldProjection projection, LineCache lineCache) {
+		this.projection = projection;
+		this.lineCache = lineCache;
+		if(this.plan == plan) {
+			return;
+		}
+		this.plan = plan;
+		this.scans = new LiteralPrefilter.Scan[plan.getLevelCount()];
+		this.combinedScans = new CombinedMatcher.Scan[plan.getLevelCount()];
+	}
+
+	PatternPlan getPlan() {
+		return plan;
+	}
+
+	/**
+	 * @return projection of fields for current line, null if all fields are kept
+	 */
+	FieldProjection getProjection() {
+		return projection;
+	}
+
+	/**
+	 * @return line cache that goes together with current plan and projection, null if caching is disabled
+	 */
+	LineCache getLineCache() {
+		return lineCache;
+	}
+
+	/**
+	 * @return empty prefilter scan of the level
+	 */
+	LiteralPrefilter.Scan scan(PatternPlan.Level level) {
+		LiteralPrefilter.Scan scan = scans[level.getIndex()];
+		if(scan == null) {
+			scan = level.getPrefilter().newScan();
+			scans[level.getIndex()] = scan;
+		} else {
+			scan.reset();
+		}
+		return scan;
+	}
+
+	/**
+	 * @return empty combined matcher scan of the level
+	 */
+	CombinedMatcher.Scan combinedScan(PatternPlan.Level level) {
+		CombinedMatcher.Scan scan = combinedScans[level.getIndex()];
+		if(scan == null) {
+			scan = level.getCombinedMatcher().newScan();
+			combinedScans[level.getIndex()] = scan;
+		} else {
+			scan.reset();
+		}
+		return scan;
+	}
+
+	void beginBatch() {
+		batch = true;
+	}
+
+	/**
+	 * @return false if not in batch (caller has to count it itself)
+	 */
+	boolean count(String target, String level) {
+		if(!batch) {
+			return false;
+		}
+		int[] counter = batchStats.computeIfAbsent(target, it -> new HashMap<String, int[]>()).get(level);
+		if(counter == null) {
+			counter = new int[1];
+			batchStats.get(target).put(level, counter);
+		}
+		counter[0]++;
+		return true;
+	}
+
+	/**
+	 * add stats of the batch to parser stats
+	 */
+	void endBatch(CustomStats stats) {
+		batch = false;
+		if(stats != null) {
+			batchStats.forEach( (target, counters) -> counters.forEach( (level, counter) -> {
+				if(counter[0] > 0) {
+					stats.counter(target, level).add(counter[0]);
+					counter[0] = 0;
+				}
+			}));
+		}
+	}
+
+	/**
+	 * count a parsed line
+	 *
+	 * @return true once every interval lines
+	 */
+	boolean tick(int interval) {
+		if(++lines < interval) {
+			return false;
+		}
+		lines = 0;
+		return true;
+	}
+
+	/**
+	 * @param steps max number of character reads per match
+	 * @return reusable budgeted view for regex matching, null if steps is not positive (no budget)
+	 */
+	RegexBudget regexBudget(long steps) {
+		if(steps <= 0) {
+			return null;
+		}
+		if(regexBudget == null || regexBudget.getBudget() != steps) {
+			regexBudget = new RegexBudget(steps);
+		}
+		return regexBudget;
+	}
+
+	/**
+	 * csv parser keeps state between calls, so it can not be shared
+	 */
+	CSVParser csvParser() {
+		if(csvParser == null) {
+			csvParser = new CSVParser();
+		}
+		return csvParser;
+	}
+}
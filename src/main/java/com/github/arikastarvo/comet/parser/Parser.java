@@ -1,19 +1,15 @@
 package com.github.arikastarvo.comet.parser;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
-import java.net.URL;
 import java.net.URLDecoder;
-import java.security.CodeSource;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
@@ -21,47 +17,95 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.yaml.snakeyaml.Yaml;
 
 import com.github.arikastarvo.comet.CustomStats;
 import com.github.arikastarvo.comet.MonitorRuntimeConfiguration;
 import com.github.arikastarvo.comet.CometApplication;
 import com.jsoniter.JsonIterator;
+import com.jsoniter.ValueType;
 import com.jsoniter.spi.JsonException;
 import com.jsoniter.spi.TypeLiteral;
-import com.opencsv.CSVParser;
 
 import io.krakens.grok.api.Grok;
 import io.krakens.grok.api.GrokCompiler;
 import io.krakens.grok.api.GrokUtils;
-import io.krakens.grok.api.Match;
 import io.krakens.grok.api.exception.GrokException;
 
 
 public class Parser {
 
 	private List<PatternDefinition> patterns;
+	
+	/**
+	 * precomputed parent -> ordered children index of patterns, built once after patterns are parsed
+	 */
+	private volatile PatternPlan plan;
+	
+	/**
+	 * object-array field layouts of event types, fixed after patterns are parsed (null if patterns can not be laid out)
+	 */
+	private volatile Map<String, EventLayout> eventLayouts;
+	
+	/**
+	 * fields that are needed after parsing, null if all fields are kept
+	 */
+	private volatile FieldProjection projection = null;
+	
 	private CustomStats customStats = null;
 	
+	private ParserConfiguration configuration = new ParserConfiguration();
+	
+	/**
+	 * number of field values that could not be converted to their declared type
+	 */
+	private final LongAdder conversionFailures = new LongAdder();
+	
+	/**
+	 * number of matches aborted because they ran out of regex step budget
+	 */
+	private final LongAdder regexBudgetExceeded = new LongAdder();
+	
 	public static final String DEFAULT_EVENT_TYPE = "events";
+	
+	/**
+	 * base pattern types (cometpatterns/000_base.yaml), these carry event metadata (logts, host) and are always parsed
+	 */
+	public static final List<String> BASE_EVENT_TYPES = Arrays.asList(DEFAULT_EVENT_TYPE, "logevents");
+	
+	/**
+	 * event types current plan descends into, null if all types are parsed
+	 */
+	private volatile Set<String> activeEventTypes = null;
+	
+	/**
+	 * live match counts for reordering siblings, null if adaptive ordering is disabled
+	 */
+	private volatile AdaptiveOrder adaptiveOrder = null;
+	
+	/**
+	 * parse results of recent lines, null if line cache is disabled
+	 */
+	private volatile LineCache lineCache = null;
 
 	/**
 	 * if this is a non-null list of strings then only these event types (and their parents) will be used for parsing 
 	 */
 	private List<String> eventTypesToParse = null;
 	
-	// preinit csv parser (even if we don't need it most of the time).. should be lazy-inited actually
-	private CSVParser csvParser = new CSVParser();
+	// matching state of threads that do not use explicit context (parser itself is shared and not modified during matching)
+	private final ThreadLocal<MatchContext> contexts = new ThreadLocal<MatchContext>();
 
 	private GrokCompiler gc = GrokCompiler.newInstance();
+	
+	private final GrokRegistry registry = GrokRegistry.getInstance();
 
 	Logger log = LoggerFactory.getLogger(Parser.class);
 	
@@ -80,6 +124,14 @@ public class Parser {
 	}
 	
 	public Parser(List<String> patternReferences, List<Map<String, Object>> patternDefinitions, List<Map<String, Object>> preconfiguredEventTypes, boolean stats, boolean useInternalPatterns, List<String> eventTypesToParse) throws Exception {
+		this(patternReferences, patternDefinitions, preconfiguredEventTypes, stats, useInternalPatterns, eventTypesToParse, null);
+	}
+	
+	public Parser(List<String> patternReferences, List<Map<String, Object>> patternDefinitions, List<Map<String, Object>> preconfiguredEventTypes, boolean stats, boolean useInternalPatterns, List<String> eventTypesToParse, ParserConfiguration configuration) throws Exception {
+		
+		if(configuration != null) {
+			this.configuration = configuration;
+		}
 		
 		List<PatternDefinition> patternDefinitionObjects = new ArrayList<PatternDefinition>();
 		if(patternDefinitions != null ) {
@@ -157,6 +209,11 @@ public class Parser {
 		}
 
 		patterns = parsePatterns(rawPatterns);
+		plan = new PatternPlan(patterns, configuration);
+		activeEventTypes = null;
+		adaptiveOrder = configuration.adaptiveOrdering ? new AdaptiveOrder(patterns, configuration.adaptiveOrderingInterval) : null;
+		lineCache = configuration.lineCacheSize > 0 ? new LineCache(configuration.lineCacheSize, patterns) : null;
+		eventLayouts = EventLayout.build(patterns);
 	}
 	
 	public static class Builder {
@@ -169,6 +226,8 @@ public class Parser {
 		private boolean keepStats = false;
 		private boolean useInternalPatterns = true;
 		
+		private ParserConfiguration configuration = null;
+		
 		public Builder() { }
 		
 		public Builder withPatternFile(String filePath) {
@@ -218,6 +277,11 @@ public class Parser {
 			return this;
 		}
 		
+		public Builder withConfiguration(ParserConfiguration configuration) {
+			this.configuration = configuration;
+			return this;
+		}
+		
 		public Parser build() throws Exception {
 			
 			patternDefinitionObjects.addAll(patternDefinitionsAsMap.stream().map( (Map<String, Object> obj) -> {
@@ -230,6 +294,9 @@ public class Parser {
 			}).filter( it -> it != null).collect(Collectors.toList()));
 			
 			Parser parser = new Parser();
+			if(configuration != null) {
+				parser.configuration = configuration;
+			}
 			parser.initInstance(patternReferences, patternDefinitionObjects, null, keepStats, useInternalPatterns, null);
 			return parser;
 		}
@@ -238,6 +305,109 @@ public class Parser {
 	public List<PatternDefinition> getPatterns() {
 		return this.patterns;
 	}
+	
+	/**
+	 * @return object-array layouts by event type, null if some pattern has multiple parents
+	 */
+	public Map<String, EventLayout> getEventLayouts() {
+		return this.eventLayouts;
+	}
+	
+	/**
+	 * Parse only event types that are consumed. Consumed types, their subtypes and their parents (and base types) are parsed, plan does not descend into other subtrees.
+	 * Plan is replaced atomically, lines that are being parsed finish with the old plan.
+	 * 
+	 * @param consumedTypes consumed event types, null to parse all types
+	 */
+	public synchronized void setConsumedEventTypes(Collection<String> consumedTypes) {
+		Set<String> active = null;
+		if(consumedTypes != null) {
+			// consumed types and their subtypes
+			Set<String> consumed = new HashSet<String>(consumedTypes);
+			boolean changed = true;
+			while(changed) {
+				changed = false;
+				for(PatternDefinition pattern : patterns) {
+					if(!consumed.contains(pattern.getName()) && pattern.hasParents() && pattern.getParents().stream().anyMatch(consumed::contains)) {
+						changed = consumed.add(pattern.getName()) || changed;
+					}
+				}
+			}
+			// and everything on the way to them
+			active = new HashSet<String>(consumed);
+			active.addAll(BASE_EVENT_TYPES);
+			changed = true;
+			while(changed) {
+				changed = false;
+				for(PatternDefinition pattern : patterns) {
+					if(active.contains(pattern.getName()) && pattern.hasParents()) {
+						changed = active.addAll(pattern.getParents()) || changed;
+					}
+				}
+			}
+		}
+		if(active == null ? activeEventTypes == null : active.equals(activeEventTypes)) {
+			return;
+		}
+		activeEventTypes = active;
+		AdaptiveOrder ordering = adaptiveOrder;
+		plan = new PatternPlan(patterns, configuration, active, ordering == null ? null : ordering.getScores());
+		renewLineCache();
+		log.debug("parsing event types: {}", active == null ? "all" : active);
+	}
+	
+	/**
+	 * Reorder siblings by match counts since last reorder. New plan is built only if order actually changes, and is replaced atomically.
+	 */
+	private synchronized void reorder(AdaptiveOrder ordering) {
+		Map<String, Double> scores = ordering.update();
+		if(plan.reordersBy(scores)) {
+			plan = new PatternPlan(patterns, configuration, activeEventTypes, scores);
+			renewLineCache();
+			log.debug("patterns reordered by match counts");
+		}
+	}
+	
+	/**
+	 * @return event types that are parsed, null if all types are parsed
+	 */
+	public Set<String> getActiveEventTypes() {
+		return activeEventTypes == null ? null : Collections.unmodifiableSet(activeEventTypes);
+	}
+	
+	/**
+	 * Keep only given fields (and fields runtime always needs) in parsed events, conversion and nested expansion of other fields is skipped
+	 * 
+	 * @param usedFields fields that are needed after parsing, null to keep all fields
+	 */
+	public synchronized void setFieldProjection(Collection<String> usedFields) {
+		this.projection = usedFields == null ? null : new FieldProjection(usedFields, patterns);
+		renewLineCache();
+	}
+	
+	/**
+	 * cached results are only valid for plan and projection they were parsed with
+	 */
+	private void renewLineCache() {
+		LineCache cache = lineCache;
+		if(cache != null) {
+			lineCache = cache.renewed();
+		}
+	}
+	
+	/**
+	 * @return line cache (for metrics), null if line cache is disabled
+	 */
+	public LineCache getLineCache() {
+		return lineCache;
+	}
+	
+	/**
+	 * @return current field projection, null if all fields are kept
+	 */
+	public FieldProjection getFieldProjection() {
+		return this.projection;
+	}
 
 	public void prettyPrintRegs() {
 		prettyPrintRegsRecursive(null, 1, false);
@@ -249,182 +419,283 @@ public class Parser {
 	
 	private void prettyPrintRegsRecursive(String parent, int level, boolean withFields) {
 		
-		if(parent == null) {
-			patterns.stream()
-			.filter( it -> {
-				return !it.hasParents();
-			})
-			.sorted((m1, m2) -> {
-			    return (m1.containsKey("order")?Integer.parseInt(m1.get("order").toString()):0) - (m2.containsKey("order")?Integer.parseInt(m2.get("order").toString()):0);
-			})
-			.peek( it -> {	
-				/*String regex = "";
-				if(withRegex && it.containsKey("pattern")) {
-					if(it.get("pattern") instanceof String) {
-						regex = " = " + ((Grok)it.get("pattern")).getNamedRegex();
-					} else if (it.get("pattern") instanceof List && ((List)it.get("pattern")).size() == 1){
-						regex = " = " + ((Grok)((List)it.get("pattern")).get(0)).getNamedRegex();
-					} else {
-						regex = "multiple regexes";
-					}
-				}*/
-				String fields = "";
-				if(withFields && it.containsKey("fields")) {
-					if(it.get("fields") instanceof Map) {
-						fields = " = " + ((Map<String, String>)it.get("fields")).keySet().stream().map(Object::toString).collect(Collectors.joining(","));
-					}
+		for(PatternDefinition it : plan.getChildren(parent)) {
+			String fields = "";
+			if(withFields && it.containsKey("fields")) {
+				if(it.get("fields") instanceof Map) {
+					fields = " = " + ((Map<String, String>)it.get("fields")).keySet().stream().map(Object::toString).collect(Collectors.joining(","));
 				}
-
-				System.out.println(new String(new char[level]).replace("\0", "+") + " " + it.getName() + fields);
-				prettyPrintRegsRecursive(it.getName(), (level + 1), withFields);
-			})
-			.count();
-		} else {
-			patterns.stream()
-			.filter( (it) -> {
-				if(it.hasParents()) {
-					return it.getParents().contains(parent);
-				} else {
-					return false;
-				}
-			})
-			.sorted((m1, m2) -> {
-			    return (m1.containsKey("order")?Integer.parseInt(m1.get("order").toString()):0) - (m2.containsKey("order")?Integer.parseInt(m2.get("order").toString()):0);
-			})
-			.peek( it -> {	
-				String fields = "";
-				
-				/*
-				String regex = "";
-				if(withRegex && it.containsKey("pattern")) {
-					if(it.get("pattern") instanceof String) {
-						regex = " = " + ((Grok)it.get("pattern")).getNamedRegex();
-					} else if (it.get("pattern") instanceof List && ((List)it.get("pattern")).size() == 1){
-						regex = " = " + ((Grok)((List)it.get("pattern")).get(0)).getNamedRegex();
-					} else {
-						regex = "multiple regexes";
-					}
-				}*/
-				if(withFields && it.containsKey("fields")) {
-					if(it.get("fields") instanceof Map) {
-						fields = " = " + ((Map<String, String>)it.get("fields")).keySet().stream().map(Object::toString).collect(Collectors.joining(","));
-					}
-				}
-				System.out.println(new String(new char[level]).replace("\0", "+") + " " + it.getName() + fields);
-				prettyPrintRegsRecursive(it.getName(), (level + 1), withFields);
-			})
-			.count();
+			}
+			System.out.println(new String(new char[level]).replace("\0", "+") + " " + it.getName() + fields);
+			prettyPrintRegsRecursive(it.getName(), (level + 1), withFields);
 		}
 	}
 	
+	public PatternPlan getPlan() {
+		return plan;
+	}
+	
 	public CustomStats getStats() {
 		return customStats;
 	}
+	
+	public long getConversionFailures() {
+		return conversionFailures.sum();
+	}
+	
+	public long getRegexBudgetExceeded() {
+		return regexBudgetExceeded.sum();
+	}
+
+	/**
+	 * @return new matching context for a thread that parses lines with this parser
+	 */
+	public MatchContext newContext() {
+		return new MatchContext(plan);
+	}
+	
+	private MatchContext context() {
+		MatchContext context = contexts.get();
+		if(context == null) {
+			context = newContext();
+			contexts.set(context);
+		}
+		return context;
+	}
 
 	public Map<String, Object> matchline(String line) {
 		Map<String, Object> parsed = new HashMap<String, Object>();
-		List<String> matchedRegs = new ArrayList<String>();
-		parsed.put("__match", matchedRegs);
-		parsed.put("data", line);
-		matchline(parsed, null, true);
+		matchline(line, parsed, context());
 		return parsed;
 	}
 
 	public void matchline(String line, Map<String, Object> match) {
+		matchline(line, match, context());
+	}
+	
+	/**
+	 * @param line line to be parsed
+	 * @param match event where parsed fields are written to
+	 * @param context matching context of current thread
+	 */
+	public void matchline(String line, Map<String, Object> match, MatchContext context) {
+		// same plan is used for the whole line, even if it is replaced meanwhile
+		context.bind(plan, projection, lineCache);
+		matchOne(line, match, context);
+	}
+	
+	/**
+	 * @param lines lines to be parsed
+	 * @return parsed events in the same order as lines
+	 */
+	public List<Map<String, Object>> matchlines(List<? extends CharSequence> lines) {
+		List<Map<String, Object>> events = new ArrayList<Map<String, Object>>(lines.size());
+		matchlines(lines, events, context());
+		return events;
+	}
+	
+	public void matchlines(List<? extends CharSequence> lines, List<Map<String, Object>> events) {
+		matchlines(lines, events, context());
+	}
+	
+	/**
+	 * Parse a batch of lines. Plan lookup and stats updates are done once per batch instead of once per line.
+	 * 
+	 * Event at index i is parsed from line at index i. Maps already in events list are parsed into as they are (so they can be prefilled, or cleared and reused for next batch), missing ones are created.
+	 * 
+	 * @param lines lines to be parsed
+	 * @param events event containers
+	 * @param context matching context of current thread
+	 */
+	public void matchlines(List<? extends CharSequence> lines, List<Map<String, Object>> events, MatchContext context) {
+		context.bind(plan, projection, lineCache);
+		context.beginBatch();
+		try {
+			int i = 0;
+			for(CharSequence line : lines) {
+				Map<String, Object> event;
+				if(i < events.size()) {
+					event = events.get(i);
+				} else {
+					event = new HashMap<String, Object>();
+					events.add(event);
+				}
+				matchOne(line, event, context);
+				i++;
+			}
+		} finally {
+			context.endBatch(customStats);
+		}
+	}
+	
+	/**
+	 * Parse a batch of lines from array
+	 * 
+	 * @see #matchlines(List, List, MatchContext)
+	 */
+	public void matchlines(CharSequence[] lines, int offset, int count, List<Map<String, Object>> events, MatchContext context) {
+		matchlines(Arrays.asList(lines).subList(offset, offset + count), events, context);
+	}
+	
+	private void matchOne(CharSequence line, Map<String, Object> match, MatchContext context) {
+		// prefilled events are not cached, cached snapshot would carry prefilled values over to other lines
+		LineCache cache = match.isEmpty() ? context.getLineCache() : null;
+		String key = cache != null ? cache.key(line) : null;
+		if(cache != null && key == null) {
+			count(context, "linecache", "skipped");
+		} else if(cache != null) {
+			if(cache.get(key, match)) {
+				count(context, "linecache", "hit");
+				// cached chain counts as matched, as if its patterns had been run
+				for(Object type : (List<?>)match.get("__match")) {
+					count(context, "matches", type.toString());
+					if(adaptiveOrder != null) {
+						adaptiveOrder.hit(type.toString());
+					}
+				}
+				tick(context);
+				return;
+			}
+			count(context, "linecache", "miss");
+		}
+		
 		List<String> matchedRegs = new ArrayList<String>();
 		match.put("__match", matchedRegs);
+		// byte line views are matched as they are, only captures are materialized as strings
 		match.put("data", line);
-		matchline(match, null, true);
+		matchline(match, null, true, context);
+		if(context.getProjection() != null) {
+			context.getProjection().apply(match);
+		}
+		// raw data is only materialized if projection kept it
+		if(match.get("data") instanceof CharSequence && !(match.get("data") instanceof String)) {
+			match.put("data", match.get("data").toString());
+		}
+		if(key != null) {
+			cache.put(key, match);
+		}
+		tick(context);
+	}
+	
+	/**
+	 * count parsed line for adaptive ordering, reorder when interval is reached
+	 */
+	private void tick(MatchContext context) {
+		AdaptiveOrder ordering = adaptiveOrder;
+		if(ordering != null && context.tick(ordering.getInterval())) {
+			reorder(ordering);
+		}
 	}
 	
-	private void matchline(Map<String, Object> match, String parent) {
-		matchline(match, parent, false);
+	/**
+	 * apply precompiled type converters of matched pattern, failures are counted (and logged only once per field)
+	 */
+	private void convertFields(PatternDefinition regexmap, Map<String, Object> match, MatchContext context) {
+		FieldProjection projection = context.getProjection();
+		for(FieldConverter converter : regexmap.getConverters()) {
+			if(projection != null && !projection.needs(converter.getField())) {
+				continue;
+			}
+			if(!converter.convert(match)) {
+				conversionFailures.increment();
+				count(context, "convfail", regexmap.getName());
+				if(converter.firstFailure()) {
+					log.warn("could not parse value '{}' to {} (type: {}, field: {}), further failures for this field are only counted", match.get(converter.getField()), converter.getType(), regexmap.getName(), converter.getField());
+				} else {
+					log.debug("could not parse value '{}' to {} (type: {}, field: {})", match.get(converter.getField()), converter.getType(), regexmap.getName(), converter.getField());
+				}
+			}
+		}
+	}
+	
+	/**
+	 * match grok within regex step budget, match that runs out of budget is aborted and handled as non-match
+	 */
+	private boolean matchInto(GrokCapture capture, CharSequence text, Map<String, Object> match, RegexBudget budget, PatternDefinition regexmap, MatchContext context) {
+		if(budget == null) {
+			return capture.matchInto(text, match);
+		}
+		try {
+			return capture.matchInto(budget.of(text), match);
+		} catch (RegexBudget.ExceededException e) {
+			regexBudgetExceeded.increment();
+			count(context, "budgetexceeded", regexmap.getName());
+			int failures = regexmap.budgetExceeded();
+			if(failures == 1) {
+				log.warn("pattern '{}' exceeded regex step budget ({} steps) on line '{}', match was aborted", regexmap.getName(), budget.getBudget(), text.length() > 200 ? text.subSequence(0, 200) + "..." : text.toString());
+			} else {
+				log.debug("pattern '{}' exceeded regex step budget ({} steps), match was aborted", regexmap.getName(), budget.getBudget());
+			}
+			if(failures == configuration.regexQuarantineThreshold) {
+				regexmap.quarantine();
+				log.warn("pattern '{}' exceeded regex step budget {} times, it is quarantined and skipped from now on", regexmap.getName(), failures);
+			}
+			return false;
+		}
+	}
+	
+	/**
+	 * @return field value as text for matching (byte line views are not copied into strings)
+	 */
+	private static CharSequence text(Object value) {
+		return value instanceof CharSequence ? (CharSequence)value : value.toString();
 	}
 	
-	private void matchline(Map<String, Object> match, String parent, Boolean toplevel) {
+	/**
+	 * count stats (within a batch only locally in context, flushed at the end of batch)
+	 */
+	private void count(MatchContext context, String target, String level) {
+		if(customStats != null && !context.count(target, level)) {
+			customStats.inc(target, level);
+		}
+	}
+	
+	private void matchline(Map<String, Object> match, String parent, MatchContext context) {
+		matchline(match, parent, false, context);
+	}
+	
+	private void matchline(Map<String, Object> match, String parent, Boolean toplevel, MatchContext context) {
 		
-		List<PatternDefinition> levelmaps;
+		/** child patterns of given parent are precomputed and sorted in pattern plan **/
+		PatternPlan.Level level = context.getPlan().getLevel(parent);
+		List<PatternDefinition> levelmaps = level.getPatterns();
 		
-		/** we collect all the patterns with given parent (so all the child patterns) and sort them **/
-		if(parent == null) {
-			
-			levelmaps = patterns.stream()
-				.filter( it -> !it.hasParents())
-				.sorted((m1, m2) -> {
-				    return (m1.containsKey("order")?Integer.parseInt(m1.get("order").toString()):0) - (m2.containsKey("order")?Integer.parseInt(m2.get("order").toString()):0);
-				})
-				//.peek( it -> System.out.println("name=" + it.getName() + "; order = " + it.get("order")))
-				.collect(Collectors.toList());
-		} else {
-			levelmaps = patterns.stream()
-				.filter( (it) -> {
-					if(it.hasParents()) {
-						return it.getParents().contains(parent);
-					} else {
-						return false;
-					}
-				})
-				.sorted((m1, m2) -> {
-				    return (m1.containsKey("order")?Integer.parseInt(m1.get("order").toString()):0) - (m2.containsKey("order")?Integer.parseInt(m2.get("order").toString()):0);
-				})
-				//.peek( it -> System.out.println("name=" + it.getName() + "; order = " + it.get("order")))
-				.collect(Collectors.toList());
-		}
+		/** literal prefilter of this level, line is scanned lazily when first grok needs it **/
+		LiteralPrefilter prefilter = level.getPrefilter();
+		LiteralPrefilter.Scan scan = null;
+		
+		/** combined matcher of this level (if enabled), tells the first sibling that can match **/
+		CombinedMatcher combinedMatcher = level.getCombinedMatcher();
+		CombinedMatcher.Scan combinedScan = null;
+		
+		/** step budget of regex matching (if enabled), so a pathological line can not stall the thread **/
+		RegexBudget budget = context.regexBudget(configuration.regexStepBudget);
 		
 		/** now we iterate over collected patterns and do the pattern matching **/
-		for (PatternDefinition regexmap : levelmaps) {
+		for (int patternIndex = 0; patternIndex < levelmaps.size(); patternIndex++) {
+			PatternDefinition regexmap = levelmaps.get(patternIndex);
 		
 			try {
-				// if we have field level conditions, we check them
-				if(regexmap.containsKey("cond") && regexmap.get("cond") != null) {
-					Map<String, String> conditions = (Map<String, String>) regexmap.get("cond");
-					
-					// if we have at least one defined condition field in match that doesn't match, we skip this regexmap
-					if(conditions.entrySet().stream().filter(item -> {
-						if (!match.containsKey(item.getKey())) {
-							// we dont have such field at all
-							return true;
-						} else if (item.getValue() == null || match.get(item.getKey()) == null) {
-							// match or condition value is null - we return false ?!?
-							return true;
-						} else {
-						      Pattern r = Pattern.compile(item.getValue());
-						      Matcher m = r.matcher((String)match.get(item.getKey()));
-						      return !m.matches();
-						}
-						//return (!match.containsKey(item.getKey())) || (match.containsKey(item.getKey()) && ( item.getValue() == null || match.get(item.getKey()) == null || !(match.get(item.getKey()).equals(item.getValue()))));
-					}).count() > 0) {
-						continue;
-					}
-					
+				if(regexmap.isQuarantined()) {
+					continue;
 				}
 				
-				// if we have field level SOFT conditions, we check them (SOFT conditions only apply if data object has this field)
-				if(regexmap.containsKey("softcond") && regexmap.get("softcond") != null) {
-					Map<String, String> conditions = (Map<String, String>) regexmap.get("softcond");
-					
-					// we remove the need for condition field to exist
-					if(conditions.entrySet().stream().filter(item -> {
-						if (match.containsKey(item.getKey()) && match.get(item.getKey()) != null) {
-						      Pattern r = Pattern.compile(item.getValue());
-						      Matcher m = r.matcher((String)match.get(item.getKey()));
-						      return !m.matches();
-						} else {
-							return false;
-						}
-						//return (match.containsKey(item.getKey()) && !(match.get(item.getKey()).equals(item.getValue())));
-					}).count() > 0) {
+				// if we have field level conditions (or SOFT conditions, that only apply if data object has this field), we check them
+				if(!regexmap.conditionsMatch(match)) {
+					continue;
+				}
+				
+				// skip patterns that combined scan has ruled out
+				if(combinedMatcher != null) {
+					if(combinedScan == null) {
+						combinedScan = context.combinedScan(level);
+					}
+					if(combinedMatcher.canSkip(combinedScan, patternIndex, match, budget)) {
 						continue;
 					}
-					
 				}
 				
-				String matchField;
-				if(regexmap.containsKey("field") && regexmap.get("field") != null) {
-					matchField = regexmap.get("field").toString();
-				} else {
-					matchField = "data";
-				}
+				String matchField = matchField(regexmap);
 				
 				if(!match.containsKey(matchField) || match.get(matchField) == null) {
 					continue;
@@ -434,51 +705,41 @@ public class Parser {
 				
 				if (regexmap.containsKey("pattern")) { // we handle grok here
 					
-					List<Grok> patterns = new ArrayList<Grok>();
+					GrokCapture[] captures = regexmap.getCaptures();
 					
-					if (regexmap.get("pattern") instanceof Grok) {
-						patterns.add((Grok)regexmap.get("pattern"));
-					} else if (regexmap.get("pattern") instanceof List){
-						patterns.addAll((List<Grok>)regexmap.get("pattern"));
-					}
-					
-					for(Grok g : patterns) {
+					for(int grokIndex = 0; grokIndex < captures.length; grokIndex++) {
+						CharSequence text = text(match.get(matchField));
 						
-						Match gm = g.match(match.get(matchField).toString());
+						// skip groks whose required literals are missing from the text (only until first match, as captures may change the field)
+						if(!anyMatch && prefilter != null) {
+							if(scan == null) {
+								scan = context.scan(level);
+							}
+							if(!prefilter.mayMatch(scan, patternIndex, grokIndex, text)) {
+								continue;
+							}
+						}
 						
-						if(gm.getMatch() != null && gm.getMatch().matches()) {
+						// captures are written straight into event
+						if(matchInto(captures[grokIndex], text, match, budget, regexmap, context)) {
 							anyMatch = true;
 							((List)match.get("__match")).add(regexmap.getName());
-							match.putAll(gm.capture());
 						}
 					}
 					
 					if (anyMatch) {
 						// handle additional (optional) field matches if line is already matched	
 						
-						if(customStats != null) {
-							customStats.inc("matchcount", regexmap.getName());
-						}
-						
-						patterns = new ArrayList<Grok>();
-						if (regexmap.get("optionalpattern") instanceof Grok) {
-							patterns.add((Grok)regexmap.get("optionalpattern"));
-						} else if (regexmap.get("optionalpattern") instanceof List){
-							patterns.addAll((List<Grok>)regexmap.get("optionalpattern"));
-						}
+						count(context, "matchcount", regexmap.getName());
 						
-						for(Grok g : patterns) {
-							
-							Match gm = g.match(match.get(matchField).toString());
+						for(GrokCapture optionalCapture : regexmap.getOptionalCaptures()) {
 							
 							/* NO STATS HERE RIGHT?
 							 * if(customStats != null) { N
 								customStats.inc("matchcount", regexmap.getName());
 							}*/
 							
-							if(gm.getMatch() != null && gm.getMatch().matches()) {
-								match.putAll(gm.capture());
-							}
+							matchInto(optionalCapture, text(match.get(matchField)), match, budget, regexmap, context);
 						}
 						// end additional field matching
 						
@@ -492,57 +753,16 @@ public class Parser {
 							match.remove(matchField);
 						}*/
 						
-						((Map<String, Object>)regexmap.get("fields")).forEach( (name, type) -> {
-							try {
-								if(type instanceof String && ((String)type).equals("int") && match.containsKey(name)) {
-									match.put((String) name, Integer.parseInt(match.get(name).toString()));
-								}
-							} catch (Exception e) {
-								log.warn("could not parse value '{}' to int (type: {}, field: {})", match.get(name).toString(), regexmap.getName(), name);
-							}
-							
-							try {
-								if(type instanceof String && ((String)type).equals("long") && match.containsKey(name)) {
-									match.put((String) name, Long.parseLong(match.get(name).toString()));
-								}
-							} catch (Exception e) {
-								log.warn("could not parse value '{}' to long (type: {}, field: {})", match.get(name).toString(), regexmap.getName(), name);
-							}
-							
-							try {
-								if(type instanceof String && ((String)type).equals("float") && match.containsKey(name)) {
-									match.put((String) name, Float.parseFloat(match.get(name).toString()));
-								}
-							} catch (Exception e) {
-								log.warn("could not parse value '{}' to float (type: {}, field: {})", match.get(name).toString(), regexmap.getName(), name);
-							}
-							
-							try {
-								if(type instanceof String && ((String)type).equals("double") && match.containsKey(name)) {
-									match.put((String) name, Double.parseDouble(match.get(name).toString()));
-								}
-							} catch (Exception e) {
-								log.warn("could not parse value '{}' to double (type: {}, field: {})", match.get(name).toString(), regexmap.getName(), name);
-							}
-							/* else if(type instanceof Class && ((Class)type).equals(IP.class) && match.containsKey(name)) {
-								try {
-									match.put((String) name, new IP(match.get(name).toString()));
-								} catch (UnknownHostException e) {
-									match.put((String) name, match.get(name).toString());
-									System.err.println(match.get(name).toString() + "; err: " + e.getMessage());
-								}
-							}*/
-						});
+						convertFields(regexmap, match, context);
 						
-						if(customStats != null) {
-							customStats.inc("matches", regexmap.getName());
+						count(context, "matches", regexmap.getName());
+						if(adaptiveOrder != null) {
+							adaptiveOrder.hit(regexmap.getName());
 						}
 						
-						matchline(match, regexmap.getName());
+						matchline(match, regexmap.getName(), context);
 					} else {
-						if(customStats != null) {
-							customStats.inc("nonmatches", regexmap.getName());
-						}
+						count(context, "nonmatches", regexmap.getName());
 					}
 				}
 				
@@ -553,16 +773,23 @@ public class Parser {
 						
 						// kui on defineeritud et mingi leitud v2li sisaldab jsonit, siis kontrollime kas see väli on olemas ja proovime jsoni välja parsida
 						if(regexmap.get("json") != null && match.containsKey(regexmap.get("json").toString()) && match.get(regexmap.get("json").toString()) != null) {
-							if(customStats != null) {
-								customStats.inc("desercount", regexmap.getName());
-							}
-							Map<String, Object> obj = JsonIterator.deserialize(match.get(regexmap.get("json")).toString(), new TypeLiteral<Map<String, Object>>(){});
-	
+							count(context, "desercount", regexmap.getName());
+							Predicate<String> jsonKeys = regexmap.containsKey("json.nested") ? null : jsonKeys(regexmap, context.getProjection());
 							
-							if(regexmap.containsKey("json.nested")) {
+							if(regexmap.containsKey("json.nested") && context.getProjection() != null && !context.getProjection().needs(regexmap.get("json").toString())) {
+								// nested json is not used, so it is only validated (invalid json still fails the pattern)
+								validateJsonObject(match.get(regexmap.get("json")).toString());
+							} else if(regexmap.containsKey("json.nested")) {
 								// add json as new field 
-								match.put(regexmap.get("json").toString(), obj);
+								match.put(regexmap.get("json").toString(), JsonIterator.deserialize(match.get(regexmap.get("json")).toString(), new TypeLiteral<Map<String, Object>>(){}));
+							} else if(jsonKeys != null) {
+								// only keys that are used are read, rest of the document is skipped without building it
+								Map<String, Object> obj = readJsonObject(match.get(regexmap.get("json")).toString(), jsonKeys);
+								match.remove(regexmap.get("json").toString());
+								match.putAll(obj);
 							} else {
+								Map<String, Object> obj = JsonIterator.deserialize(match.get(regexmap.get("json")).toString(), new TypeLiteral<Map<String, Object>>(){});
+								
 								// remove raw json string field
 								match.remove(regexmap.get("json").toString());
 								
@@ -574,9 +801,9 @@ public class Parser {
 							
 						}
 						// if there should be a csv formatted data in some field, then try to parse it
-						if(regexmap.get("csv") != null && match.containsKey(regexmap.get("csv").toString()) && match.get(regexmap.get("csv").toString()) != null) {
+						if(regexmap.get("csv") != null && match.containsKey(regexmap.get("csv").toString()) && match.get(regexmap.get("csv").toString()) != null && csvNeeded(regexmap, context.getProjection())) {
 							int i=0;
-							String[] parseddata = csvParser.parseLine(match.get(regexmap.get("csv")).toString());
+							String[] parseddata = context.csvParser().parseLine(match.get(regexmap.get("csv")).toString());
 							for(String field : (List<String>)regexmap.get("csv-fields")) {
 								if(parseddata.length > i) {
 									match.put(field.replaceAll("-", "_"), parseddata[i]);
@@ -593,9 +820,10 @@ public class Parser {
 						}
 						
 						// kui on defineeritud et mingi v2li sisaldab url argumente, siis parsime need lahti
-						if(regexmap.get("urlargs") != null && match.containsKey(regexmap.get("urlargs").toString()) && match.get(regexmap.get("urlargs").toString()) != null) {
+						if(regexmap.get("urlargs") != null && match.containsKey(regexmap.get("urlargs").toString()) && match.get(regexmap.get("urlargs").toString()) != null
+								&& !(regexmap.containsKey("urlargs.nested") && context.getProjection() != null && !context.getProjection().needs(regexmap.get("urlargs").toString()))) {
 							try {
-								Map<String, String> obj = splitArgs(match.get(regexmap.get("urlargs")).toString());
+								Map<String, String> obj = splitArgs(text(match.get(regexmap.get("urlargs"))));
 								if(regexmap.containsKey("urlargs.nested")) {
 									// add json as new field 
 									match.put(regexmap.get("urlargs").toString(), obj);
@@ -608,36 +836,24 @@ public class Parser {
 										match.put(key, value);
 									});
 								}
-							} catch (UnsupportedEncodingException e) {
-								// TODO Auto-generated catch block
+							} catch (IllegalArgumentException e) {
+								// malformed escapes
 								match.put(regexmap.get("urlargs").toString(), new HashMap<String, String>());
 								//e.printStackTrace();
 							}
 						}
 						
 						// if replace has been defined in a field, try to execute it
-						if(regexmap.get("replace") != null && regexmap.get("replace") instanceof List) {
-							((List)regexmap.get("replace")).forEach( replaceObject -> {
-								if(
-										replaceObject instanceof Map &&
-										((Map)replaceObject).containsKey("field") && 
-										((Map)replaceObject).containsKey("regex") && 
-										((Map)replaceObject).containsKey("replacement") && 
-										match.containsKey(((Map)replaceObject).get("field"))) {
-									String field = ((Map)replaceObject).get("field").toString();
-									String result = match.get(field).toString().replaceAll(((Map)replaceObject).get("regex").toString(), ((Map)replaceObject).get("replacement").toString());
-									match.put(field, result);
-								}
-							});
+						for(FieldReplace replace : regexmap.getReplaces()) {
+							replace.apply(match);
 						}
 						
 						// src timestamp parsing
-						if(regexmap.containsKey("srctime-field") && regexmap.get("srctime-field") instanceof String && match.containsKey((String)regexmap.get("srctime-field")) && regexmap.containsKey("srctime-format-object") && regexmap.get("srctime-format-object") instanceof SimpleDateFormat) {
+						if(regexmap.containsKey("srctime-field") && regexmap.get("srctime-field") instanceof String && match.containsKey((String)regexmap.get("srctime-field")) && regexmap.containsKey("srctime-format-object") && regexmap.get("srctime-format-object") instanceof TimestampParser) {
 							
 						    try {
-						    	SimpleDateFormat dateFormat = (SimpleDateFormat)regexmap.get("srctime-format-object");
-								Date parsedDate = dateFormat.parse((String)match.get((String)regexmap.get("srctime-field")));
-								match.put("src_logts_timestamp", parsedDate.getTime());
+						    	TimestampParser timestampParser = (TimestampParser)regexmap.get("srctime-format-object");
+								match.put("src_logts_timestamp", timestampParser.parse(match.get((String)regexmap.get("srctime-field")).toString()));
 							} catch (ParseException e) {
 								// pass
 							}
@@ -646,6 +862,13 @@ public class Parser {
 						
 					} catch (JsonException e) {
 						// json parsing failed, so we make the assumption that this matcher failed and we keep trying with others
+						// captures of this matcher are kept in event, so prefilter has to rescan
+						if(scan != null) {
+							scan.reset();
+						}
+						if(combinedScan != null) {
+							combinedScan.reset();
+						}
 						continue;
 					}
 					break;
@@ -677,13 +900,16 @@ public class Parser {
 	}
 
 	private List<PatternDefinition> basePatterns() {
-		InputStream inputStream = getClass().getClassLoader().getResourceAsStream("cometpatterns/000_base.yaml");
+		GrokRegistry.PatternFile baseFile = null;
+		try {
+			baseFile = registry.readResource("cometpatterns/000_base.yaml");
+		} catch (IOException e) {
+			log.warn("Could not read base patterns: " + e.getMessage());
+		}
 		Map<String, Object> rawObj;
-		if(inputStream != null) {
-			Yaml yaml = new Yaml();
-			rawObj = yaml.load(inputStream);
+		if(baseFile != null) {
 			List<PatternDefinition> regList = new ArrayList<PatternDefinition>();
-			regList = ((List<Map<String, Object>>)rawObj.get("patterns")).stream().map((Map<String, Object> pat) -> {
+			regList = baseFile.getPatterns().stream().map((Map<String, Object> pat) -> {
 				try {
 					return new PatternDefinition(pat);
 				} catch(ParserException e) {
@@ -691,6 +917,7 @@ public class Parser {
 				}
 			}).filter( pat -> pat != null).collect(Collectors.toList());
 			
+			rawObj = new HashMap<String, Object>();
 			rawObj.put("patterns", regList);
 		} else { // this is for graal-vm, at least for now... 
 			
@@ -717,24 +944,8 @@ public class Parser {
 		
 		List<PatternDefinition> rawPatterns = new ArrayList<PatternDefinition>();
 		
-		// fill grok compiler with default patterns
-		try {
-			gc.registerDefaultPatterns();
-		} catch (Exception e) {
-			log.warn("Registering default grok patterns failed");
-			log.debug("Registering default grok patterns failed", e);
-		}
-		
-		try {
-			InputStream is = getClass().getClassLoader().getResourceAsStream("grok-patterns.txt");
-			if(is != null) {
-				gc.register(is);
-				log.debug("Registered default grok patterns");
-			}
-		} catch (IOException e) {
-			log.warn("Registering custom grok patterns failed : " + e.getMessage());
-			log.debug("Registering custom grok patterns failed : " + e.getMessage(), e);
-		}
+		// fill grok compiler with default patterns (read only once per jvm)
+		gc.register(registry.defaultDefinitions());
 		
 		if(useInternalPatterns) {
 			rawPatterns.addAll(readInternalDefinitions());
@@ -744,15 +955,13 @@ public class Parser {
 	
 	private List<PatternDefinition> readPatternReferences(List<String> patternFiles) {
 		
-		List<InputStream> patternInputStreams = new ArrayList<InputStream>();
+		List<GrokRegistry.PatternFile> patternFileContents = new ArrayList<GrokRegistry.PatternFile>();
 		List<PatternDefinition> patternDefinitions = new ArrayList<PatternDefinition>();
 		
 		
 		// iterate over the source list
 		if(patternFiles != null && patternFiles.size() > 0) {
 
-			Map<String, String> rawNamedTextPatterns = new HashMap<String, String>();
-			
 			for(String patternFilename : patternFiles) {
 				if(patternFilename == null) {
 					continue;
@@ -764,9 +973,9 @@ public class Parser {
 				// if input is a file, then parse it later on
 				if(patternFile.exists()) {
 					try {
-						patternInputStreams.add(new FileInputStream(patternFile));
+						patternFileContents.add(registry.readFile(patternFile));
 						log.debug("loaded patternfile - " + patternFilename);
-					} catch (FileNotFoundException e) {
+					} catch (IOException e) {
 						log.warn("No pattern file '" + patternFilename +"' found. Continuing startup without these patterns.");
 					}
 					
@@ -778,26 +987,8 @@ public class Parser {
 		}
 		
 		// extract patterns and grok definitsions from patterndef files
-		if(patternInputStreams != null && patternInputStreams.size() > 0) {
-			for (InputStream patternInputStream : patternInputStreams) {
-				Yaml yaml = new Yaml();
-				Map<String, Object> rawObj = yaml.load(patternInputStream);
-				if(rawObj.containsKey("grok")) {
-					Map<String, String> grokPatterns = (Map<String, String>) rawObj.get("grok");
-					registerGrokPatterns(grokPatterns);
-				}
-				
-				if (rawObj.containsKey("patterns")) {
-					patternDefinitions.addAll(((List<Map<String, Object>>)rawObj.get("patterns")).stream().map( (Map<String, Object> obj) -> {
-						try {
-							return new PatternDefinition(obj);
-						} catch(Exception e) {
-							log.warn("could not create pattern definition, skipping this one");
-							return null;
-						}
-					}).filter( it -> it != null).collect(Collectors.toList()));
-				}
-			}
+		for (GrokRegistry.PatternFile patternFileContent : patternFileContents) {
+			patternDefinitions.addAll(readPatternFile(patternFileContent));
 		}
 		
 		return patternDefinitions;
@@ -810,55 +1001,39 @@ public class Parser {
 	 */
 	private List<PatternDefinition> readInternalDefinitions() {
 
-		List<InputStream> patternInputStreams = new ArrayList<InputStream>();
 		List<PatternDefinition> patternDefinitions = new ArrayList<PatternDefinition>();
 		
-		CodeSource src = CometApplication.class.getProtectionDomain().getCodeSource();
-		if(src != null) {
-		URL embeddedPatterns = src.getLocation();
-			ZipInputStream zip;
+		// embedded pattern files are listed in index (or found by scanning the jar) only once per jvm
+		for(String name : registry.embeddedPatternFiles()) {
 			try {
-				zip = new ZipInputStream(embeddedPatterns.openStream());
-				while(true) {
-					ZipEntry e = zip.getNextEntry();
-					if (e == null)
-						break;
-					String name = e.getName();
-					if (name.matches("^cometpatterns/[0-9]+.*\\.yaml")) {
-						patternInputStreams.add(getClass().getClassLoader().getResourceAsStream(name));
-				    }
+				GrokRegistry.PatternFile patternFile = registry.readResource(name);
+				if(patternFile != null) {
+					patternDefinitions.addAll(readPatternFile(patternFile));
 				}
 			} catch (IOException e) {
-				log.warn("Could not load default patterns. Starting without them. Cause :" + e.getMessage());
+				log.warn("Could not load default patterns from '{}'. Starting without them. Cause : {}", name, e.getMessage());
 				log.debug("Could not load default patterns. Starting without them. Cause :" + e.getMessage(), e);
 			}
 		}
 		
-		if(patternInputStreams != null && patternInputStreams.size() > 0) {
-			for (InputStream patternInputStream : patternInputStreams) {
-				Yaml yaml = new Yaml();
-				Map<String, Object> rawObj = yaml.load(patternInputStream);
-				if(rawObj.containsKey("grok")) {
-					Map<String, String> grokPatterns = (Map<String, String>) rawObj.get("grok");
-					registerGrokPatterns(grokPatterns);
-				}
-				
-				if (rawObj.containsKey("patterns")) {
-					patternDefinitions.addAll(((List<Map<String, Object>>)rawObj.get("patterns")).stream().map( (Map<String, Object> obj) -> {
-						try {
-							return new PatternDefinition(obj);
-						} catch(Exception e) {
-							log.warn("could not create pattern definition, skipping this one");
-							return null;
-						}
-					}).filter( it -> it != null).collect(Collectors.toList()));
-				}
-			}
-		}
-		
 		return patternDefinitions;
 	}
 	
+	/**
+	 * register grok definitions of pattern file and create pattern definitions from its patterns
+	 */
+	private List<PatternDefinition> readPatternFile(GrokRegistry.PatternFile patternFile) {
+		registerGrokPatterns(patternFile.getGrok());
+		return patternFile.getPatterns().stream().map( (Map<String, Object> obj) -> {
+			try {
+				return new PatternDefinition(obj);
+			} catch(Exception e) {
+				log.warn("could not create pattern definition, skipping this one");
+				return null;
+			}
+		}).filter( it -> it != null).collect(Collectors.toList());
+	}
+	
 	/**
 	 * Iterate over loaded pattern definitions and precalculate/precompile things. This is called as final step during Parser creation.
 	 * 
@@ -879,6 +1054,9 @@ public class Parser {
 		
 		List<String> complexFields = Arrays.asList("json", "urlargs", "csv");
 		
+		// all grok definitions are registered by now, so compiled groks can be shared with other parsers that have the same definitions
+		String grokFingerprint = registry.fingerprint(gc.getPatternDefinitions());
+		
 		List<PatternDefinition> patternDefinitions = rawPatternDefinitions.stream().map(it -> {
 			
 			// turn list of strings into valid field definitions with default type string
@@ -917,8 +1095,8 @@ public class Parser {
 					}
 					
 					// TODO CALL SHIT
-					List<Grok> grokPatterns = parseGrokPatterns(patterns);
-					List<Grok> optionalGrokPatterns = parseGrokPatterns(optionalPatterns);
+					List<Grok> grokPatterns = parseGrokPatterns(patterns, grokFingerprint);
+					List<Grok> optionalGrokPatterns = parseGrokPatterns(optionalPatterns, grokFingerprint);
 					
 					Map<String, String> fields = parseFieldsFromGrokPatterns(grokPatterns);
 					fields.putAll(parseFieldsFromGrokPatterns(optionalGrokPatterns));
@@ -984,8 +1162,7 @@ public class Parser {
 			// precompile src time pattern
 			if(it.containsKey("srctime-format") && it.get("srctime-format") instanceof String) {
 				try {
-					SimpleDateFormat dateFormat = new SimpleDateFormat((String)it.get("srctime-format"));
-					it.put("srctime-format-object", dateFormat);
+					it.put("srctime-format-object", TimestampParser.forPattern((String)it.get("srctime-format")));
 					((HashMap<String,Object>)it.get("fields")).put("src_logts_timestamp", Long.class);
 				} catch (Exception e) {
 					log.warn("srctime format '{}' is invalid for event '{}'. error: {}", (String)it.get("srctime-format"), it.getName(), e.getMessage());
@@ -1052,6 +1229,9 @@ public class Parser {
             }
         }).filter(it -> it != null).collect(Collectors.toList());
 		
+		// precompile cond/softcond gates, field converters and grok captures (this has to happen after copying, as compiled objects are not part of definition map)
+		patternDefinitions.forEach(PatternDefinition::compile);
+		
 		//regs = null;
 		
 		// now, all the pre-calculation should be done
@@ -1071,13 +1251,13 @@ public class Parser {
 		return patternDefinitions;
 	}
 	
-	private List<Grok> parseGrokPatterns(List<String> patterns) throws Exception {
+	private List<Grok> parseGrokPatterns(List<String> patterns, String grokFingerprint) throws Exception {
 		Map<String, Object> retMap = new HashMap<String, Object>();
 		List<Grok> grokPatterns = new ArrayList<Grok>();
 		
 		for (String pat : patterns) {
 			try {
-				final Grok g = gc.compile(pat, true);
+				final Grok g = registry.compile(gc, grokFingerprint, pat);
 				grokPatterns.add(g);
 			} catch (Exception e) {
 				log.warn("Parsing grok pattern failed, skipping this one. Pattern: \"" + pat + "\". Reason: " + e.getMessage());
@@ -1131,7 +1311,7 @@ public class Parser {
 			
 			// now add fields that are manually defined as regex named groups
 			try {
-				fields(Pattern.compile(g.getNamedRegex())).forEach((fieldname, index) -> {
+				namedGroups(Pattern.compile(g.getNamedRegex())).forEach((fieldname, index) -> {
 					if( ! fields.containsKey(fieldname) ) {
 						fields.put(fieldname, "string");
 					}
@@ -1164,7 +1344,7 @@ public class Parser {
 	}
 	
 	@SuppressWarnings("unchecked")
-	private Map<String, Integer> fields(Pattern pat) throws NoSuchFieldException, SecurityException, IllegalArgumentException, IllegalAccessException {
+	static Map<String, Integer> namedGroups(Pattern pat) throws NoSuchFieldException, SecurityException, IllegalArgumentException, IllegalAccessException {
 		final java.lang.reflect.Field namedGroups = pat.getClass().getDeclaredField("namedGroups");
 		namedGroups.setAccessible(true);
 		Map<String, Integer> ret = (Map<String, Integer>) namedGroups.get(pat);
@@ -1193,21 +1373,186 @@ public class Parser {
 		return fields;
 	}
 
-	public static Map<String, String> splitArgs(String args) throws UnsupportedEncodingException {
+	/**
+	 * @return name of the field that pattern is matched against
+	 */
+	static String matchField(PatternDefinition pattern) {
+		if(pattern.containsKey("field") && pattern.get("field") != null) {
+			return pattern.get("field").toString();
+		}
+		return "data";
+	}
+	
+	/**
+	 * @param patterns compiled value of "pattern" or "optionalpattern" key
+	 * @return list of groks (empty if there are none), patterns that did not compile (left as strings) are skipped
+	 */
+	static List<Grok> groks(Object patterns) {
+		List<Grok> groks = new ArrayList<Grok>();
+		if(patterns instanceof Grok) {
+			groks.add((Grok)patterns);
+		} else if (patterns instanceof List) {
+			for(Object pattern : (List<?>)patterns) {
+				if(pattern instanceof Grok) {
+					groks.add((Grok)pattern);
+				}
+			}
+		}
+		return groks;
+	}
+	
+	/**
+	 * @return true if any of the csv fields of pattern is needed
+	 */
+	@SuppressWarnings("unchecked")
+	private static boolean csvNeeded(PatternDefinition pattern, FieldProjection projection) {
+		if(projection == null || !(pattern.get("csv-fields") instanceof List)) {
+			return true;
+		}
+		return projection.needsAny(((List<String>)pattern.get("csv-fields")).stream().map( field -> field.replaceAll("-", "_")).collect(Collectors.toList()));
+	}
+	
+	/**
+	 * Check that text is a json object without building it. Top level structure is checked, nested values are only skipped over.
+	 * 
+	 * @throws JsonException if text is not a json object
+	 */
+	static void validateJsonObject(String text) {
+		try {
+			JsonIterator iter = JsonIterator.parse(text);
+			if(iter.whatIsNext() != ValueType.OBJECT) {
+				throw new JsonException("not a json object");
+			}
+			for(String field = iter.readObject(); field != null; field = iter.readObject()) {
+				iter.skip();
+			}
+		} catch (IOException | IndexOutOfBoundsException e) {
+			throw new JsonException("incomplete json: " + e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * @return json keys of pattern that have to be read (declared in fields with json.selective, needed by projection), null if whole object is needed
+	 */
+	private static Predicate<String> jsonKeys(PatternDefinition pattern, FieldProjection projection) {
+		Map<?, ?> fields = Boolean.TRUE.equals(pattern.get("json.selective")) && pattern.get("fields") instanceof Map ? (Map<?, ?>)pattern.get("fields") : null;
+		if(fields == null && projection == null) {
+			return null;
+		}
+		return key -> (fields == null || fields.containsKey(key)) && (projection == null || projection.needs(key));
+	}
+	
+	/**
+	 * Read only wanted keys of json object, values of other keys are skipped over. Values of wanted keys are built fully (nested objects as maps, arrays as lists).
+	 * 
+	 * @throws JsonException if text is not a json object
+	 */
+	static Map<String, Object> readJsonObject(String text, Predicate<String> wanted) {
+		Map<String, Object> obj = new HashMap<String, Object>();
+		try {
+			JsonIterator iter = JsonIterator.parse(text);
+			if(iter.whatIsNext() != ValueType.OBJECT) {
+				throw new JsonException("not a json object");
+			}
+			for(String field = iter.readObject(); field != null; field = iter.readObject()) {
+				if(wanted.test(field)) {
+					obj.put(field, iter.read());
+				} else {
+					iter.skip();
+				}
+			}
+		} catch (IOException | IndexOutOfBoundsException e) {
+			throw new JsonException("incomplete json: " + e.getMessage(), e);
+		}
+		return obj;
+	}
+	
+	/**
+	 * Split url arguments into key-value pairs in a single pass (same result as splitting on '&amp;' and decoding keys and values with {@link URLDecoder}).
+	 * Pairs without key are kept as they are with null value.
+	 * 
+	 * @throws IllegalArgumentException if there are malformed escapes
+	 */
+	public static Map<String, String> splitArgs(CharSequence args) {
 		final Map<String, String> query_pairs = new LinkedHashMap<String, String>();
-		final String[] pairs = args.split("&");
-		for (String pair : pairs) {
-			final int idx = pair.indexOf("=");
-			final String key = idx > 0 ? URLDecoder.decode(pair.substring(0, idx), "UTF-8") : pair;
-			
-			final String value = idx > 0 && pair.length() > idx + 1
-					? URLDecoder.decode(pair.substring(idx + 1), "UTF-8")
-					: null;
-			query_pairs.put(key, value);
+		// trailing empty pairs are dropped (as String.split does)
+		int end = args.length();
+		while(end > 0 && args.charAt(end - 1) == '&') {
+			end--;
+		}
+		if(end == 0) {
+			if(args.length() == 0) {
+				query_pairs.put("", null);
+			}
+			return query_pairs;
+		}
+		int start = 0;
+		while(start <= end) {
+			int pairEnd = start;
+			int idx = -1;
+			while(pairEnd < end && args.charAt(pairEnd) != '&') {
+				if(idx < 0 && args.charAt(pairEnd) == '=') {
+					idx = pairEnd;
+				}
+				pairEnd++;
+			}
+			if(idx > start) {
+				query_pairs.put(urlDecode(args, start, idx), idx + 1 < pairEnd ? urlDecode(args, idx + 1, pairEnd) : null);
+			} else {
+				query_pairs.put(args.subSequence(start, pairEnd).toString(), null);
+			}
+			start = pairEnd + 1;
 		}
 		return query_pairs;
 	}
 	
+	/**
+	 * decode url encoded part of text (as {@link URLDecoder} with UTF-8), text without '%' and '+' is only copied
+	 */
+	static String urlDecode(CharSequence text, int start, int end) {
+		int first = start;
+		while(first < end && text.charAt(first) != '%' && text.charAt(first) != '+') {
+			first++;
+		}
+		if(first == end) {
+			return text.subSequence(start, end).toString();
+		}
+		StringBuilder sb = new StringBuilder(end - start);
+		sb.append(text, start, first);
+		byte[] bytes = null;
+		int i = first;
+		while(i < end) {
+			char c = text.charAt(i);
+			if(c == '+') {
+				sb.append(' ');
+				i++;
+			} else if(c == '%') {
+				// consecutive escapes are decoded together, as they may be one multi-byte character
+				if(bytes == null) {
+					bytes = new byte[(end - i) / 3];
+				}
+				int count = 0;
+				while(i < end && text.charAt(i) == '%') {
+					if(i + 2 >= end) {
+						throw new IllegalArgumentException("URLDecoder: Incomplete trailing escape (%) pattern");
+					}
+					int hi = Character.digit(text.charAt(i + 1), 16);
+					int lo = Character.digit(text.charAt(i + 2), 16);
+					if(hi < 0 || lo < 0) {
+						throw new IllegalArgumentException("URLDecoder: Illegal hex characters in escape (%) pattern");
+					}
+					bytes[count++] = (byte)((hi << 4) + lo);
+					i += 3;
+				}
+				sb.append(new String(bytes, 0, count, StandardCharsets.UTF_8));
+			} else {
+				sb.append(c);
+				i++;
+			}
+		}
+		return sb.toString();
+	}
+	
 	public static Map<String, List<String>> splitArgsMulti(String args) throws UnsupportedEncodingException {
 		final Map<String, List<String>> query_pairs = new LinkedHashMap<String, List<String>>();
 		final String[] pairs = args.split("&");
@@ -0,0 +1,69 @@
+package com.github.arikastarvo.comet.parser;
+
+public class ParserConfiguration {
+
+	/**
+	 * scan sibling patterns with one combined regex first and try patterns one by one only from the first possible match onwards
+	 */
+	public boolean combinedMatching = false;
+	
+	/**
+	 * number of threads parsing lines in parallel before they are sent to runtime (in input order), 0 means lines are parsed in input threads
+	 */
+	public int threads = 0;
+	
+	/**
+	 * max number of lines in parallel parse stage
+	 */
+	public int queueSize = 1024;
+	
+	/**
+	 * number of lines inputs read and parse at once
+	 */
+	public int batchSize = 256;
+	
+	/**
+	 * register pattern event types as object-array types and send events as arrays with fixed field positions (only fields declared in patterns are carried over)
+	 */
+	public boolean objectArrayEvents = false;
+	
+	/**
+	 * keep only fields that deployed statements reference (conversion and nested expansion of other fields is skipped, raw data is dropped unless referenced)
+	 */
+	public boolean fieldProjection = false;
+	
+	/**
+	 * parse only event types that deployed statements consume (and their parents and subtypes), plan does not descend into other pattern subtrees
+	 */
+	public boolean pruneEventTypes = false;
+	
+	/**
+	 * periodically reorder siblings with the same order value (or all children of a pattern with exclusive-children) by how often they match, most frequent first
+	 */
+	public boolean adaptiveOrdering = false;
+	
+	/**
+	 * number of lines (per parsing thread) between adaptive reorders
+	 */
+	public int adaptiveOrderingInterval = 10000;
+	
+	/**
+	 * max number of character reads of one regex match (grok, optional grok or combined scan), match that exceeds it is aborted and handled as non-match. 0 means unlimited
+	 */
+	public long regexStepBudget = 0;
+	
+	/**
+	 * number of aborted matches after which pattern is quarantined (skipped with its children), 0 means never
+	 */
+	public int regexQuarantineThreshold = 10;
+	
+	/**
+	 * max number of recent lines whose parse results are cached (identical lines are not parsed again), 0 disables the cache
+	 */
+	public int lineCacheSize = 0;
+	
+	/**
+	 * inputs read lines as bytes, pure ASCII lines are matched without decoding them into strings (only captured fields are). Lines with other bytes are decoded as UTF-8
+	 */
+	public boolean byteLines = false;
+}
@@ -5,6 +5,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * TODO
@@ -25,6 +26,42 @@ public class PatternDefinition extends HashMap<String, Object> {
 	 */
 	private List<String> parent = new ArrayList<String>();
 	
+	/**
+	 * precompiled field conditions (cond), filled by {@link #compileConditions()}
+	 */
+	private FieldCondition[] conditions = new FieldCondition[0];
+	
+	/**
+	 * precompiled soft field conditions (softcond), filled by {@link #compileConditions()}
+	 */
+	private FieldCondition[] softConditions = new FieldCondition[0];
+	
+	/**
+	 * precompiled type converters of fields, filled by {@link #compileConverters()}
+	 */
+	private FieldConverter[] converters = new FieldConverter[0];
+	
+	/**
+	 * precompiled replaces, filled by {@link #compileReplaces()}
+	 */
+	private FieldReplace[] replaces = new FieldReplace[0];
+	
+	/**
+	 * capture helpers of compiled groks of "pattern" and "optionalpattern", filled by {@link #compileCaptures()}
+	 */
+	private GrokCapture[] captures = new GrokCapture[0];
+	private GrokCapture[] optionalCaptures = new GrokCapture[0];
+	
+	/**
+	 * number of matches aborted because regex step budget ran out
+	 */
+	private final AtomicInteger budgetExceeded = new AtomicInteger();
+	
+	/**
+	 * pattern is skipped during matching (it exceeded regex step budget too many times)
+	 */
+	private volatile boolean quarantined = false;
+	
 	/**
 	 * this is for transition period, should be removed after
 	 * 
@@ -151,6 +188,94 @@ public class PatternDefinition extends HashMap<String, Object> {
 		return (String)super.get("field");
 	}
 	
+	/**
+	 * precompile everything that is needed during matching (has to be called on final pattern definition object, compiled data is not part of the definition map)
+	 */
+	public void compile() {
+		compileConditions();
+		compileConverters();
+		compileReplaces();
+		compileCaptures();
+	}
+	
+	/**
+	 * compile cond and softcond regexes, so they would not have to be compiled during matching
+	 */
+	public void compileConditions() {
+		conditions = FieldCondition.compile(super.get("cond"));
+		softConditions = FieldCondition.compile(super.get("softcond"));
+	}
+	
+	/**
+	 * compile field type conversions, only fields that have non-string type get a converter
+	 */
+	public void compileConverters() {
+		converters = FieldConverter.compile(super.get("fields"));
+	}
+	
+	public FieldConverter[] getConverters() {
+		return converters;
+	}
+	
+	/**
+	 * compile replace regexes, so they would not have to be compiled for every matched event
+	 */
+	public void compileReplaces() {
+		replaces = FieldReplace.compile(super.get("replace"));
+	}
+	
+	public FieldReplace[] getReplaces() {
+		return replaces;
+	}
+	
+	/**
+	 * create capture helpers for compiled groks (shared through registry, as groks are)
+	 */
+	public void compileCaptures() {
+		GrokRegistry registry = GrokRegistry.getInstance();
+		captures = Parser.groks(super.get("pattern")).stream().map(registry::capture).toArray(GrokCapture[]::new);
+		optionalCaptures = Parser.groks(super.get("optionalpattern")).stream().map(registry::capture).toArray(GrokCapture[]::new);
+	}
+	
+	public GrokCapture[] getCaptures() {
+		return captures;
+	}
+	
+	public GrokCapture[] getOptionalCaptures() {
+		return optionalCaptures;
+	}
+	
+	public FieldCondition[] getConditions() {
+		return conditions;
+	}
+	
+	public FieldCondition[] getSoftConditions() {
+		return softConditions;
+	}
+	
+	/**
+	 * @return number of aborted matches so far, including this one
+	 */
+	public int budgetExceeded() {
+		return budgetExceeded.incrementAndGet();
+	}
+	
+	public void quarantine() {
+		quarantined = true;
+	}
+	
+	public boolean isQuarantined() {
+		return quarantined;
+	}
+	
+	/**
+	 * @param event event data parsed so far
+	 * @return true if event satisfies all the cond and softcond gates of this pattern
+	 */
+	public boolean conditionsMatch(Map<String, Object> event) {
+		return FieldCondition.allMatch(conditions, event) && FieldCondition.allMatchIfPresent(softConditions, event);
+	}
+	
 	
 	/**
 	 * this is necessary for transition period 
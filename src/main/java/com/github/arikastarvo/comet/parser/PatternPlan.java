@@ -0,0 +1,279 @@
+package com.github.arikastarvo.comet.parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable parent &rarr; ordered children index of parsed pattern definitions.
+ *
+ * Plan is built once after patterns have been parsed, so matching a line only has to walk it instead of filtering and sorting the whole pattern list on every level.
+ *
+ * @author tarvo
+ *
+ */
+public class PatternPlan {
+
+	/**
+	 * children of top level (patterns without parents)
+	 */
+	private final Level root;
+
+	/**
+	 * parent name -> children
+	 */
+	private final Map<String, Level> levels = new HashMap<String, Level>();
+
+	/**
+	 * parent name -> siblings in declared order, before reordering and pruning (null key for top level)
+	 */
+	private final Map<String, List<PatternDefinition>> declared = new HashMap<String, List<PatternDefinition>>();
+
+	/**
+	 * parent name -> siblings in plan order, before pruning (null key for top level)
+	 */
+	private final Map<String, List<PatternDefinition>> ordered = new HashMap<String, List<PatternDefinition>>();
+
+	/**
+	 * names of parents with exclusive-children
+	 */
+	private final Set<String> exclusive = new HashSet<String>();
+
+	private static final Level EMPTY_LEVEL = new Level(-1, new ArrayList<PatternDefinition>(), new ParserConfiguration());
+	
+	private final int levelCount;
+
+	/**
+	 * One level of hierarchy - all child patterns of a single parent, sorted by their order
+	 */
+	public static class Level {
+
+		/**
+		 * index of level in plan (used for per thread state of level), -1 for empty level
+		 */
+		private final int index;
+
+		private final List<PatternDefinition> patterns;
+
+		/**
+		 * null if none of the patterns has required literals
+		 */
+		private final LiteralPrefilter prefilter;
+
+		/**
+		 * null if combined matching is disabled or there is nothing to combine
+		 */
+		private final CombinedMatcher combinedMatcher;
+
+		Level(int index, List<PatternDefinition> patterns, ParserConfiguration configuration) {
+			this.index = index;
+			this.patterns = Collections.unmodifiableList(patterns);
+			this.prefilter = LiteralPrefilter.build(patterns);
+			this.combinedMatcher = configuration.combinedMatching ? CombinedMatcher.build(patterns) : null;
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		public List<PatternDefinition> getPatterns() {
+			return patterns;
+		}
+
+		public LiteralPrefilter getPrefilter() {
+			return prefilter;
+		}
+
+		public CombinedMatcher getCombinedMatcher() {
+			return combinedMatcher;
+		}
+
+		public boolean isEmpty() {
+			return patterns.isEmpty();
+		}
+	}
+
+	/**
+	 * @param patterns fully parsed pattern definitions (order of this list is used as a tie-breaker for equal order values)
+	 */
+	public PatternPlan(List<PatternDefinition> patterns) {
+		this(patterns, new ParserConfiguration());
+	}
+
+	/**
+	 * @param patterns fully parsed pattern definitions (order of this list is used as a tie-breaker for equal order values)
+	 * @param configuration parser configuration
+	 */
+	public PatternPlan(List<PatternDefinition> patterns, ParserConfiguration configuration) {
+		this(patterns, configuration, null);
+	}
+
+	/**
+	 * Plan that only descends into given event types.
+	 *
+	 * Inactive patterns that come before an active sibling are kept (without their children), so they still claim the lines they would match and active siblings do not get lines they would not get otherwise.
+	 * Inactive patterns after the last active sibling are left out.
+	 *
+	 * @param patterns fully parsed pattern definitions (order of this list is used as a tie-breaker for equal order values)
+	 * @param configuration parser configuration
+	 * @param activeTypes event types to parse, null for all
+	 */
+	public PatternPlan(List<PatternDefinition> patterns, ParserConfiguration configuration, Set<String> activeTypes) {
+		this(patterns, configuration, activeTypes, null);
+	}
+
+	/**
+	 * Plan with siblings reordered by their scores (highest first).
+	 *
+	 * Only siblings that declare the same order value are reordered (patterns without order keep their place), children of a pattern with <code>exclusive-children: true</code> are all reordered regardless of their order values.
+	 * Equal scores keep the declared order.
+	 *
+	 * @param patterns fully parsed pattern definitions (order of this list is used as a tie-breaker for equal order values)
+	 * @param configuration parser configuration
+	 * @param activeTypes event types to parse, null for all
+	 * @param scores match scores by pattern name (see {@link AdaptiveOrder}), null to keep declared order
+	 */
+	public PatternPlan(List<PatternDefinition> patterns, ParserConfiguration configuration, Set<String> activeTypes, Map<String, Double> scores) {
+
+		Map<String, PatternDefinition> byName = new HashMap<String, PatternDefinition>();
+		List<PatternDefinition> roots = new ArrayList<PatternDefinition>();
+		Map<String, List<PatternDefinition>> children = new HashMap<String, List<PatternDefinition>>();
+
+		for(PatternDefinition pattern : patterns) {
+			byName.put(pattern.getName(), pattern);
+			if(!pattern.hasParents()) {
+				roots.add(pattern);
+			} else {
+				for(String parent : new LinkedHashSet<String>(pattern.getParents())) {
+					children.computeIfAbsent(parent, it -> new ArrayList<PatternDefinition>()).add(pattern);
+				}
+			}
+		}
+
+		// stable sort, patterns without order are handled as order 0
+		Comparator<PatternDefinition> byOrder = Comparator.comparingInt(PatternPlan::order);
+		roots.sort(byOrder);
+		declared.put(null, new ArrayList<PatternDefinition>(roots));
+		reorder(roots, false, scores);
+		ordered.put(null, roots);
+		this.root = new Level(0, prune(roots, activeTypes), configuration);
+
+		for(Map.Entry<String, List<PatternDefinition>> entry : children.entrySet()) {
+			entry.getValue().sort(byOrder);
+			PatternDefinition parent = byName.get(entry.getKey());
+			if(parent != null && Boolean.parseBoolean(String.valueOf(parent.get("exclusive-children")))) {
+				exclusive.add(entry.getKey());
+			}
+			declared.put(entry.getKey(), new ArrayList<PatternDefinition>(entry.getValue()));
+			reorder(entry.getValue(), exclusive.contains(entry.getKey()), scores);
+			ordered.put(entry.getKey(), entry.getValue());
+			List<PatternDefinition> levelPatterns = prune(entry.getValue(), activeTypes);
+			if(!levelPatterns.isEmpty()) {
+				levels.put(entry.getKey(), new Level(levels.size() + 1, levelPatterns, configuration));
+			}
+		}
+		this.levelCount = levels.size() + 1;
+	}
+
+	/**
+	 * sort reorderable siblings by score (stable, so equal scores keep their place)
+	 */
+	private static void reorder(List<PatternDefinition> sorted, boolean exclusive, Map<String, Double> scores) {
+		if(scores == null) {
+			return;
+		}
+		Comparator<PatternDefinition> byScore = Comparator.comparingDouble( (PatternDefinition pattern) -> scores.getOrDefault(pattern.getName(), 0.0)).reversed();
+		if(exclusive) {
+			sorted.sort(byScore);
+			return;
+		}
+		int start = 0;
+		for(int i = 1; i <= sorted.size(); i++) {
+			if(i == sorted.size() || !sameDeclaredOrder(sorted.get(i), sorted.get(start))) {
+				if(i - start > 1) {
+					sorted.subList(start, i).sort(byScore);
+				}
+				start = i;
+			}
+		}
+	}
+
+	/**
+	 * @return true if both patterns declare the same order value
+	 */
+	private static boolean sameDeclaredOrder(PatternDefinition pattern, PatternDefinition other) {
+		return pattern.get("order") != null && other.get("order") != null && order(pattern) == order(other);
+	}
+
+	/**
+	 * Check whether a plan built with given scores would order siblings differently than this plan, without building it (prefilters and combined matchers are not compiled)
+	 *
+	 * @param scores match scores by pattern name
+	 * @return true if order of some siblings would change
+	 */
+	public boolean reordersBy(Map<String, Double> scores) {
+		for(Map.Entry<String, List<PatternDefinition>> entry : declared.entrySet()) {
+			if(entry.getValue().size() < 2) {
+				continue;
+			}
+			List<PatternDefinition> reordered = new ArrayList<PatternDefinition>(entry.getValue());
+			reorder(reordered, exclusive.contains(entry.getKey()), scores);
+			List<PatternDefinition> current = ordered.get(entry.getKey());
+			for(int i = 0; i < reordered.size(); i++) {
+				if(reordered.get(i) != current.get(i)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return sorted patterns until the last active one
+	 */
+	private static List<PatternDefinition> prune(List<PatternDefinition> sorted, Set<String> activeTypes) {
+		if(activeTypes == null) {
+			return sorted;
+		}
+		int last = -1;
+		for(int i = 0; i < sorted.size(); i++) {
+			if(activeTypes.contains(sorted.get(i).getName())) {
+				last = i;
+			}
+		}
+		return new ArrayList<PatternDefinition>(sorted.subList(0, last + 1));
+	}
+
+	/**
+	 * @return number of levels (level indexes are 0 .. levelCount-1)
+	 */
+	public int getLevelCount() {
+		return levelCount;
+	}
+
+	/**
+	 * @param parent name of the parent pattern, null for top level
+	 * @return child patterns of given parent (never null)
+	 */
+	public Level getLevel(String parent) {
+		if(parent == null) {
+			return root;
+		}
+		return levels.getOrDefault(parent, EMPTY_LEVEL);
+	}
+
+	public List<PatternDefinition> getChildren(String parent) {
+		return getLevel(parent).getPatterns();
+	}
+
+	static int order(PatternDefinition pattern) {
+		Object order = pattern.get("order");
+		return order != null ? Integer.parseInt(order.toString()) : 0;
+	}
+}
@@ -0,0 +1,81 @@
+package com.github.arikastarvo.comet.parser;
+
+/**
+ * Step-counting view of a text, bounds how much work a regex may do on it.
+ *
+ * java.util.regex reads its input only through {@link #charAt(int)}, and backtracking re-reads the same characters over and over, so the number of reads is a good measure of matching work.
+ * Once the budget is used up, the read throws {@link ExceededException}, which aborts the match.
+ *
+ * View is reused for following matches (see {@link #of(CharSequence)}), so it is not thread-safe, every thread gets its own from {@link MatchContext}.
+ *
+ * @author tarvo
+ *
+ */
+public class RegexBudget implements CharSequence {
+
+	/**
+	 * thrown when a match runs out of budget (without stack trace, it is thrown on the hot path)
+	 */
+	public static class ExceededException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		private ExceededException() {
+			super("regex step budget exceeded", null, false, false);
+		}
+	}
+
+	private static final ExceededException EXCEEDED = new ExceededException();
+
+	private final long budget;
+
+	private long steps;
+
+	private CharSequence text = "";
+
+	/**
+	 * @param budget max number of character reads per match
+	 */
+	public RegexBudget(long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * @return this view over given text, with full budget
+	 */
+	public CharSequence of(CharSequence text) {
+		this.text = text;
+		this.steps = budget;
+		return this;
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if(--steps < 0) {
+			throw EXCEEDED;
+		}
+		return text.charAt(index);
+	}
+
+	@Override
+	public int length() {
+		return text.length();
+	}
+
+	/**
+	 * captured groups are not counted
+	 */
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return text.subSequence(start, end);
+	}
+
+	@Override
+	public String toString() {
+		return text.toString();
+	}
+}
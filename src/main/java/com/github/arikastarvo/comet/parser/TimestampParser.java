@@ -0,0 +1,204 @@
+package com.github.arikastarvo.comet.parser;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.regex.Pattern;
+
+/**
+ * Thread-safe timestamp parser (timestamp string -&gt; epoch millis).
+ *
+ * ISO-8601 timestamps (<code>yyyy-MM-ddTHH:mm:ss[.fraction](Z|+hh|+hhmm|+hh:mm)</code>, as in logevents base pattern) are parsed by hand. Epoch of the last seen date-time-until-seconds prefix is memoized, as consecutive log lines usually share the same second.
+ * Other formats are parsed with a SimpleDateFormat per thread.
+ *
+ * @author tarvo
+ *
+ */
+public class TimestampParser {
+
+	/**
+	 * SimpleDateFormat patterns that are handled by ISO-8601 parser
+	 */
+	private static final Pattern ISO_FORMAT = Pattern.compile("yyyy-MM-dd'T'(HH|hh):mm:ss(\\.S+)?X{1,3}");
+
+	/**
+	 * parser for logts field of logevents base pattern
+	 */
+	public static final TimestampParser ISO8601 = new TimestampParser(null);
+
+	/**
+	 * date and time until seconds: yyyy-MM-ddTHH:mm:ss
+	 */
+	private static final int PREFIX_LENGTH = 19;
+
+	private final String format;
+
+	private final ThreadLocal<SimpleDateFormat> dateFormat;
+
+	/**
+	 * last seen prefix and its epoch millis (in UTC, zone is applied separately)
+	 */
+	private static final class Memo {
+		final String prefix;
+		final long millis;
+
+		Memo(String prefix, long millis) {
+			this.prefix = prefix;
+			this.millis = millis;
+		}
+	}
+
+	private volatile Memo memo = new Memo("", 0);
+
+	private TimestampParser(String format) {
+		this.format = format;
+		if(format != null) {
+			// fail early on invalid format
+			new SimpleDateFormat(format);
+			this.dateFormat = ThreadLocal.withInitial(() -> new SimpleDateFormat(format));
+		} else {
+			this.dateFormat = null;
+		}
+	}
+
+	/**
+	 * @param format SimpleDateFormat pattern
+	 * @return parser for given format, ISO-8601 like formats get the fast parser
+	 * @throws IllegalArgumentException if format is invalid
+	 */
+	public static TimestampParser forPattern(String format) {
+		if(ISO_FORMAT.matcher(format).matches()) {
+			return new TimestampParser(null);
+		}
+		return new TimestampParser(format);
+	}
+
+	/**
+	 * @return SimpleDateFormat pattern, null for ISO-8601 parser
+	 */
+	public String getFormat() {
+		return format;
+	}
+
+	/**
+	 * @param text timestamp
+	 * @return epoch millis
+	 * @throws ParseException if timestamp can not be parsed
+	 */
+	public long parse(CharSequence text) throws ParseException {
+		if(dateFormat != null) {
+			return dateFormat.get().parse(text.toString()).getTime();
+		}
+		return parseIso(text);
+	}
+
+	private long parseIso(CharSequence text) throws ParseException {
+		int length = text.length();
+		if(length < PREFIX_LENGTH + 1 || text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(10) != 'T' || text.charAt(13) != ':' || text.charAt(16) != ':') {
+			throw new ParseException("unparseable timestamp: " + text, 0);
+		}
+
+		long millis;
+		Memo last = memo;
+		if(regionMatches(text, last.prefix)) {
+			millis = last.millis;
+		} else {
+			int year = digits(text, 0, 4);
+			int month = digits(text, 5, 2);
+			int day = digits(text, 8, 2);
+			int hour = digits(text, 11, 2);
+			int minute = digits(text, 14, 2);
+			int second = digits(text, 17, 2);
+			// out of range values roll over, same as lenient SimpleDateFormat does
+			millis = (((epochDay(year, month, day) * 24 + hour) * 60 + minute) * 60 + second) * 1000L;
+			memo = new Memo(text.subSequence(0, PREFIX_LENGTH).toString(), millis);
+		}
+
+		int pos = PREFIX_LENGTH;
+
+		// fraction of second
+		if(text.charAt(pos) == '.' || text.charAt(pos) == ',') {
+			pos++;
+			int fraction = 0;
+			int scale = 100;
+			int start = pos;
+			while(pos < length && isDigit(text.charAt(pos))) {
+				fraction += (text.charAt(pos) - '0') * scale;
+				scale /= 10;
+				pos++;
+			}
+			if(pos == start) {
+				throw new ParseException("unparseable timestamp: " + text, pos);
+			}
+			millis += fraction;
+		}
+
+		// zone
+		if(pos >= length) {
+			throw new ParseException("unparseable timestamp: " + text, pos);
+		}
+		char sign = text.charAt(pos);
+		if(sign == 'Z') {
+			return millis;
+		}
+		if((sign != '+' && sign != '-') || pos + 3 > length) {
+			throw new ParseException("unparseable timestamp: " + text, pos);
+		}
+		int offsetHours = digits(text, pos + 1, 2);
+		int offsetMinutes = 0;
+		pos += 3;
+		if(pos < length && text.charAt(pos) == ':') {
+			offsetMinutes = digits(text, pos + 1, 2);
+		} else if(pos + 1 < length && isDigit(text.charAt(pos)) && isDigit(text.charAt(pos + 1))) {
+			offsetMinutes = digits(text, pos, 2);
+		}
+		long offset = (offsetHours * 60L + offsetMinutes) * 60000L;
+		return sign == '+' ? millis - offset : millis + offset;
+	}
+
+	private static boolean regionMatches(CharSequence text, String prefix) {
+		if(prefix.length() != PREFIX_LENGTH) {
+			return false;
+		}
+		// seconds change the most, so compare from the end
+		for(int i = PREFIX_LENGTH - 1; i >= 0; i--) {
+			if(text.charAt(i) != prefix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int digits(CharSequence text, int start, int count) throws ParseException {
+		if(start + count > text.length()) {
+			throw new ParseException("unparseable timestamp: " + text, start);
+		}
+		int value = 0;
+		for(int i = start; i < start + count; i++) {
+			char c = text.charAt(i);
+			if(!isDigit(c)) {
+				throw new ParseException("unparseable timestamp: " + text, i);
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	/**
+	 * days since 1970-01-01 of proleptic gregorian date (month and day may overflow)
+	 */
+	static long epochDay(int year, int month, int day) {
+		// normalize month first, days are simply added
+		year += Math.floorDiv(month - 1, 12);
+		month = Math.floorMod(month - 1, 12) + 1;
+		long y = month <= 2 ? year - 1 : year;
+		long era = Math.floorDiv(y, 400);
+		long yearOfEra = y - era * 400;
+		long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468 + (day - 1);
+	}
+}
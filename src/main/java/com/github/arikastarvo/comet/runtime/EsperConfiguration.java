@@ -0,0 +1,67 @@
+package com.github.arikastarvo.comet.runtime;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class EsperConfiguration {
+
+	/**
+	 * number of esper inbound threads (sent events are queued and evaluated in esper's thread pool, order of events is not kept), 0 means events are evaluated in sending thread
+	 */
+	public int inboundThreads = 0;
+	
+	/**
+	 * max number of events waiting for inbound threads, 0 means unbounded
+	 */
+	public int inboundCapacity = 0;
+	
+	/**
+	 * number of esper outbound threads (listeners are called in esper's thread pool), 0 means listeners are called in evaluating thread
+	 */
+	public int outboundThreads = 0;
+	
+	/**
+	 * max number of results waiting for outbound threads, 0 means unbounded
+	 */
+	public int outboundCapacity = 0;
+	
+	/**
+	 * keyed contexts declared for statements (context name -&gt; key field), statements use them with <code>context name select ...</code>
+	 */
+	public Map<String, String> contexts = new LinkedHashMap<String, String>();
+	
+	/**
+	 * number of lanes events are routed into by key, lanes are evaluated in parallel and events with the same key in order. 0 means events are not routed
+	 */
+	public int lanes = 0;
+	
+	/**
+	 * field lanes are routed by, key of the first context if not set
+	 */
+	public String routeBy = null;
+	
+	/**
+	 * max number of events waiting in one lane (or shard)
+	 */
+	public int laneQueueSize = 1024;
+	
+	/**
+	 * number of independent esper runtimes (with the same modules) events are sharded into by shard key, each evaluated in its own thread. 0 or 1 means monitor is not sharded
+	 */
+	public int shards = 0;
+	
+	/**
+	 * field events are sharded by
+	 */
+	public String shardKey = null;
+	
+	/**
+	 * step (ms) external clock is advanced in, 0 means time is advanced to every new event timestamp
+	 */
+	public long clockGranularity = 0;
+	
+	/**
+	 * how long (ms) events wait in reorder buffer with external clock, so events that are out of order by less than that are sent in timestamp order. 0 means events are sent right away
+	 */
+	public long clockLateness = 0;
+}
@@ -0,0 +1,193 @@
+package com.github.arikastarvo.comet.runtime;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiConsumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Routes events into parallel lanes by key, in front of the esper runtime.
+ *
+ * Every lane is a bounded queue with its own thread that sends events to runtime. Events with the same key always go to the same lane, so they are evaluated in the order they were routed,
+ * while events with different keys are evaluated in parallel. With statements in a context keyed by the same field, context partitions of different lanes do not block each other.
+ *
+ * Events without key go to the first lane. Routing blocks when lane is full.
+ *
+ * @author tarvo
+ *
+ */
+public class EventRouter {
+
+	private static final ParsePipeline.ParsedEvent STOP = new ParsePipeline.ParsedEvent(null, (Map<String, Object>)null);
+
+	Logger log = LogManager.getLogger(EventRouter.class);
+
+	private final String key;
+
+	private final List<BlockingQueue<ParsePipeline.ParsedEvent>> lanes;
+
+	private final Thread[] threads;
+
+	/**
+	 * number of events routed into each lane
+	 */
+	private final AtomicLongArray routed;
+
+	private final BiConsumer<Integer, ParsePipeline.ParsedEvent> evaluate;
+
+	private volatile boolean stopped = false;
+
+	/**
+	 * @param name name prefix for threads
+	 * @param lanes number of lanes
+	 * @param queueSize max number of events waiting in one lane
+	 * @param key field events are routed by
+	 * @param evaluate sends event of given lane to runtime (called from lane threads)
+	 */
+	public EventRouter(String name, int lanes, int queueSize, String key, BiConsumer<Integer, ParsePipeline.ParsedEvent> evaluate) {
+		this.key = key;
+		this.evaluate = evaluate;
+		this.lanes = new ArrayList<BlockingQueue<ParsePipeline.ParsedEvent>>();
+		this.threads = new Thread[Math.max(1, lanes)];
+		this.routed = new AtomicLongArray(threads.length);
+		for(int i = 0; i < threads.length; i++) {
+			int lane = i;
+			this.lanes.add(new ArrayBlockingQueue<ParsePipeline.ParsedEvent>(Math.max(1, queueSize)));
+			this.threads[i] = new Thread(() -> laneLoop(lane), name + "-lane-" + (i + 1));
+			this.threads[i].setDaemon(true);
+			this.threads[i].start();
+		}
+	}
+
+	/**
+	 * @return field events are routed by
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * Queue event into lane of its key, blocks if lane is full
+	 *
+	 * @param event event to be evaluated
+	 * @param keyValue value of key field, may be null
+	 */
+	public void route(ParsePipeline.ParsedEvent event, Object keyValue) {
+		if(stopped) {
+			log.warn("event router is stopped, dropping event");
+			return;
+		}
+		int lane = lane(keyValue);
+		try {
+			lanes.get(lane).put(event);
+			routed.incrementAndGet(lane);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Queue event into every lane (after events routed before it), blocks if some lane is full
+	 *
+	 * @param event event every lane has to see (not counted as routed)
+	 */
+	public void broadcast(ParsePipeline.ParsedEvent event) {
+		if(stopped) {
+			return;
+		}
+		try {
+			for(BlockingQueue<ParsePipeline.ParsedEvent> lane : lanes) {
+				lane.put(event);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return lane of key (the same key always gets the same lane)
+	 */
+	public int lane(Object keyValue) {
+		if(keyValue == null) {
+			return 0;
+		}
+		int hash = keyValue.hashCode();
+		return Math.floorMod(hash ^ (hash >>> 16), lanes.size());
+	}
+
+	private void laneLoop(int lane) {
+		while(true) {
+			ParsePipeline.ParsedEvent next;
+			try {
+				next = lanes.get(lane).take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if(next == STOP) {
+				return;
+			}
+			try {
+				evaluate.accept(lane, next);
+			} catch (RuntimeException e) {
+				log.warn("sending event to runtime failed: {}", e.getMessage());
+				log.debug("sending event to runtime failed: {}", e.getMessage(), e);
+			}
+		}
+	}
+
+	/**
+	 * Stop accepting new events, wait until already routed events have been evaluated and stop threads
+	 */
+	public void stop() {
+		if(stopped) {
+			return;
+		}
+		stopped = true;
+		try {
+			for(int i = 0; i < lanes.size(); i++) {
+				if(Thread.currentThread() != threads[i]) {
+					lanes.get(i).put(STOP);
+				} else {
+					// stop was triggered by esper listener (runs in lane thread), runtime goes away, so the rest of this lane is dropped
+					lanes.get(i).clear();
+					lanes.get(i).offer(STOP);
+				}
+			}
+			for(Thread thread : threads) {
+				if(Thread.currentThread() != thread) {
+					thread.join();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return number of events waiting in lanes
+	 */
+	public int size() {
+		int size = 0;
+		for(BlockingQueue<ParsePipeline.ParsedEvent> lane : lanes) {
+			size += lane.size();
+		}
+		return size;
+	}
+
+	/**
+	 * @return number of events routed into each lane so far
+	 */
+	public long[] routed() {
+		long[] counts = new long[routed.length()];
+		for(int i = 0; i < counts.length; i++) {
+			counts[i] = routed.get(i);
+		}
+		return counts;
+	}
+}
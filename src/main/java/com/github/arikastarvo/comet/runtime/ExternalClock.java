@@ -0,0 +1,178 @@
+package com.github.arikastarvo.comet.runtime;
+
+import java.util.PriorityQueue;
+
+import com.espertech.esper.runtime.client.EPRuntime;
+
+/**
+ * Drives external clock of one esper runtime by event timestamps (logts_timestamp).
+ *
+ * Time is advanced in steps of granularity (timestamp is truncated to it), so the runtime is only asked to advance time when events cross into the next step, not on every new millisecond.
+ * Timers that come due within a step fire in granularity resolution.
+ *
+ * With lateness, events wait in a reorder buffer until the watermark (highest seen timestamp minus lateness) passes them, and are released in timestamp order.
+ * Events that come in below the watermark are late, they are sent right away (time does not go back) and counted. Events without timestamp keep their place in arrival order.
+ *
+ * With shards, every shard has a clock of its own that only sees events of its keys. Time advance of the whole monitor is passed to every shard with {@link #advanceTo(long)}, so time does not stall in quiet shards.
+ *
+ * Methods are synchronized, clock is normally used by only one thread (the one sending events to its runtime).
+ *
+ * @author tarvo
+ *
+ */
+public class ExternalClock {
+
+	private static class Pending implements Comparable<Pending> {
+		final ParsePipeline.ParsedEvent event;
+		final long timestamp;
+		final long sequence;
+
+		Pending(ParsePipeline.ParsedEvent event, long timestamp, long sequence) {
+			this.event = event;
+			this.timestamp = timestamp;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(Pending other) {
+			int cmp = Long.compare(timestamp, other.timestamp);
+			return cmp != 0 ? cmp : Long.compare(sequence, other.sequence);
+		}
+	}
+
+	private final EPRuntime runtime;
+
+	private final long granularity;
+
+	private final long lateness;
+
+	private final PriorityQueue<Pending> buffer = new PriorityQueue<Pending>();
+
+	private long sequence = 0;
+
+	/**
+	 * current time of runtime
+	 */
+	private long current;
+
+	private long maxTimestamp = Long.MIN_VALUE;
+
+	private long lateEvents = 0;
+
+	/**
+	 * @param runtime runtime with external clock enabled (and initial time set)
+	 * @param granularity step of time advancement in ms, 0 to advance to every new timestamp
+	 * @param lateness how long (ms) events wait in reorder buffer, 0 to send events right away
+	 */
+	public ExternalClock(EPRuntime runtime, long granularity, long lateness) {
+		this.runtime = runtime;
+		this.granularity = Math.max(0, granularity);
+		this.lateness = Math.max(0, lateness);
+		this.current = runtime.getEventService().getCurrentTime();
+	}
+
+	/**
+	 * Advance time by event timestamp and send event to runtime (or buffer it until watermark passes it)
+	 *
+	 * @param event event to be sent
+	 * @param logtsTimestamp event timestamp, may be null
+	 */
+	public synchronized void send(ParsePipeline.ParsedEvent event, Object logtsTimestamp) {
+		long timestamp = logtsTimestamp instanceof Number ? ((Number)logtsTimestamp).longValue() : 0;
+		if(timestamp <= 0) {
+			if(buffer.isEmpty()) {
+				sendToRuntime(event);
+			} else {
+				buffer.add(new Pending(event, maxTimestamp, sequence++));
+			}
+			return;
+		}
+		if(maxTimestamp != Long.MIN_VALUE && timestamp < maxTimestamp - lateness) {
+			// already behind watermark, order can not be kept anymore
+			lateEvents++;
+			sendToRuntime(event);
+			return;
+		}
+		if(timestamp > maxTimestamp) {
+			maxTimestamp = timestamp;
+		}
+		if(lateness == 0) {
+			advance(timestamp);
+			sendToRuntime(event);
+			return;
+		}
+		buffer.add(new Pending(event, timestamp, sequence++));
+		release(maxTimestamp - lateness);
+	}
+
+	/**
+	 * Move time on by timestamp seen elsewhere (events of other shards): buffered events below the new watermark are released and time is advanced to watermark
+	 *
+	 * @param timestamp highest event timestamp seen by monitor
+	 */
+	public synchronized void advanceTo(long timestamp) {
+		if(timestamp <= 0) {
+			return;
+		}
+		if(timestamp > maxTimestamp) {
+			maxTimestamp = timestamp;
+		}
+		release(maxTimestamp - lateness);
+		advance(maxTimestamp - lateness);
+	}
+
+	/**
+	 * Release all buffered events and advance time to the highest seen timestamp (at the end of input)
+	 */
+	public synchronized void flush() {
+		release(Long.MAX_VALUE);
+		if(maxTimestamp != Long.MIN_VALUE) {
+			advance(maxTimestamp);
+		}
+	}
+
+	private void release(long watermark) {
+		while(!buffer.isEmpty() && buffer.peek().timestamp <= watermark) {
+			Pending next = buffer.poll();
+			advance(next.timestamp);
+			sendToRuntime(next.event);
+		}
+	}
+
+	private void advance(long timestamp) {
+		long time = granularity > 0 ? timestamp - timestamp % granularity : timestamp;
+		if(time > current) {
+			runtime.getEventService().advanceTimeSpan(time, granularity > 0 ? granularity : 1000);
+			current = time;
+		}
+	}
+
+	private void sendToRuntime(ParsePipeline.ParsedEvent event) {
+		if(event.array != null) {
+			runtime.getEventService().sendEventObjectArray(event.array, event.type);
+		} else {
+			runtime.getEventService().sendEventMap(event.event, event.type);
+		}
+	}
+
+	/**
+	 * @return highest seen timestamp minus lateness (events below it are late), Long.MIN_VALUE if no timestamps seen yet
+	 */
+	public synchronized long getWatermark() {
+		return maxTimestamp == Long.MIN_VALUE ? Long.MIN_VALUE : maxTimestamp - lateness;
+	}
+
+	/**
+	 * @return number of events that came in below the watermark
+	 */
+	public synchronized long getLateEvents() {
+		return lateEvents;
+	}
+
+	/**
+	 * @return number of events waiting in reorder buffer
+	 */
+	public synchronized int buffered() {
+		return buffer.size();
+	}
+}
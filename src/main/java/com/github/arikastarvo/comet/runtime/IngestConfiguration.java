@@ -0,0 +1,21 @@
+package com.github.arikastarvo.comet.runtime;
+
+import com.github.arikastarvo.comet.utils.OverflowPolicy;
+
+public class IngestConfiguration {
+
+	/**
+	 * max number of parsed events waiting between inputs and esper runtime, 0 means inputs send events to runtime themselves
+	 */
+	public int queueSize = 0;
+	
+	/**
+	 * what to do with new events when ingest queue is full
+	 */
+	public OverflowPolicy overflow = OverflowPolicy.BLOCK;
+	
+	/**
+	 * with sample overflow policy, every n-th event is kept when ingest queue is full
+	 */
+	public int sampleRate = 10;
+}
@@ -0,0 +1,206 @@
+package com.github.arikastarvo.comet.runtime;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.github.arikastarvo.comet.utils.BoundedDispatcher;
+import com.github.arikastarvo.comet.utils.OverflowPolicy;
+
+/**
+ * Bounded queue between inputs and the esper runtime.
+ *
+ * Inputs put parsed events into a lock-free ring buffer and go on reading, a single ingest thread sends events to runtime in queue order (see {@link BoundedDispatcher}).
+ * With sample policy, every input is sampled separately.
+ * When queue is full, overflow policy decides whether input waits or events are dropped. Queue depth, enqueue latency and drops are counted per input.
+ *
+ * @author tarvo
+ *
+ */
+public class IngestQueue {
+
+	/**
+	 * stats key of events that were not sent by an input
+	 */
+	public static final String NO_INPUT = "default";
+
+	/**
+	 * counters of one input
+	 */
+	public static class InputStats {
+		private final AtomicLong depth = new AtomicLong();
+		private final AtomicLong enqueued = new AtomicLong();
+		private final AtomicLong dropped = new AtomicLong();
+		private final AtomicLong overflowed = new AtomicLong();
+		private final AtomicLong enqueueNanos = new AtomicLong();
+		private final AtomicLong maxEnqueueNanos = new AtomicLong();
+
+		/**
+		 * @return number of events of input waiting in queue
+		 */
+		public long getDepth() {
+			return depth.get();
+		}
+
+		/**
+		 * @return number of events of input that got into queue
+		 */
+		public long getEnqueued() {
+			return enqueued.get();
+		}
+
+		/**
+		 * @return number of events of input dropped by overflow policy
+		 */
+		public long getDropped() {
+			return dropped.get();
+		}
+
+		/**
+		 * @return average time (ns) input spent putting an event into queue
+		 */
+		public long getAverageEnqueueNanos() {
+			long count = enqueued.get();
+			return count == 0 ? 0 : enqueueNanos.get() / count;
+		}
+
+		/**
+		 * @return longest time (ns) input spent putting an event into queue
+		 */
+		public long getMaxEnqueueNanos() {
+			return maxEnqueueNanos.get();
+		}
+
+		public Map<String, Long> toMap() {
+			Map<String, Long> stats = new LinkedHashMap<String, Long>();
+			stats.put("depth", getDepth());
+			stats.put("enqueued", getEnqueued());
+			stats.put("dropped", getDropped());
+			stats.put("enqueue-latency-avg-ns", getAverageEnqueueNanos());
+			stats.put("enqueue-latency-max-ns", getMaxEnqueueNanos());
+			return stats;
+		}
+	}
+
+	private static class Entry {
+		final ParsePipeline.ParsedEvent event;
+		final InputStats stats;
+
+		Entry(ParsePipeline.ParsedEvent event, InputStats stats) {
+			this.event = event;
+			this.stats = stats;
+		}
+	}
+
+	Logger log = LogManager.getLogger(IngestQueue.class);
+
+	private final BoundedDispatcher<Entry> queue;
+
+	private final Consumer<ParsePipeline.ParsedEvent> ingest;
+
+	private final Map<String, InputStats> stats = new ConcurrentHashMap<String, InputStats>();
+
+	/**
+	 * @param name name prefix for ingest thread
+	 * @param capacity max number of events in queue (rounded up to power of two)
+	 * @param policy what to do when queue is full
+	 * @param sampleRate with sample policy, every n-th event is kept when queue is full
+	 * @param ingest sends event to runtime (called from single thread)
+	 */
+	public IngestQueue(String name, int capacity, OverflowPolicy policy, int sampleRate, Consumer<ParsePipeline.ParsedEvent> ingest) {
+		this.ingest = ingest;
+		this.queue = new BoundedDispatcher<Entry>(name + "-ingest-queue", capacity, policy, sampleRate, 1, this::ingestBatch, this::evicted);
+		this.queue.start();
+	}
+
+	/**
+	 * Queue event, depending on overflow policy waits for room or drops events if queue is full
+	 *
+	 * @param inputId input event came from, may be null
+	 * @param event event to be sent to runtime
+	 */
+	public void put(String inputId, ParsePipeline.ParsedEvent event) {
+		InputStats input = stats(inputId);
+		if(queue.isStopped()) {
+			log.warn("ingest queue is stopped, dropping event");
+			input.dropped.incrementAndGet();
+			return;
+		}
+		long start = System.nanoTime();
+		// counted before put, so that depth does not go below zero when event is taken right away
+		input.depth.incrementAndGet();
+		if(!queue.put(new Entry(event, input), input.overflowed)) {
+			input.depth.decrementAndGet();
+			input.dropped.incrementAndGet();
+			return;
+		}
+		long took = System.nanoTime() - start;
+		input.enqueued.incrementAndGet();
+		input.enqueueNanos.addAndGet(took);
+		if(took > input.maxEnqueueNanos.get()) {
+			input.maxEnqueueNanos.accumulateAndGet(took, Math::max);
+		}
+	}
+
+	private void ingestBatch(List<Entry> entries) {
+		for(Entry next : entries) {
+			next.stats.depth.decrementAndGet();
+			try {
+				ingest.accept(next.event);
+			} catch (RuntimeException e) {
+				log.warn("sending event to runtime failed: {}", e.getMessage());
+				log.debug("sending event to runtime failed: {}", e.getMessage(), e);
+			}
+		}
+	}
+
+	/**
+	 * count event dropped by drop-oldest policy
+	 */
+	private void evicted(Entry oldest) {
+		oldest.stats.depth.decrementAndGet();
+		oldest.stats.dropped.incrementAndGet();
+	}
+
+	/**
+	 * Stop accepting new events, wait until already queued events have been ingested and stop thread.
+	 * If stop is triggered by esper listener (runs in ingest thread), runtime goes away, so the rest is dropped.
+	 */
+	public void stop() {
+		queue.stop();
+	}
+
+	private InputStats stats(String inputId) {
+		return stats.computeIfAbsent(inputId == null ? NO_INPUT : inputId, id -> new InputStats());
+	}
+
+	/**
+	 * @return counters of inputs (input id -&gt; counter name -&gt; value)
+	 */
+	public Map<String, Map<String, Long>> stats() {
+		Map<String, Map<String, Long>> result = new TreeMap<String, Map<String, Long>>();
+		stats.forEach( (inputId, input) -> result.put(inputId, input.toMap()));
+		return result;
+	}
+
+	/**
+	 * @return counters of input, null if nothing has come from it
+	 */
+	public InputStats getInputStats(String inputId) {
+		return stats.get(inputId == null ? NO_INPUT : inputId);
+	}
+
+	/**
+	 * @return number of events waiting in queue
+	 */
+	public int size() {
+		return queue.size();
+	}
+}
@@ -7,17 +7,19 @@ import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
@@ -35,14 +37,18 @@ import org.apache.logging.log4j.core.config.builder.impl.BuiltConfiguration;
 
 import com.espertech.esper.common.client.EPCompiled;
 import com.espertech.esper.common.client.EventBean;
+import com.espertech.esper.common.client.EventType;
 import com.espertech.esper.common.client.annotation.Description;
 import com.espertech.esper.common.client.annotation.Tag;
 import com.espertech.esper.common.client.configuration.Configuration;
 import com.espertech.esper.common.client.configuration.common.ConfigurationCommonDBRef;
 import com.espertech.esper.common.client.configuration.common.ConfigurationCommonEventTypeMap;
+import com.espertech.esper.common.client.configuration.common.ConfigurationCommonEventTypeObjectArray;
 import com.espertech.esper.compiler.client.CompilerArguments;
 import com.espertech.esper.compiler.client.EPCompileException;
 import com.espertech.esper.compiler.client.EPCompilerProvider;
+import com.espertech.esper.common.client.module.ModuleItem;
+import com.espertech.esper.runtime.client.DeploymentOptions;
 import com.espertech.esper.runtime.client.EPDeployException;
 import com.espertech.esper.runtime.client.EPDeployment;
 import com.espertech.esper.runtime.client.EPRuntime;
@@ -50,6 +56,7 @@ import com.espertech.esper.runtime.client.EPRuntimeDestroyedException;
 import com.espertech.esper.runtime.client.EPRuntimeProvider;
 import com.espertech.esper.runtime.client.EPStatement;
 import com.espertech.esper.runtime.client.EPUndeployException;
+import com.espertech.esper.runtime.client.UpdateListener;
 import com.github.arikastarvo.comet.CometApplication;
 import com.github.arikastarvo.comet.CustomUpdateListener;
 import com.github.arikastarvo.comet.EventUpdateListener;
@@ -63,7 +70,11 @@ import com.github.arikastarvo.comet.output.file.FileOutput;
 import com.github.arikastarvo.comet.output.file.FileOutputConfiguration;
 import com.github.arikastarvo.comet.output.stdout.StdoutOutput;
 import com.github.arikastarvo.comet.output.stdout.StdoutOutputConfiguration;
+import com.github.arikastarvo.comet.parser.EventLayout;
+import com.github.arikastarvo.comet.parser.FieldProjection;
 import com.github.arikastarvo.comet.parser.Parser;
+import com.github.arikastarvo.comet.parser.PatternDefinition;
+import com.github.arikastarvo.comet.parser.TimestampParser;
 import com.github.arikastarvo.comet.persistence.PersistenceManager;
 import com.github.arikastarvo.comet.utils.DNSUtil;
 import com.github.arikastarvo.comet.utils.MaxMind;
@@ -78,6 +89,46 @@ public class MonitorRuntimeEsperImpl extends MonitorRuntime implements InputEven
 
 	public EPRuntime runtime = null;
 	
+	/**
+	 * parallel parse stage, null if lines are parsed in input threads
+	 */
+	private ParsePipeline parsePipeline = null;
+	
+	/**
+	 * bounded queue between inputs and runtime, null if inputs send events to runtime themselves
+	 */
+	private IngestQueue ingestQueue = null;
+	
+	/**
+	 * routes events into parallel lanes by key, null if events are evaluated in sending thread
+	 */
+	private EventRouter eventRouter = null;
+	
+	/**
+	 * independent runtimes events are sharded into by key (first one is {@link #runtime}), null if monitor is not sharded
+	 */
+	private EPRuntime[] shards = null;
+	
+	/**
+	 * external clocks of runtimes (one per shard), null if time is not driven by events
+	 */
+	private volatile ExternalClock[] clocks = null;
+	
+	/**
+	 * highest event timestamp routed to shards, broadcast to clocks of all shards
+	 */
+	private final AtomicLong shardTime = new AtomicLong(Long.MIN_VALUE);
+	
+	/**
+	 * layouts of event types that are registered as object-array types, null if events are sent as maps
+	 */
+	private volatile Map<String, EventLayout> objectArrayLayouts = null;
+	
+	/**
+	 * reusable event maps for batch parsing, used only when events are sent as object arrays (maps do not leave the parsing thread then)
+	 */
+	private final ThreadLocal<List<Map<String, Object>>> batchEvents = ThreadLocal.withInitial(ArrayList::new);
+	
 	//public PersistenceManager persistenceManager;
 	
 
@@ -105,7 +156,7 @@ public class MonitorRuntimeEsperImpl extends MonitorRuntime implements InputEven
 		if((!allInputsHaveParser || configuration.getInputs().size() == 0) && getParsers().size() == 0) {
 			try {
 				log.debug("creating default parser");
-				addParser(DEFAULT_PARSER_ID, new Parser(configuration.getDefaultPatternReferences(), configuration.getDefaultPatterns(), configuration.getEventTypes(), false, configuration.usePatternset, configuration.getDefaultEventTypesToParse()));
+				addParser(DEFAULT_PARSER_ID, new Parser(configuration.getDefaultPatternReferences(), configuration.getDefaultPatterns(), configuration.getEventTypes(), false, configuration.usePatternset, configuration.getDefaultEventTypesToParse(), configuration.parserConfiguration));
 			} catch(Exception e) {
 				log.error("could not create default parser");
 			}
@@ -118,7 +169,7 @@ public class MonitorRuntimeEsperImpl extends MonitorRuntime implements InputEven
 				try {
 					log.debug("creating dedicated parser for input {}", inputId);
 					// now this is a half-solution for now because half of the configuration params used are general
-					addParser(inputId, new Parser(configuration.getPatternReferences(inputId), configuration.getPatterns(inputId), configuration.getEventTypes(), false, false, configuration.getDefaultEventTypesToParse()));
+					addParser(inputId, new Parser(configuration.getPatternReferences(inputId), configuration.getPatterns(inputId), configuration.getEventTypes(), false, false, configuration.getDefaultEventTypesToParse(), configuration.parserConfiguration));
 					
 					// and now we use input-id as parser id.. so what was the point of mapping then..?
 					inputToParserMapping.put(inputId, inputId);
@@ -186,6 +237,9 @@ public class MonitorRuntimeEsperImpl extends MonitorRuntime implements InputEven
 		}
 		
 
+		// start writer threads of outputs before any results come in
+		startOutputs();
+
 		// pre-load persisted data to esper
 		if(this.persistenceManager != null) {
 			this.persistenceManager.loadAndSchedulePeristence();
@@ -200,6 +254,40 @@ public class MonitorRuntimeEsperImpl extends MonitorRuntime implements InputEven
 		}
 		secrets = null;
 		
+		// decouple inputs from runtime with bounded queue if configured so
+		if(configuration.ingestConfiguration.queueSize > 0) {
+			log.debug("starting ingest queue of {} events with {} overflow policy", configuration.ingestConfiguration.queueSize, configuration.ingestConfiguration.overflow);
+			ingestQueue = new IngestQueue(configuration.runtimeName, configuration.ingestConfiguration.queueSize, configuration.ingestConfiguration.overflow, configuration.ingestConfiguration.sampleRate, this::intoRuntime);
+		}
+		
+		// parse in separate threads if configured so
+		if(configuration.parserConfiguration.threads > 0) {
+			log.debug("starting parse pipeline with {} threads", configuration.parserConfiguration.threads);
+			parsePipeline = new ParsePipeline(configuration.runtimeName, configuration.parserConfiguration.threads, configuration.parserConfiguration.queueSize, this::ingest);
+		}
+		
+		// evaluate events in parallel lanes (or shards) if configured so
+		if(shards != null) {
+			if(configuration.esperConfiguration.lanes > 0) {
+				log.warn("monitor is sharded, events are routed by shard key '{}' instead of lanes", configuration.esperConfiguration.shardKey);
+			}
+			log.debug("routing events by '{}' into {} shards", configuration.esperConfiguration.shardKey, shards.length);
+			eventRouter = new EventRouter(configuration.runtimeName + "-shard", shards.length, configuration.esperConfiguration.laneQueueSize, configuration.esperConfiguration.shardKey, this::evaluate);
+		} else if(configuration.esperConfiguration.lanes > 0) {
+			String routeBy = configuration.esperConfiguration.routeBy;
+			if(routeBy == null && configuration.esperConfiguration.contexts.size() > 0) {
+				routeBy = configuration.esperConfiguration.contexts.values().iterator().next();
+			}
+			if(routeBy == null) {
+				log.warn("no field to route events by (route-by or context), evaluating events in sending thread");
+			} else if(configuration.externalClock) {
+				log.warn("events can not be routed into lanes with external clock (time would run ahead of events waiting in lanes), evaluating events in sending thread");
+			} else {
+				log.debug("routing events by '{}' into {} lanes", routeBy, configuration.esperConfiguration.lanes);
+				eventRouter = new EventRouter(configuration.runtimeName, configuration.esperConfiguration.lanes, configuration.esperConfiguration.laneQueueSize, routeBy, this::evaluate);
+			}
+		}
+		
 		// let the data flow
 		this.hookInputs(waitInput);
 		
@@ -398,10 +486,23 @@ public class MonitorRuntimeEsperImpl extends MonitorRuntime implements InputEven
 	public void stopOutputs() {
 		log.debug("Stopping outputs");
 		for(CustomUpdateListener listener : configuration.getListeners().values()) {
-			listener.getOutput().Stop();
+			listener.stop();
 		}
 	}
 	
+	/**
+	 * @return queue counters and lag of asynchronous outputs (listener id -&gt; counter name -&gt; value)
+	 */
+	public Map<String, Map<String, Long>> getOutputStats() {
+		Map<String, Map<String, Long>> stats = new TreeMap<String, Map<String, Long>>();
+		configuration.getListeners().forEach( (id, listener) -> {
+			if(listener instanceof EventUpdateListener && ((EventUpdateListener)listener).getDispatchStats() != null) {
+				stats.put(id, ((EventUpdateListener)listener).getDispatchStats());
+			}
+		});
+		return stats;
+	}
+	
 	public void addFileOutput(File file) throws FileNotFoundException {
 		FileOutput fo = new FileOutput(new FileOutputConfiguration(file, null));
 		
@@ -458,6 +559,28 @@ public class MonitorRuntimeEsperImpl extends MonitorRuntime implements InputEven
 		registerEsperStatements();
 	}
 	
+	/**
+	 * @return object-array layouts of all parsers' event types (parents first), null if some parser can not lay out its types or parsers disagree on a type
+	 */
+	private Map<String, EventLayout> objectArrayLayouts() {
+		Map<String, EventLayout> layouts = new LinkedHashMap<String, EventLayout>();
+		for(Map.Entry<String, Parser> entry : getParsers().entrySet()) {
+			Map<String, EventLayout> parserLayouts = entry.getValue().getEventLayouts();
+			if(parserLayouts == null) {
+				log.warn("patterns of parser '{}' can not be laid out as object arrays (multiple parents), sending events as maps", entry.getKey());
+				return null;
+			}
+			for(EventLayout layout : parserLayouts.values()) {
+				EventLayout existing = layouts.putIfAbsent(layout.getType(), layout);
+				if(existing != null && !existing.sameAs(layout)) {
+					log.warn("event type '{}' has different fields in different parsers, sending events as maps", layout.getType());
+					return null;
+				}
+			}
+		}
+		return layouts;
+	}
+	
 	public void registerEsperStatements() throws IOException, RuntimeException, EPCompileException, EPDeployException, com.espertech.esper.common.client.module.ParseException {
 		// run the shit
 		log.info("Starting Esper runtime with " + (configuration.externalClock?"external":"internal") + " timing");
@@ -534,6 +657,23 @@ public class MonitorRuntimeEsperImpl extends MonitorRuntime implements InputEven
 			conf.getRuntime().getMetricsReporting().setStatementInterval(1000);
 			conf.getRuntime().getMetricsReporting().setThreading(false);
 			
+			/** threading **/
+			EsperConfiguration esperConf = configuration.esperConfiguration;
+			if(esperConf.inboundThreads > 0) {
+				conf.getRuntime().getThreading().setThreadPoolInbound(true);
+				conf.getRuntime().getThreading().setThreadPoolInboundNumThreads(esperConf.inboundThreads);
+				if(esperConf.inboundCapacity > 0) {
+					conf.getRuntime().getThreading().setThreadPoolInboundCapacity(esperConf.inboundCapacity);
+				}
+			}
+			if(esperConf.outboundThreads > 0) {
+				conf.getRuntime().getThreading().setThreadPoolOutbound(true);
+				conf.getRuntime().getThreading().setThreadPoolOutboundNumThreads(esperConf.outboundThreads);
+				if(esperConf.outboundCapacity > 0) {
+					conf.getRuntime().getThreading().setThreadPoolOutboundCapacity(esperConf.outboundCapacity);
+				}
+			}
+			
 			//conf.getRuntime().getMetricsReporting().setEnableMetricsReporting(true);
 			//conf.getRuntime().getMetricsReporting().setJmxRuntimeMetrics(true);
 			/** END metrics **/
@@ -568,35 +708,73 @@ public class MonitorRuntimeEsperImpl extends MonitorRuntime implements InputEven
 			
 			// register default parser event types
 			List<String> registeredTypes = new ArrayList<String>();
-			getParsers().forEach( (String id, Parser parser) -> {
-				parser.getPatterns().forEach((reg) -> {
-					Map<String, Object> fields = (Map<String, Object>) reg.get("fields");
-					fields.put("eventType", "string");
-					fields.put("logts_timestamp", "long");
-					
-					ConfigurationCommonEventTypeMap typeConf = new ConfigurationCommonEventTypeMap();
+			Map<String, EventLayout> layouts = configuration.parserConfiguration.objectArrayEvents ? objectArrayLayouts() : null;
+			if(layouts != null) {
+				// layouts are ordered parents first
+				layouts.forEach( (name, layout) -> {
+					ConfigurationCommonEventTypeObjectArray typeConf = new ConfigurationCommonEventTypeObjectArray();
 					typeConf.setStartTimestampPropertyName("logts_timestamp");
 					typeConf.setEndTimestampPropertyName("logts_timestamp");
-					if(reg.hasParents()) {
-						typeConf.setSuperTypes(new HashSet<String>(reg.getParents()));
+					if(layout.getParent() != null) {
+						typeConf.setSuperTypes(new HashSet<String>(Arrays.asList(layout.getParent())));
 					}
-					log.trace("registering event type '{}' with fields: {}", (String)reg.get("name"), fields.keySet());
-					registeredTypes.add((String)reg.get("name"));
-					conf.getCommon().addEventType(reg.getName(), fields, typeConf);
+					log.trace("registering object-array event type '{}' with fields: {}", name, Arrays.asList(layout.getNames()));
+					registeredTypes.add(name);
+					conf.getCommon().addEventType(name, layout.getOwnNames(), layout.getOwnTypes(), typeConf);
 				});
-			});
+			} else {
+				getParsers().forEach( (String id, Parser parser) -> {
+					parser.getPatterns().forEach((reg) -> {
+						Map<String, Object> fields = (Map<String, Object>) reg.get("fields");
+						fields.put("eventType", "string");
+						fields.put("logts_timestamp", "long");
+						
+						ConfigurationCommonEventTypeMap typeConf = new ConfigurationCommonEventTypeMap();
+						typeConf.setStartTimestampPropertyName("logts_timestamp");
+						typeConf.setEndTimestampPropertyName("logts_timestamp");
+						if(reg.hasParents()) {
+							typeConf.setSuperTypes(new HashSet<String>(reg.getParents()));
+						}
+						log.trace("registering event type '{}' with fields: {}", (String)reg.get("name"), fields.keySet());
+						registeredTypes.add((String)reg.get("name"));
+						conf.getCommon().addEventType(reg.getName(), fields, typeConf);
+					});
+				});
+			}
 			log.debug("registered event types: {}", registeredTypes);
+			objectArrayLayouts = layouts;
 
 			//runtime = EPRuntimeProvider.getDefaultRuntime(this.configuration.runtimeName, conf);
 			runtime = EPRuntimeProvider.getRuntime(this.configuration.runtimeName, conf);
 			
-			if(configuration.externalClock) {
-				runtime.getEventService().clockExternal();
-				if(configuration.initialTime >= 0) {
-					log.debug("setting initial time to " + configuration.initialTime);
-					runtime.getEventService().advanceTime(configuration.initialTime);
+			shards = null;
+			if(esperConf.shards > 1 && esperConf.shardKey == null) {
+				log.warn("no shard key configured, running monitor in one runtime");
+			} else if(esperConf.shards > 1) {
+				// every shard is a runtime of its own with the same modules, events are routed to them by shard key
+				shards = new EPRuntime[esperConf.shards];
+				shards[0] = runtime;
+				for(int i = 1; i < shards.length; i++) {
+					shards[i] = EPRuntimeProvider.getRuntime(this.configuration.runtimeName + "-shard-" + i, conf);
+				}
+				if(configuration.persistenceConfiguration.persistence.size() > 0) {
+					log.warn("monitor is sharded, persisted data is restored into every shard");
+				}
+			}
+			
+			EPRuntime[] runtimes = shards();
+			ExternalClock[] externalClocks = configuration.externalClock ? new ExternalClock[runtimes.length] : null;
+			for(int i = 0; i < runtimes.length; i++) {
+				if(configuration.externalClock) {
+					runtimes[i].getEventService().clockExternal();
+					if(configuration.initialTime >= 0) {
+						log.debug("setting initial time to " + configuration.initialTime);
+						runtimes[i].getEventService().advanceTime(configuration.initialTime);
+					}
+					externalClocks[i] = new ExternalClock(runtimes[i], esperConf.clockGranularity, esperConf.clockLateness);
 				}
 			}
+			clocks = externalClocks;
 			
 			// deploy extra statements
 			for(String statement : configuration.getExtraStatements()) {
@@ -606,6 +784,9 @@ public class MonitorRuntimeEsperImpl extends MonitorRuntime implements InputEven
 				}}, conf);
 			}
 			
+			// declare keyed contexts for regular statements
+			declareContexts(registeredTypes, conf);
+			
 			// deploy regular statements
 			for( Map.Entry<String, Map<String, String>> entry : configuration.getStatements().entrySet() ) {
 
@@ -618,6 +799,36 @@ public class MonitorRuntimeEsperImpl extends MonitorRuntime implements InputEven
 		}
 	}
 	
+	/**
+	 * deploy configured keyed contexts. context is partitioned over topmost registered types that have key field (subtypes are covered by their parents)
+	 */
+	private void declareContexts(List<String> registeredTypes, Configuration conf) throws IOException, EPCompileException, EPDeployException, com.espertech.esper.common.client.module.ParseException {
+		for(Map.Entry<String, String> context : configuration.esperConfiguration.contexts.entrySet()) {
+			String key = context.getValue();
+			List<String> partitions = new ArrayList<String>();
+			for(String typeName : registeredTypes) {
+				EventType type = runtime.getEventTypeService().getEventTypePreconfigured(typeName);
+				if(type == null || !type.isProperty(key)) {
+					continue;
+				}
+				boolean inherited = type.getSuperTypes() != null && Arrays.stream(type.getSuperTypes()).anyMatch( superType -> superType.isProperty(key));
+				if(!inherited) {
+					partitions.add(key + " from " + typeName);
+				}
+			}
+			if(partitions.isEmpty()) {
+				log.warn("no event type has field '{}', context '{}' is not declared", key, context.getKey());
+				continue;
+			}
+			String statement = String.format("@public create context %s partition by %s;", context.getKey(), String.join(", ", partitions));
+			log.debug("declaring context: {}", statement);
+			deployModule(UUID.randomUUID().toString(), new HashMap<String, String>() {{
+				put("statement", statement);
+				put("type", "extra");
+			}}, conf);
+		}
+	}
+	
 	public String getDeploymentIdFromInternalDeploymentId(String internalDeploymentId) throws NoSuchElementException {
 		String deploymentId;
 		
@@ -654,12 +865,15 @@ public class MonitorRuntimeEsperImpl extends MonitorRuntime implements InputEven
 		}
 		
 		if(deployments.containsKey(deployment.get("id"))) {
-			runtime.getDeploymentService().undeploy(deploymentId);
+			for(EPRuntime shard : shards()) {
+				shard.getDeploymentService().undeploy(deploymentId);
+			}
 			undeployedDeployments.put(deploymentId, deployments.remove(deploymentId));
 			List<String> statIds = deployedStatements.values().stream().filter( (Map stat) -> stat.get("deploymentId").equals(deploymentId)).map( (Map stat) -> (String)stat.get("name")).collect(Collectors.toList());
 			for(String statId : statIds) {
 				undeployedStatements.put(statId, deployedStatements.remove(statId));
 			}
+			updateParsePlan();
 			
 			log.debug("module '{}' undeployed", moduleId);
 		} else {
@@ -766,6 +980,15 @@ public class MonitorRuntimeEsperImpl extends MonitorRuntime implements InputEven
 		// Return the deployment
 		EPDeployment epDeployment = runtime.getDeploymentService().deploy(compiled);
 		
+		// other shards get the same module with the same deployment id
+		List<EPDeployment> shardDeployments = new ArrayList<EPDeployment>();
+		if(shards != null) {
+			for(int i = 1; i < shards.length; i++) {
+				shardDeployments.add(shards[i].getDeploymentService().deploy(compiled, new DeploymentOptions().setDeploymentId(epDeployment.getDeploymentId())));
+			}
+			checkPartitionSafety(module, internalDeploymentId);
+		}
+		
 		
 		// fill in deployemnts information for later use
 		if (!deployments.containsKey(epDeployment.getDeploymentId())) {
@@ -851,7 +1074,20 @@ public class MonitorRuntimeEsperImpl extends MonitorRuntime implements InputEven
 				}*/
 				hasOutput.set(true);
 				log.debug("adding listener '{}' to statement '{}' (from statement group '{}')", key, depStatement.get("id"), internalDeploymentId);
-				stat.addListener(listener);
+				if(shards != null) {
+					// listeners get results of all shards, one at a time
+					UpdateListener merged = (newEvents, oldEvents, stmt, rt) -> {
+						synchronized(listener) {
+							listener.update(newEvents, oldEvents, stmt, rt);
+						}
+					};
+					stat.addListener(merged);
+					for(EPDeployment shardDeployment : shardDeployments) {
+						Arrays.stream(shardDeployment.getStatements()).filter( shardStat -> shardStat.getName().equals(stat.getName())).forEach( shardStat -> shardStat.addListener(merged));
+					}
+				} else {
+					stat.addListener(listener);
+				}
 				((List<String>)deployedStatements.get(depStatement.get("id")).get("listeners")).add(listener.getOutput().getClass().getSimpleName());
 			});
 			if(!hasOutput.get()) {
@@ -859,6 +1095,59 @@ public class MonitorRuntimeEsperImpl extends MonitorRuntime implements InputEven
 			}
 			
 		});
+		updateParsePlan();
+	}
+	
+	/**
+	 * narrow parsed fields and event types down to the ones deployed statements reference (if field projection or event type pruning is enabled)
+	 */
+	private void updateParsePlan() {
+		if(!configuration.parserConfiguration.fieldProjection && !configuration.parserConfiguration.pruneEventTypes) {
+			return;
+		}
+		List<String> modules = deployments.values().stream().map( (Map<String, Object> dep) -> (String)dep.get("statement")).collect(Collectors.toList());
+		
+		Set<String> fields = new HashSet<String>(FieldProjection.ALWAYS_KEPT);
+		fields.add("data");
+		getParsers().values().forEach( parser -> parser.getPatterns().forEach( pattern -> {
+			if(pattern.get("fields") instanceof Map) {
+				fields.addAll(((Map<String, Object>)pattern.get("fields")).keySet());
+			}
+		}));
+		
+		StatementAnalyzer analyzer = new StatementAnalyzer(modules, fields);
+		
+		if(configuration.parserConfiguration.pruneEventTypes) {
+			getParsers().values().forEach( parser -> {
+				Set<String> consumed = parser.getPatterns().stream().map(PatternDefinition::getName).filter(analyzer.getIdentifiers()::contains).collect(Collectors.toSet());
+				parser.setConsumedEventTypes(consumed);
+				log.debug("parsing event types: {}", parser.getActiveEventTypes());
+			});
+		}
+		
+		if(!configuration.parserConfiguration.fieldProjection) {
+			return;
+		}
+		if(analyzer.needsWholeEvents()) {
+			log.debug("deployed statements need whole events ({}), keeping all parsed fields", analyzer.getWholeEventReason());
+			getParsers().values().forEach( parser -> parser.setFieldProjection(null));
+		} else {
+			log.debug("deployed statements reference identifiers: {}", analyzer.getIdentifiers());
+			// events are routed and partitioned by key fields, even if statements do not reference them
+			Set<String> projected = new HashSet<String>(analyzer.getIdentifiers());
+			projected.addAll(configuration.esperConfiguration.contexts.values());
+			if(configuration.esperConfiguration.routeBy != null) {
+				projected.add(configuration.esperConfiguration.routeBy);
+			}
+			if(configuration.esperConfiguration.shardKey != null) {
+				projected.add(configuration.esperConfiguration.shardKey);
+			}
+			// raw data would be removed after parsing anyway, so parser does not have to materialize it
+			if(configuration.removeRawData) {
+				projected.remove("data");
+			}
+			getParsers().values().forEach( parser -> parser.setFieldProjection(projected));
+		}
 	}
 	
 	private void recalculateDeploymentsDependsOn() {
@@ -877,7 +1166,34 @@ public class MonitorRuntimeEsperImpl extends MonitorRuntime implements InputEven
 	
 	public void destroy() {
 		if(runtime != null) {
-			runtime.destroy();
+			for(EPRuntime shard : shards()) {
+				shard.destroy();
+			}
+		}
+	}
+	
+	/**
+	 * @return all runtimes of monitor (shards or just the one runtime)
+	 */
+	private EPRuntime[] shards() {
+		EPRuntime[] current = shards;
+		return current != null ? current : new EPRuntime[] { runtime };
+	}
+	
+	/**
+	 * warn about statements of module that give different results when events are split between shards
+	 */
+	private void checkPartitionSafety(com.espertech.esper.common.client.module.Module module, String internalDeploymentId) {
+		String key = configuration.esperConfiguration.shardKey;
+		Set<String> keyedContexts = configuration.esperConfiguration.contexts.entrySet().stream().filter( context -> context.getValue().equals(key)).map(Map.Entry::getKey).collect(Collectors.toSet());
+		for(ModuleItem item : module.getItems()) {
+			if(item.isCommentOnly() || item.getExpression() == null) {
+				continue;
+			}
+			String reason = StatementAnalyzer.partitionUnsafeReason(item.getExpression(), key, keyedContexts);
+			if(reason != null) {
+				log.warn("statement in module '{}' is not partition-safe with shards by '{}' ({}), every shard sees only its own events: {}", internalDeploymentId, key, reason, item.getExpression().trim().replaceAll("\\s+", " "));
+			}
 		}
 	}
 	
@@ -885,6 +1201,26 @@ public class MonitorRuntimeEsperImpl extends MonitorRuntime implements InputEven
 
 		// stop all inputs ( so that no more new data would come)
 		stopInputs();
+		
+		// let already read lines through
+		if(parsePipeline != null) {
+			parsePipeline.stop();
+		}
+		if(ingestQueue != null) {
+			ingestQueue.stop();
+		}
+		if(eventRouter != null) {
+			eventRouter.stop();
+		}
+		// release events still waiting in reorder buffers, shards are brought to the same time
+		if(clocks != null) {
+			for(ExternalClock clock : clocks) {
+				if(shards != null) {
+					clock.advanceTo(shardTime.get());
+				}
+				clock.flush();
+			}
+		}
 
 		// persist existing states if configured so
 		if(persistenceManager != null) {
@@ -929,17 +1265,134 @@ public class MonitorRuntimeEsperImpl extends MonitorRuntime implements InputEven
 		handleLine(line, result, true, configuration.keepMatches, inputId);
 	}
 	
+	public void parseAndSend(String line, Map<String, Object> result, Boolean keepMatches, String inputId) {
+		handleLine(line, result, true, keepMatches, inputId);
+	}
+	
+	public List<Map<String, Object>> parse(List<? extends CharSequence> lines, Boolean keepMatches, String inputId) {
+		List<Map<String, Object>> events = new ArrayList<Map<String, Object>>(lines.size());
+		prepareLines(lines, events, keepMatches, inputId);
+		return events;
+	}
+	
+	public void parseAndSend(List<? extends CharSequence> lines, Boolean keepMatches, String inputId) {
+		if(parsePipeline != null) {
+			parsePipeline.submitBatch(inputId, () -> prepareBatch(lines, keepMatches, inputId));
+			return;
+		}
+		for(ParsePipeline.ParsedEvent parsed : prepareBatch(lines, keepMatches, inputId)) {
+			ingest(inputId, parsed);
+		}
+	}
+	
+	/**
+	 * @return parse pipeline or null if lines are parsed in input threads
+	 */
+	public ParsePipeline getParsePipeline() {
+		return parsePipeline;
+	}
+	
 	public void send(String type, Map<String, Object> data) {
 		intoRuntime(type, data);
 	}
 	
 	private void handleLine(String line, Map<String, Object> result, boolean addToEsperRuntime, boolean keepMatchType, String inputId) {
+		if(addToEsperRuntime && parsePipeline != null) {
+			Map<String, Object> event = result == null ? new HashMap<String, Object>() : result;
+			parsePipeline.submit(inputId, () -> new ParsePipeline.ParsedEvent(prepareLine(line, event, keepMatchType, inputId), event));
+			return;
+		}
 		if(result == null) {
 			result = new HashMap<String, Object>();
 		}
-		
+		String type = prepareLine(line, result, keepMatchType, inputId);
+		if(addToEsperRuntime && ingestQueue != null) {
+			ingestQueue.put(inputId, new ParsePipeline.ParsedEvent(type, result));
+		} else if(addToEsperRuntime) {
+			intoRuntime(type, result);
+		}
+	}
+	
+	/**
+	 * hand parsed event of input over to runtime, through ingest queue if there is one
+	 */
+	private void ingest(String inputId, ParsePipeline.ParsedEvent parsed) {
+		IngestQueue queue = ingestQueue;
+		if(queue != null) {
+			queue.put(inputId, parsed);
+		} else {
+			intoRuntime(parsed);
+		}
+	}
+	
+	/**
+	 * @return ingest queue counters per input (input id -&gt; counter name -&gt; value), empty if there is no ingest queue
+	 */
+	public Map<String, Map<String, Long>> getIngestStats() {
+		IngestQueue queue = ingestQueue;
+		return queue != null ? queue.stats() : new HashMap<String, Map<String, Long>>();
+	}
+	
+	/**
+	 * parse line into result and do runtime specific post-processing
+	 * 
+	 * @return event type
+	 */
+	private String prepareLine(String line, Map<String, Object> result, boolean keepMatchType, String inputId) {
 		getParser(inputId).matchline(line, result);
+		return postProcess(result, keepMatchType);
+	}
+	
+	/**
+	 * parse batch of lines into events and do runtime specific post-processing
+	 * 
+	 * @return event types of events
+	 */
+	private List<String> prepareLines(List<? extends CharSequence> lines, List<Map<String, Object>> events, boolean keepMatchType, String inputId) {
+		getParser(inputId).matchlines(lines, events);
+		List<String> types = new ArrayList<String>(lines.size());
+		for(int i = 0; i < lines.size(); i++) {
+			types.add(postProcess(events.get(i), keepMatchType));
+		}
+		return types;
+	}
+	
+	/**
+	 * parse batch of lines into events ready to be sent to runtime, events of object-array types are converted to arrays
+	 */
+	private List<ParsePipeline.ParsedEvent> prepareBatch(List<? extends CharSequence> lines, boolean keepMatchType, String inputId) {
+		Map<String, EventLayout> layouts = objectArrayLayouts;
+		List<Map<String, Object>> events;
+		if(layouts != null) {
+			// maps are only containers for parsing, so the same ones are used for every batch
+			events = batchEvents.get();
+			for(int i = 0; i < Math.min(lines.size(), events.size()); i++) {
+				events.get(i).clear();
+			}
+		} else {
+			events = new ArrayList<Map<String, Object>>(lines.size());
+		}
+		List<String> types = prepareLines(lines, events, keepMatchType, inputId);
 		
+		List<ParsePipeline.ParsedEvent> parsed = new ArrayList<ParsePipeline.ParsedEvent>(lines.size());
+		for(int i = 0; i < lines.size(); i++) {
+			String type = eventType(types.get(i));
+			Map<String, Object> event = events.get(i);
+			EventLayout layout = layouts != null ? layouts.get(type) : null;
+			if(layout != null) {
+				parsed.add(new ParsePipeline.ParsedEvent(type, layout.toArray(event)));
+			} else {
+				if(layouts != null) {
+					// map is sent as it is, so it can not be reused
+					events.set(i, new HashMap<String, Object>());
+				}
+				parsed.add(new ParsePipeline.ParsedEvent(type, event));
+			}
+		}
+		return parsed;
+	}
+	
+	private String postProcess(Map<String, Object> result, boolean keepMatchType) {
 		List matchedTypes;
 		if(keepMatchType) {
 			matchedTypes = (List)result.get("__match");
@@ -952,41 +1405,151 @@ public class MonitorRuntimeEsperImpl extends MonitorRuntime implements InputEven
 		}
 		
 		if(result.containsKey("logts")) {
-			SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'hh:mm:ssX");
 		    try {
-				Date parsedDate = dateFormat.parse((String)result.get("logts"));
-				result.put("logts_timestamp", parsedDate.getTime());
+				result.put("logts_timestamp", TimestampParser.ISO8601.parse((String)result.get("logts")));
 			} catch (ParseException e) {
 				// pass
 			}
 		}
-		if(addToEsperRuntime) {
-			intoRuntime((String)matchedTypes.get(matchedTypes.size()-1), result);
+		return (String)matchedTypes.get(matchedTypes.size()-1);
+	}
+	
+	private static String eventType(String type) {
+		if(type == null || type.trim().equals("")) {
+			return CometApplication.DEFAULT_EVENT_TYPE;
+		}
+		return type;
+	}
+	
+	private void intoRuntime(ParsePipeline.ParsedEvent parsed) {
+		if(parsed.array != null) {
+			intoRuntime(parsed.type, parsed.array);
+		} else {
+			intoRuntime(parsed.type, parsed.event);
 		}
 	}
 	
 	public void intoRuntime(String type, Map<String, Object> result) {
 		
-		if(type == null || type.trim().equals("")) {
-			type = CometApplication.DEFAULT_EVENT_TYPE;
-		}
-		if(configuration.externalClock) {
-			if(result.containsKey("logts_timestamp") && (long) result.get("logts_timestamp") > 0) {
-				long newTime = ((long) result.get("logts_timestamp"));
-				if(newTime > runtime.getEventService().getCurrentTime()) {
-					//runtime.getEventService().advanceTime(newTime);
-					runtime.getEventService().advanceTimeSpan(newTime, 1000);
-				}
-	
-			}/* this effed up most of the local tests .. this should be actually necessary i think
-			else if(runtime.getEventService().isExternalClockingEnabled() && runtime.getEventService().getCurrentTime() < System.currentTimeMillis()) {
-				runtime.getEventService().advanceTime(System.currentTimeMillis());
-			}*/
+		type = eventType(type);
+		Map<String, EventLayout> layouts = objectArrayLayouts;
+		if(layouts != null && layouts.containsKey(type)) {
+			intoRuntime(type, layouts.get(type).toArray(result));
+			return;
+		}
+		EventRouter router = eventRouter;
+		if(router != null) {
+			router.route(new ParsePipeline.ParsedEvent(type, result), result.get(router.getKey()));
+			broadcastTime(router, result.get("logts_timestamp"));
+			return;
+		}
+		ExternalClock[] current = clocks;
+		if(current != null) {
+			current[0].send(new ParsePipeline.ParsedEvent(type, result), result.get("logts_timestamp"));
+			return;
 		}
 		//this.counter.incrementAndGet();
 		runtime.getEventService().sendEventMap(result, type);
 	}
 	
+	/**
+	 * send event of object-array type, fields have to be in the order of type's layout
+	 */
+	public void intoRuntime(String type, Object[] event) {
+		EventRouter router = eventRouter;
+		if(router != null) {
+			int key = objectArrayLayouts.get(type).indexOf(router.getKey());
+			router.route(new ParsePipeline.ParsedEvent(type, event), key >= 0 ? event[key] : null);
+			int timestamp = objectArrayLayouts.get(type).indexOf("logts_timestamp");
+			broadcastTime(router, timestamp >= 0 ? event[timestamp] : null);
+			return;
+		}
+		ExternalClock[] current = clocks;
+		if(current != null) {
+			current[0].send(new ParsePipeline.ParsedEvent(type, event), event[objectArrayLayouts.get(type).indexOf("logts_timestamp")]);
+			return;
+		}
+		runtime.getEventService().sendEventObjectArray(event, type);
+	}
+	
+	/**
+	 * Shard clocks only see events of their own keys, so when monitor time moves on (by watermark step), it is broadcast to all shards as a time event.
+	 * Otherwise time windows, output rates, patterns and timers would stall in shards that get no events.
+	 */
+	private void broadcastTime(EventRouter router, Object logtsTimestamp) {
+		if(shards == null || clocks == null || !(logtsTimestamp instanceof Number) || ((Number)logtsTimestamp).longValue() <= 0) {
+			return;
+		}
+		long timestamp = ((Number)logtsTimestamp).longValue();
+		long previous = shardTime.getAndAccumulate(timestamp, Math::max);
+		long lateness = configuration.esperConfiguration.clockLateness;
+		long step = Math.max(1, configuration.esperConfiguration.clockGranularity);
+		if(timestamp <= previous || (previous != Long.MIN_VALUE && Math.floorDiv(timestamp - lateness, step) == Math.floorDiv(previous - lateness, step))) {
+			return;
+		}
+		// time event has no type, its only field is the timestamp
+		router.broadcast(new ParsePipeline.ParsedEvent(null, new Object[] { timestamp }));
+	}
+	
+	/**
+	 * send routed event to runtime, or to shard of the lane if monitor is sharded (called from lane threads)
+	 */
+	private void evaluate(int lane, ParsePipeline.ParsedEvent routed) {
+		int index = shards != null ? lane : 0;
+		ExternalClock[] current = clocks;
+		if(current != null && routed.type == null) {
+			current[index].advanceTo((Long)routed.array[0]);
+			return;
+		}
+		if(current != null) {
+			current[index].send(routed, routed.array != null ? routed.array[objectArrayLayouts.get(routed.type).indexOf("logts_timestamp")] : routed.event.get("logts_timestamp"));
+			return;
+		}
+		EPRuntime target = shards != null ? shards[index] : runtime;
+		if(routed.array != null) {
+			target.getEventService().sendEventObjectArray(routed.array, routed.type);
+		} else {
+			target.getEventService().sendEventMap(routed.event, routed.type);
+		}
+	}
+	
+	/**
+	 * @return number of events routed into each lane (or shard), null if events are not routed
+	 */
+	public long[] getRoutedEvents() {
+		EventRouter router = eventRouter;
+		return router == null ? null : router.routed();
+	}
+	
+	/**
+	 * @return external clock watermark (lowest one of shards), Long.MIN_VALUE if time is not driven by events or no timestamps have been seen
+	 */
+	public long getWatermark() {
+		ExternalClock[] current = clocks;
+		if(current == null) {
+			return Long.MIN_VALUE;
+		}
+		long watermark = Long.MAX_VALUE;
+		for(ExternalClock clock : current) {
+			watermark = Math.min(watermark, clock.getWatermark());
+		}
+		return watermark;
+	}
+	
+	/**
+	 * @return number of events that came in below external clock watermark (out of order more than lateness allows)
+	 */
+	public long getLateEvents() {
+		ExternalClock[] current = clocks;
+		long late = 0;
+		if(current != null) {
+			for(ExternalClock clock : current) {
+				late += clock.getLateEvents();
+			}
+		}
+		return late;
+	}
+	
 	/**
 	 * 
 	 * TODO
@@ -1016,29 +1579,31 @@ public class MonitorRuntimeEsperImpl extends MonitorRuntime implements InputEven
 		EPCompiled compiled = EPCompilerProvider.getCompiler().compileQuery(statement, args);
 		List<Map<String, Object>> objects = new ArrayList<Map<String, Object>>();
 		try {
-			// execute
-			runtime.getFireAndForgetService().executeQuery(compiled).iterator().forEachRemaining( (EventBean bean) -> {
-				if(outputStdout) {
-					System.out.println(JsonStream.serialize(bean.getUnderlying()));
-				}
-				Map<String, Object> mapObj = new HashMap<String, Object>();
-				for(String prop : bean.getEventType().getPropertyNames()) {
-					Object value = null;
-					Class type = bean.getEventType().getPropertyType(prop);
-					if(type.equals(long.class)) {
-						value = bean.get(prop);
+			// execute (in every shard, results are merged)
+			for(EPRuntime shard : shards()) {
+				shard.getFireAndForgetService().executeQuery(compiled).iterator().forEachRemaining( (EventBean bean) -> {
+					if(outputStdout) {
+						System.out.println(JsonStream.serialize(bean.getUnderlying()));
+					}
+					Map<String, Object> mapObj = new HashMap<String, Object>();
+					for(String prop : bean.getEventType().getPropertyNames()) {
+						Object value = null;
+						Class type = bean.getEventType().getPropertyType(prop);
+						if(type.equals(long.class)) {
+							value = bean.get(prop);
 
-					} else if (type.equals(int.class) && bean.get(prop) instanceof String){
-						if(((String)bean.get(prop)).length() > 0) {
-							value = Integer.parseInt((String)bean.get(prop));
+						} else if (type.equals(int.class) && bean.get(prop) instanceof String){
+							if(((String)bean.get(prop)).length() > 0) {
+								value = Integer.parseInt((String)bean.get(prop));
+							}
+						} else {
+							value = (bean.getEventType().getPropertyType(prop).cast(bean.get(prop)));
 						}
-					} else {
-						value = (bean.getEventType().getPropertyType(prop).cast(bean.get(prop)));
+						mapObj.put(prop, value);
 					}
-					mapObj.put(prop, value);
-				}
-				objects.add(mapObj);
-			});
+					objects.add(mapObj);
+				});
+			}
 		} catch (Exception e) {
 			log.error("Fire and forget failed : {}", e.getMessage());
 			/* if we are dealing with event stream (not data table/window), then register as regular statement ???
@@ -1053,7 +1618,11 @@ public class MonitorRuntimeEsperImpl extends MonitorRuntime implements InputEven
 
 	@Override
 	public long getNumEventsEvaluated() {
-		return runtime.getEventService().getNumEventsEvaluated();
+		long evaluated = 0;
+		for(EPRuntime shard : shards()) {
+			evaluated += shard.getEventService().getNumEventsEvaluated();
+		}
+		return evaluated;
 	}
 	
 }
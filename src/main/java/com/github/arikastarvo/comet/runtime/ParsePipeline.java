@@ -0,0 +1,254 @@
+package com.github.arikastarvo.comet.runtime;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Parallel parse stage in front of the esper runtime.
+ *
+ * Lines are parsed by a pool of worker threads. Futures of parse results are queued in submission order (the queue position is the sequence number of a line),
+ * so a single ingest thread can hand results over to runtime in the same order as lines came in, no matter which worker finishes first.
+ * This keeps external clock monotonic and event order the same as without the pipeline.
+ *
+ * Queue is bounded, inputs block when parsing or esper can not keep up.
+ *
+ * @author tarvo
+ *
+ */
+public class ParsePipeline {
+
+	/**
+	 * parse result of one line, either as map or as object array
+	 */
+	public static class ParsedEvent {
+		public final String type;
+		public final Map<String, Object> event;
+		public final Object[] array;
+
+		public ParsedEvent(String type, Map<String, Object> event) {
+			this.type = type;
+			this.event = event;
+			this.array = null;
+		}
+
+		public ParsedEvent(String type, Object[] array) {
+			this.type = type;
+			this.event = null;
+			this.array = array;
+		}
+	}
+
+	/**
+	 * queued parse task with id of input lines came from
+	 */
+	private static class Submitted {
+		final Future<List<ParsedEvent>> future;
+		final String source;
+
+		Submitted(Future<List<ParsedEvent>> future, String source) {
+			this.future = future;
+			this.source = source;
+		}
+	}
+
+	private static final Submitted STOP = new Submitted(CompletableFuture.completedFuture(null), null);
+
+	Logger log = LogManager.getLogger(ParsePipeline.class);
+
+	private final ExecutorService workers;
+
+	private final BlockingQueue<Submitted> ordered;
+
+	private final BiConsumer<String, ParsedEvent> ingest;
+
+	private final Thread ingestThread;
+
+	private volatile boolean stopped = false;
+
+	/**
+	 * held while a submit checks stopped flag and queues its task, so that nothing gets queued after STOP
+	 */
+	private final Object submitLock = new Object();
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	/**
+	 * @param name name prefix for threads
+	 * @param threads number of parser threads
+	 * @param queueSize max number of lines (or batches) being parsed or waiting for ingest
+	 * @param ingest receives parse results in input order (called from single thread)
+	 */
+	public ParsePipeline(String name, int threads, int queueSize, Consumer<ParsedEvent> ingest) {
+		this(name, threads, queueSize, (source, parsed) -> ingest.accept(parsed));
+	}
+
+	/**
+	 * @param name name prefix for threads
+	 * @param threads number of parser threads
+	 * @param queueSize max number of lines (or batches) being parsed or waiting for ingest
+	 * @param ingest receives input id and parse results in input order (called from single thread)
+	 */
+	public ParsePipeline(String name, int threads, int queueSize, BiConsumer<String, ParsedEvent> ingest) {
+		this.ingest = ingest;
+		this.ordered = new ArrayBlockingQueue<Submitted>(Math.max(1, queueSize));
+
+		AtomicInteger counter = new AtomicInteger();
+		ThreadFactory factory = runnable -> {
+			Thread thread = new Thread(runnable, name + "-parser-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+		this.workers = Executors.newFixedThreadPool(Math.max(1, threads), factory);
+
+		this.ingestThread = new Thread(this::ingestLoop, name + "-ingest");
+		this.ingestThread.setDaemon(true);
+		this.ingestThread.start();
+	}
+
+	/**
+	 * Queue line for parsing, blocks if queue is full
+	 *
+	 * @param parse parsing of the line, executed in worker thread. may return null if result should not be ingested
+	 */
+	public void submit(Callable<ParsedEvent> parse) {
+		submit(null, parse);
+	}
+
+	/**
+	 * Queue line of given input for parsing, blocks if queue is full
+	 *
+	 * @param source id of input line came from, may be null
+	 * @param parse parsing of the line, executed in worker thread. may return null if result should not be ingested
+	 */
+	public void submit(String source, Callable<ParsedEvent> parse) {
+		submitBatch(source, () -> {
+			ParsedEvent parsed = parse.call();
+			return parsed == null ? Collections.<ParsedEvent>emptyList() : Collections.singletonList(parsed);
+		});
+	}
+	
+	/**
+	 * Queue batch of lines for parsing (as one task), blocks if queue is full
+	 *
+	 * @param parse parsing of the lines, executed in worker thread. events are ingested in list order
+	 */
+	public void submitBatch(Callable<List<ParsedEvent>> parse) {
+		submitBatch(null, parse);
+	}
+
+	/**
+	 * Queue batch of lines of given input for parsing (as one task), blocks if queue is full
+	 *
+	 * @param source id of input lines came from, may be null
+	 * @param parse parsing of the lines, executed in worker thread. events are ingested in list order
+	 */
+	public void submitBatch(String source, Callable<List<ParsedEvent>> parse) {
+		synchronized(submitLock) {
+			if(stopped) {
+				log.warn("parse pipeline is stopped, dropping lines");
+				dropped.incrementAndGet();
+				return;
+			}
+			try {
+				ordered.put(new Submitted(workers.submit(parse), source));
+			} catch (InterruptedException e) {
+				dropped.incrementAndGet();
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void ingestLoop() {
+		while(true) {
+			Submitted next;
+			try {
+				next = ordered.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if(next == STOP) {
+				return;
+			}
+			List<ParsedEvent> batch;
+			try {
+				batch = next.future.get();
+			} catch (ExecutionException e) {
+				log.warn("parsing line failed: {}", e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+				log.debug("parsing line failed: {}", e.getMessage(), e);
+				continue;
+			} catch (InterruptedException e) {
+				return;
+			}
+			for(ParsedEvent parsed : batch) {
+				try {
+					ingest.accept(next.source, parsed);
+				} catch (RuntimeException e) {
+					log.warn("sending event to runtime failed: {}", e.getMessage());
+					log.debug("sending event to runtime failed: {}", e.getMessage(), e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stop accepting new lines, wait until already queued lines have been ingested and stop threads
+	 */
+	public void stop() {
+		if(stopped) {
+			return;
+		}
+		stopped = true;
+		try {
+			if(Thread.currentThread() != ingestThread) {
+				// wait for submit that is already putting its task (ingest thread makes room for it), later ones see stopped flag
+				synchronized(submitLock) {
+					ordered.put(STOP);
+				}
+				ingestThread.join();
+			} else {
+				// stop was triggered by esper listener (runs in ingest thread), runtime goes away, so the rest is dropped
+				dropped.addAndGet(ordered.size());
+				ordered.clear();
+				synchronized(submitLock) {
+					dropped.addAndGet(ordered.size());
+					ordered.clear();
+					ordered.offer(STOP);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		workers.shutdown();
+	}
+
+	/**
+	 * @return number of lines (or batches) that were not ingested because pipeline was stopped
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * @return number of lines (or batches) parsed or waiting for ingest
+	 */
+	public int size() {
+		return ordered.size();
+	}
+}
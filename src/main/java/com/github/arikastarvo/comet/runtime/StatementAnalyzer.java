@@ -0,0 +1,266 @@
+package com.github.arikastarvo.comet.runtime;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Lexical analysis of deployed EPL modules - which identifiers (event properties, types, streams) they reference and whether some statement needs whole events.
+ *
+ * Analysis is conservative: every identifier anywhere in EPL counts as referenced, so the result may contain more than is actually used but never less.
+ * Whole events are needed if EPL has a wildcard (<code>select *</code>, <code>s.*</code>, any other <code>*</code> except <code>count(*)</code>), creates a named window from an existing type or selects a bare stream alias (<code>select a, b from pattern[...]</code>).
+ *
+ * @author tarvo
+ *
+ */
+public class StatementAnalyzer {
+
+	private static final Pattern COMMENTS_AND_LITERALS = Pattern.compile("//[^\\n]*|/\\*.*?\\*/|'(?:[^'\\\\]|\\\\.)*'|\"(?:[^\"\\\\]|\\\\.)*\"", Pattern.DOTALL);
+
+	private static final Pattern IDENTIFIER = Pattern.compile("`([^`]+)`|[A-Za-z_$][A-Za-z0-9_$]*");
+
+	private static final Pattern BARE_IDENTIFIER = Pattern.compile("`[^`]+`|[A-Za-z_$][A-Za-z0-9_$]*");
+
+	private static final Pattern STAR_IN_PARENTHESES = Pattern.compile("\\(\\s*\\*\\s*\\)");
+
+	/**
+	 * named window created from an existing type (<code>create window w#keepall as logevents</code>), windows with own columns do not count
+	 */
+	private static final Pattern CREATE_WINDOW = Pattern.compile("\\bcreate\\s+window\\b[^;]*?\\bas\\s+[A-Za-z_$`]", Pattern.CASE_INSENSITIVE);
+
+	private static final Pattern SELECT = Pattern.compile("\\bselect\\b", Pattern.CASE_INSENSITIVE);
+
+	private static final Pattern SELECT_MODIFIER = Pattern.compile("^(distinct|irstream|istream|rstream)\\s+", Pattern.CASE_INSENSITIVE);
+
+	private static final Pattern ALIAS = Pattern.compile("\\s+as\\s+(`[^`]+`|[A-Za-z_$][A-Za-z0-9_$]*)$", Pattern.CASE_INSENSITIVE);
+
+	private static final Pattern SHARED_STATE = Pattern.compile("\\bcreate\\s+(window|table|variable)\\b", Pattern.CASE_INSENSITIVE);
+	
+	private static final Pattern AGGREGATE = Pattern.compile("\\b(count|sum|avg|median|stddev|avedev|countever|firstever|lastever|maxby|minby|maxbyever|minbyever|sorted|rate|nth|leaving|window|first|last|max|min|fmax|fmin)\\s*\\(", Pattern.CASE_INSENSITIVE);
+	
+	private static final Pattern GROUP_BY = Pattern.compile("\\bgroup\\s+by\\b(.*?)(\\bhaving\\b|\\boutput\\b|\\border\\s+by\\b|\\blimit\\b|;|$)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+	
+	/**
+	 * constructs that correlate several events: patterns, match-recognize and subqueries (opening bracket is group 2 or 3)
+	 */
+	private static final Pattern CORRELATION = Pattern.compile("\\b(pattern|match_recognize)\\s*([\\[(])|(\\()\\s*select\\b", Pattern.CASE_INSENSITIVE);
+	
+	private static final Pattern FROM = Pattern.compile("\\bfrom\\b", Pattern.CASE_INSENSITIVE);
+	
+	private static final Pattern JOIN = Pattern.compile("\\bjoin\\b", Pattern.CASE_INSENSITIVE);
+	
+	private static final Pattern CONTEXT = Pattern.compile("^\\s*(?:@\\w+(?:\\([^)]*\\))?\\s*)*context\\s+([A-Za-z_$][A-Za-z0-9_$]*)", Pattern.CASE_INSENSITIVE);
+	
+	private final Set<String> identifiers = new HashSet<String>();
+
+	private String wholeEventReason = null;
+
+	/**
+	 * @param modules EPL of deployed modules
+	 * @param fields names of known event fields (bare identifiers in select clause that are not fields are handled as stream aliases)
+	 */
+	public StatementAnalyzer(Collection<String> modules, Set<String> fields) {
+		for(String module : modules) {
+			if(module != null) {
+				analyze(module, fields);
+			}
+		}
+	}
+
+	private void analyze(String epl, Set<String> fields) {
+		String code = COMMENTS_AND_LITERALS.matcher(epl).replaceAll(" ");
+
+		Matcher identifier = IDENTIFIER.matcher(code);
+		while(identifier.find()) {
+			identifiers.add(identifier.group(1) != null ? identifier.group(1) : identifier.group());
+		}
+
+		if(wholeEventReason != null) {
+			return;
+		}
+		if(STAR_IN_PARENTHESES.matcher(code).replaceAll("()").indexOf('*') >= 0) {
+			wholeEventReason = "wildcard";
+		} else if(CREATE_WINDOW.matcher(code).find()) {
+			wholeEventReason = "named window";
+		} else {
+			for(String item : selectItems(code)) {
+				if(BARE_IDENTIFIER.matcher(item).matches() && !fields.contains(item.replace("`", ""))) {
+					wholeEventReason = "stream '" + item + "' in select clause";
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return select clause items (without modifiers and aliases) of all select clauses, including subqueries
+	 */
+	private static List<String> selectItems(String code) {
+		List<String> items = new ArrayList<String>();
+		Matcher select = SELECT.matcher(code);
+		while(select.find()) {
+			int depth = 0;
+			int start = select.end();
+			for(int i = select.end(); i <= code.length(); i++) {
+				char c = i < code.length() ? code.charAt(i) : ',';
+				if(c == '(' || c == '[') {
+					depth++;
+				} else if(c == ')' || c == ']') {
+					depth--;
+				}
+				boolean end = depth < 0 || i == code.length() || (depth == 0 && startsWithWord(code, i, "from"));
+				if((depth == 0 && c == ',') || end) {
+					String item = code.substring(start, Math.min(i, code.length())).trim();
+					item = SELECT_MODIFIER.matcher(item).replaceFirst("");
+					item = ALIAS.matcher(item).replaceFirst("");
+					if(!item.isEmpty()) {
+						items.add(item.trim());
+					}
+					start = i + 1;
+				}
+				if(end) {
+					break;
+				}
+			}
+		}
+		return items;
+	}
+
+	private static boolean startsWithWord(String code, int i, String word) {
+		if(!code.regionMatches(true, i, word, 0, word.length())) {
+			return false;
+		}
+		boolean before = i == 0 || !Character.isJavaIdentifierPart(code.charAt(i - 1));
+		boolean after = i + word.length() >= code.length() || !Character.isJavaIdentifierPart(code.charAt(i + word.length()));
+		return before && after;
+	}
+
+	/**
+	 * Check if statement gives the same results when events are split between shards by key (lexically, like the rest of the analysis).
+	 * 
+	 * Statement is not partition-safe if it keeps state shared by all keys: named windows, tables and variables, or aggregates that are not grouped by key (or in a context keyed by it).
+	 * Statements that correlate events (joins, patterns, match-recognize and subqueries) are partition-safe only in a context keyed by key, or if key is referenced in the correlating part
+	 * (join conditions, pattern, subquery), as events of different keys never meet when sharded.
+	 * 
+	 * @param epl EPL of one statement
+	 * @param key field events are sharded by
+	 * @param keyedContexts names of contexts partitioned by key
+	 * @return why statement is not partition-safe, null if it is
+	 */
+	public static String partitionUnsafeReason(String epl, String key, Set<String> keyedContexts) {
+		String code = COMMENTS_AND_LITERALS.matcher(epl).replaceAll(" ");
+		Matcher shared = SHARED_STATE.matcher(code);
+		if(shared.find()) {
+			return "shared " + shared.group(1).toLowerCase();
+		}
+		Matcher context = CONTEXT.matcher(code);
+		if(context.find() && keyedContexts.contains(context.group(1))) {
+			return null;
+		}
+		Matcher correlation = CORRELATION.matcher(code);
+		while(correlation.find()) {
+			int open = correlation.group(2) != null ? correlation.start(2) : correlation.start(3);
+			if(!references(enclosed(code, open), key)) {
+				return (correlation.group(1) != null ? correlation.group(1).toLowerCase() : "subquery") + " not correlated by '" + key + "'";
+			}
+		}
+		Matcher from = FROM.matcher(code);
+		while(from.find()) {
+			String rest = code.substring(from.end());
+			if(isJoin(rest) && !references(rest, key)) {
+				return "join not correlated by '" + key + "'";
+			}
+		}
+		if(!AGGREGATE.matcher(code).find()) {
+			return null;
+		}
+		Matcher groupBy = GROUP_BY.matcher(code);
+		while(groupBy.find()) {
+			if(references(groupBy.group(1), key)) {
+				return null;
+			}
+		}
+		return "aggregate not grouped by '" + key + "'";
+	}
+	
+	/**
+	 * @return true if from clause (code after <code>from</code>) has join keyword or several comma separated streams
+	 */
+	private static boolean isJoin(String from) {
+		if(JOIN.matcher(from).find()) {
+			return true;
+		}
+		int depth = 0;
+		for(int i = 0; i < from.length(); i++) {
+			char c = from.charAt(i);
+			if(c == '(' || c == '[') {
+				depth++;
+			} else if(c == ')' || c == ']') {
+				if(--depth < 0) {
+					// end of subquery the from clause belongs to
+					return false;
+				}
+			} else if(c == ',' && depth == 0) {
+				return true;
+			} else if(c == ';' || (depth == 0 && (startsWithWord(from, i, "where") || startsWithWord(from, i, "group") || startsWithWord(from, i, "having") || startsWithWord(from, i, "output") || startsWithWord(from, i, "order") || startsWithWord(from, i, "limit")))) {
+				return false;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * @return code between bracket at given index and its closing bracket (rest of code if it is not closed)
+	 */
+	private static String enclosed(String code, int open) {
+		int depth = 0;
+		for(int i = open; i < code.length(); i++) {
+			char c = code.charAt(i);
+			if(c == '(' || c == '[') {
+				depth++;
+			} else if((c == ')' || c == ']') && --depth == 0) {
+				return code.substring(open + 1, i);
+			}
+		}
+		return code.substring(open + 1);
+	}
+	
+	/**
+	 * @return true if code references identifier key
+	 */
+	private static boolean references(String code, String key) {
+		Matcher identifier = IDENTIFIER.matcher(code);
+		while(identifier.find()) {
+			if(key.equals(identifier.group(1) != null ? identifier.group(1) : identifier.group())) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * @return all identifiers referenced in EPL
+	 */
+	public Set<String> getIdentifiers() {
+		return Collections.unmodifiableSet(identifiers);
+	}
+
+	/**
+	 * @return true if some statement needs whole events (so all fields have to be kept)
+	 */
+	public boolean needsWholeEvents() {
+		return wholeEventReason != null;
+	}
+
+	/**
+	 * @return why whole events are needed, null if they are not
+	 */
+	public String getWholeEventReason() {
+		return wholeEventReason;
+	}
+}
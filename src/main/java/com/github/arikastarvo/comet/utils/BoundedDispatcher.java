@@ -0,0 +1,219 @@
+package com.github.arikastarvo.comet.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Bounded queue with overflow policy and a single consumer thread.
+ *
+ * Producers put items into a lock-free ring buffer and go on, consumer thread takes them in batches (in queue order) and hands them over to consumer.
+ * When queue is full, overflow policy decides whether producer waits or items are dropped. Consumer thread parks while queue is empty and is woken up by producers.
+ *
+ * Consumer thread is started with {@link #start()} (or {@link #start(String)}), items put before that wait in queue.
+ *
+ * @author tarvo
+ *
+ */
+public class BoundedDispatcher<T> {
+
+	private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+	private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final String name;
+
+	private final RingBuffer<T> queue;
+
+	private final OverflowPolicy policy;
+
+	private final int sampleRate;
+
+	private final int batchSize;
+
+	private final Consumer<List<T>> consumer;
+
+	private final Consumer<T> evicted;
+
+	private final AtomicLong overflowed = new AtomicLong();
+
+	private volatile Thread thread = null;
+
+	private volatile boolean waiting = false;
+
+	private volatile boolean stopped = false;
+
+	/**
+	 * set when queue is stopped from consumer thread, rest of the queue is dropped then
+	 */
+	private volatile boolean abandoned = false;
+
+	/**
+	 * @param name name of consumer thread (unless another one is given to {@link #start(String)})
+	 * @param capacity max number of items in queue (rounded up to power of two)
+	 * @param policy what to do when queue is full
+	 * @param sampleRate with sample policy, every n-th item is kept when queue is full
+	 * @param batchSize max number of items handed over to consumer at once
+	 * @param consumer takes batch of items (called from consumer thread, list is reused after it returns)
+	 * @param evicted gets items dropped by drop-oldest policy (called from producer threads)
+	 */
+	public BoundedDispatcher(String name, int capacity, OverflowPolicy policy, int sampleRate, int batchSize, Consumer<List<T>> consumer, Consumer<T> evicted) {
+		this.name = name;
+		this.queue = new RingBuffer<T>(capacity);
+		this.policy = policy;
+		this.sampleRate = Math.max(1, sampleRate);
+		this.batchSize = Math.max(1, batchSize);
+		this.consumer = consumer;
+		this.evicted = evicted;
+	}
+
+	/**
+	 * start consumer thread (only once, not after stop)
+	 */
+	public void start() {
+		start(name);
+	}
+
+	/**
+	 * start consumer thread with given name (only once, not after stop)
+	 */
+	public synchronized void start(String threadName) {
+		if(thread != null || stopped) {
+			return;
+		}
+		Thread started = new Thread(this::consumeLoop, threadName);
+		started.setDaemon(true);
+		thread = started;
+		started.start();
+	}
+
+	/**
+	 * Queue item, depending on overflow policy waits for room or drops items if queue is full
+	 *
+	 * @return false if item was dropped
+	 */
+	public boolean put(T item) {
+		return put(item, overflowed);
+	}
+
+	/**
+	 * Queue item, depending on overflow policy waits for room or drops items if queue is full
+	 *
+	 * @param overflowed counter of producer's items that came in while queue was full (sample policy keeps every n-th of them)
+	 * @return false if item was dropped
+	 */
+	public boolean put(T item, AtomicLong overflowed) {
+		if(stopped) {
+			return false;
+		}
+		if(!queue.offer(item) && !overflow(item, overflowed)) {
+			return false;
+		}
+		if(waiting) {
+			LockSupport.unpark(thread);
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if item got into queue after all
+	 */
+	private boolean overflow(T item, AtomicLong overflowed) {
+		switch(policy) {
+			case DROP_NEWEST:
+				return false;
+			case DROP_OLDEST:
+				while(!queue.offer(item)) {
+					T oldest = queue.poll();
+					if(oldest != null) {
+						evicted.accept(oldest);
+					}
+				}
+				return true;
+			case SAMPLE:
+				if(overflowed.incrementAndGet() % sampleRate != 0) {
+					return false;
+				}
+				return waitFor(item);
+			case BLOCK:
+			default:
+				return waitFor(item);
+		}
+	}
+
+	private boolean waitFor(T item) {
+		while(!queue.offer(item)) {
+			if(stopped) {
+				return false;
+			}
+			LockSupport.unpark(thread);
+			LockSupport.parkNanos(this, PARK_NANOS);
+		}
+		return true;
+	}
+
+	private void consumeLoop() {
+		List<T> batch = new ArrayList<T>(batchSize);
+		while(!abandoned) {
+			for(T next = queue.poll(); next != null; next = batch.size() < batchSize ? queue.poll() : null) {
+				batch.add(next);
+			}
+			if(batch.isEmpty()) {
+				if(stopped) {
+					return;
+				}
+				waiting = true;
+				// check again, put may have missed waiting flag
+				if(queue.size() == 0 && !stopped) {
+					LockSupport.parkNanos(this, IDLE_NANOS);
+				}
+				waiting = false;
+				continue;
+			}
+			consumer.accept(batch);
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Stop accepting new items, wait until already queued items have been consumed and stop thread
+	 */
+	public void stop() {
+		Thread current;
+		synchronized(this) {
+			if(stopped) {
+				return;
+			}
+			stopped = true;
+			current = thread;
+		}
+		if(current == null) {
+			return;
+		}
+		if(Thread.currentThread() != current) {
+			LockSupport.unpark(current);
+			try {
+				current.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		} else {
+			// stop was triggered by consumer itself, so the rest is dropped
+			abandoned = true;
+		}
+	}
+
+	public boolean isStopped() {
+		return stopped;
+	}
+
+	/**
+	 * @return number of items waiting in queue
+	 */
+	public int size() {
+		return queue.size();
+	}
+}
@@ -0,0 +1,258 @@
+package com.github.arikastarvo.comet.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Line reader that works on bytes instead of decoding everything into strings.
+ *
+ * Pure ASCII lines are returned as {@link AsciiLine} views over the read buffer, so regex matching runs straight on the bytes and only captured fields become strings.
+ * Lines with non-ASCII bytes are decoded as UTF-8 strings.
+ *
+ * When a buffer is used up, the unfinished line is moved to its start, as long as no ASCII view refers to the buffer. Once views have been handed out, the unfinished line is moved to another buffer instead,
+ * so lines stay valid as long as they are referenced and can be parsed later in other threads. Every view holds the owner token of its buffer, and a buffer whose token has been garbage collected
+ * (no view refers to it anymore) is reused, so new buffers are only allocated while earlier lines are still alive. Buffer grows only when a single line does not fit into it.
+ * Lines end with \n (a \r before it is dropped).
+ *
+ * @author tarvo
+ *
+ */
+public class ByteLineReader implements Closeable {
+
+	private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * max number of buffers kept for reuse
+	 */
+	private static final int MAX_RETIRED = 4;
+
+	/**
+	 * ASCII line as a view over bytes. Sub-sequences (regex captures) and toString are materialized as strings.
+	 */
+	public static final class AsciiLine implements CharSequence {
+
+		private final byte[] bytes;
+
+		private final int offset;
+
+		private final int length;
+
+		/**
+		 * owner token of the buffer, keeps buffer from being reused while this view is alive
+		 */
+		@SuppressWarnings("unused")
+		private final Object owner;
+
+		private String string = null;
+
+		AsciiLine(byte[] bytes, int offset, int length, Object owner) {
+			this.bytes = bytes;
+			this.offset = offset;
+			this.length = length;
+			this.owner = owner;
+		}
+
+		@Override
+		public char charAt(int index) {
+			return (char)bytes[offset + index];
+		}
+
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return new String(bytes, offset + start, end - start, StandardCharsets.ISO_8859_1);
+		}
+
+		@Override
+		public String toString() {
+			if(string == null) {
+				string = new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+			}
+			return string;
+		}
+	}
+
+	/**
+	 * buffer that views may still refer to, reusable once its owner token has been collected
+	 */
+	private static final class Retired {
+
+		private final byte[] buffer;
+
+		private final WeakReference<Object> owner;
+
+		Retired(byte[] buffer, Object owner) {
+			this.buffer = buffer;
+			this.owner = new WeakReference<Object>(owner);
+		}
+	}
+
+	private final InputStream in;
+
+	private byte[] buffer;
+
+	private int pos = 0;
+
+	private int limit = 0;
+
+	/**
+	 * bytes of current line that have already been scanned for newline
+	 */
+	private int scanned = 0;
+
+	private boolean ascii = true;
+
+	private boolean eof = false;
+
+	/**
+	 * owner token of current buffer, handed to ASCII lines that refer to it (null while no line refers to it)
+	 */
+	private Object owner = null;
+
+	private final ArrayDeque<Retired> retired = new ArrayDeque<Retired>();
+
+	private int allocations = 1;
+
+	public ByteLineReader(InputStream in) {
+		this(in, DEFAULT_BUFFER_SIZE);
+	}
+
+	public ByteLineReader(InputStream in, int bufferSize) {
+		this.in = in;
+		this.buffer = new byte[Math.max(16, bufferSize)];
+	}
+
+	/**
+	 * @return next line, null at the end of stream
+	 */
+	public CharSequence readLine() throws IOException {
+		while(true) {
+			for(int i = pos + scanned; i < limit; i++) {
+				byte b = buffer[i];
+				if(b == '\n') {
+					CharSequence line = line(pos, i);
+					pos = i + 1;
+					return line;
+				}
+				if(b < 0) {
+					ascii = false;
+				}
+			}
+			scanned = limit - pos;
+			if(eof) {
+				if(pos < limit) {
+					CharSequence line = line(pos, limit);
+					pos = limit;
+					return line;
+				}
+				return null;
+			}
+			fill();
+		}
+	}
+
+	private CharSequence line(int start, int end) {
+		if(end > start && buffer[end - 1] == '\r') {
+			end--;
+		}
+		CharSequence line;
+		if(ascii) {
+			if(owner == null) {
+				owner = new Object();
+			}
+			line = new AsciiLine(buffer, start, end - start, owner);
+		} else {
+			line = new String(buffer, start, end - start, StandardCharsets.UTF_8);
+		}
+		ascii = true;
+		scanned = 0;
+		return line;
+	}
+
+	/**
+	 * read more bytes, making room for them if buffer is used up (lines handed out earlier keep the old buffer)
+	 */
+	private void fill() throws IOException {
+		if(limit == buffer.length) {
+			int remaining = limit - pos;
+			if(pos == 0 || owner != null) {
+				// line does not fit or views still point to buffer
+				byte[] next = pos == 0 ? allocate(buffer.length * 2) : reusable();
+				System.arraycopy(buffer, pos, next, 0, remaining);
+				if(next.length != buffer.length) {
+					// buffers of old size are not reused anymore
+					retired.clear();
+				} else if(owner != null) {
+					retire(buffer, owner);
+				}
+				buffer = next;
+				owner = null;
+			} else {
+				System.arraycopy(buffer, pos, buffer, 0, remaining);
+			}
+			pos = 0;
+			limit = remaining;
+		}
+		int read = in.read(buffer, limit, buffer.length - limit);
+		if(read < 0) {
+			eof = true;
+		} else {
+			limit += read;
+		}
+	}
+
+	/**
+	 * @return retired buffer that no view refers to anymore, new buffer if there is none
+	 */
+	private byte[] reusable() {
+		for(Iterator<Retired> it = retired.iterator(); it.hasNext(); ) {
+			Retired candidate = it.next();
+			if(candidate.owner.get() == null) {
+				it.remove();
+				return candidate.buffer;
+			}
+		}
+		return allocate(buffer.length);
+	}
+
+	private void retire(byte[] buffer, Object owner) {
+		if(retired.size() == MAX_RETIRED) {
+			// oldest is dropped, it is garbage collected with its last view
+			retired.poll();
+		}
+		retired.add(new Retired(buffer, owner));
+	}
+
+	private byte[] allocate(int size) {
+		allocations++;
+		return new byte[size];
+	}
+
+	/**
+	 * @return number of read buffers allocated so far
+	 */
+	public int getAllocations() {
+		return allocations;
+	}
+
+	/**
+	 * @return true if next line may be available without blocking
+	 */
+	public boolean ready() throws IOException {
+		return pos < limit || in.available() > 0;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
@@ -0,0 +1,38 @@
+package com.github.arikastarvo.comet.utils;
+
+/**
+ * What to do with new items when a bounded queue is full
+ *
+ * @author tarvo
+ *
+ */
+public enum OverflowPolicy {
+
+	/**
+	 * producer waits until there is room
+	 */
+	BLOCK,
+
+	/**
+	 * oldest queued items are dropped to make room
+	 */
+	DROP_OLDEST,
+
+	/**
+	 * new item is dropped
+	 */
+	DROP_NEWEST,
+
+	/**
+	 * only every n-th item that comes in while queue is full is kept (producer waits for room for it), the rest are dropped
+	 */
+	SAMPLE;
+
+	/**
+	 * @param name policy name as in configuration (block, drop-oldest, drop-newest, sample)
+	 * @throws IllegalArgumentException if there is no such policy
+	 */
+	public static OverflowPolicy of(String name) {
+		return valueOf(name.trim().toUpperCase().replace('-', '_'));
+	}
+}
@@ -0,0 +1,107 @@
+package com.github.arikastarvo.comet.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free bounded queue on a ring buffer (Vyukov's bounded MPMC queue).
+ *
+ * Every slot has a sequence number that tells whether it is free for the producer of that position or filled for the consumer of that position,
+ * so producers and consumers only race on claiming positions (CAS), never on locks. Offer and poll never block, offer fails if queue is full.
+ *
+ * Meant to be used by many producers and one consumer, but polling from several threads is safe too (producers can drop oldest entries when queue is full).
+ * Capacity is rounded up to the next power of two.
+ *
+ * @author tarvo
+ *
+ */
+public class RingBuffer<E> {
+
+	private final AtomicReferenceArray<E> items;
+
+	private final AtomicLongArray sequences;
+
+	private final int mask;
+
+	/**
+	 * next position to be filled
+	 */
+	private final AtomicLong head = new AtomicLong();
+
+	/**
+	 * next position to be taken
+	 */
+	private final AtomicLong tail = new AtomicLong();
+
+	public RingBuffer(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		this.items = new AtomicReferenceArray<E>(size);
+		this.sequences = new AtomicLongArray(size);
+		this.mask = size - 1;
+		for(int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	/**
+	 * @return false if queue is full
+	 */
+	public boolean offer(E item) {
+		long pos = head.get();
+		while(true) {
+			int index = (int)pos & mask;
+			long diff = sequences.get(index) - pos;
+			if(diff == 0) {
+				if(head.compareAndSet(pos, pos + 1)) {
+					items.set(index, item);
+					sequences.set(index, pos + 1);
+					return true;
+				}
+				pos = head.get();
+			} else if(diff < 0) {
+				// slot still holds an item of the previous round
+				return false;
+			} else {
+				pos = head.get();
+			}
+		}
+	}
+
+	/**
+	 * @return oldest item, null if queue is empty
+	 */
+	public E poll() {
+		long pos = tail.get();
+		while(true) {
+			int index = (int)pos & mask;
+			long diff = sequences.get(index) - (pos + 1);
+			if(diff == 0) {
+				if(tail.compareAndSet(pos, pos + 1)) {
+					E item = items.get(index);
+					items.set(index, null);
+					sequences.set(index, pos + mask + 1);
+					return item;
+				}
+				pos = tail.get();
+			} else if(diff < 0) {
+				// slot is not filled yet
+				return null;
+			} else {
+				pos = tail.get();
+			}
+		}
+	}
+
+	/**
+	 * @return number of items in queue (approximate while producers or consumers are active)
+	 */
+	public int size() {
+		long size = head.get() - tail.get();
+		return (int)Math.max(0, Math.min(size, capacity()));
+	}
+
+	public int capacity() {
+		return mask + 1;
+	}
+}
@@ -1,13 +1,20 @@
 package com.github.arikastarvo.comet;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 import com.github.arikastarvo.comet.input.file.FileInput;
 import com.github.arikastarvo.comet.input.file.FileInputConfiguration;
+import com.github.arikastarvo.comet.output.AsyncOutputConfiguration;
 import com.github.arikastarvo.comet.parser.Parser;
+import com.github.arikastarvo.comet.parser.TimestampParser;
 import com.github.arikastarvo.comet.runtime.MonitorRuntimeEsperImpl;
 
 public class CometApplicationTest {
@@ -50,4 +57,255 @@ public class CometApplicationTest {
     	
     	runtime.Stop();
     }
+    
+    @Test
+    public void testObjectArrayEvents() throws Exception {
+    	
+    	MonitorRuntimeConfiguration runtimeConf = new MonitorRuntimeConfiguration(null);
+    	runtimeConf.parserConfiguration.objectArrayEvents = true;
+    	FileInputConfiguration ic = new FileInputConfiguration(runtimeConf);
+    	ic.files = Arrays.asList("src/test/resources/ten-logevent.log");
+    	runtimeConf.addInput(new FileInput(ic));
+    	MonitorRuntime runtime = new MonitorRuntimeEsperImpl(runtimeConf);
+    	
+    	runtime.addParser(MonitorRuntime.DEFAULT_PARSER_ID, new Parser.Builder().build());
+    	
+    	InMemoryStdOutput imo = new InMemoryStdOutput(true);
+    	CountingUpdateListener cul = new CountingUpdateListener(imo);
+    	
+    	runtime.configuration.removeListeners();
+    	runtime.configuration.addListener(cul);
+    	
+    	// logevents is a subtype of events, so this covers supertype layout as well
+    	runtime.addStatement("select * from events where eventType = 'logevents'");
+    	
+    	runtime.waitInput = true;
+    	runtime.run();
+    	
+    	assertEquals(10, cul.totalNewEvents, "total eventcount wrong");
+    	assertEquals(10, imo.memData.size(), "memdata count wrong");
+    	
+    	Map<String, Object> event = (Map<String, Object>)imo.memData.get(0);
+    	assertEquals("localhost", event.get("host"), "host field wrong");
+    	assertEquals("1234", event.get("pid"), "pid field wrong");
+    	assertEquals("logevents", event.get("eventType"), "event type wrong");
+    	assertEquals(1586862681000L, event.get("logts_timestamp"), "logts timestamp wrong");
+    	
+    	runtime.Stop();
+    }
+    
+    @Test
+    public void testKeyedContextLanes() throws Exception {
+    	
+    	MonitorRuntimeConfiguration runtimeConf = new MonitorRuntimeConfiguration(null);
+    	runtimeConf.esperConfiguration.contexts.put("byhost", "host");
+    	runtimeConf.esperConfiguration.lanes = 4;
+    	FileInputConfiguration ic = new FileInputConfiguration(runtimeConf);
+    	ic.files = Arrays.asList("src/test/resources/ten-logevent.log");
+    	runtimeConf.addInput(new FileInput(ic));
+    	MonitorRuntime runtime = new MonitorRuntimeEsperImpl(runtimeConf);
+    	
+    	runtime.addParser(MonitorRuntime.DEFAULT_PARSER_ID, new Parser.Builder().build());
+    	
+    	InMemoryStdOutput imo = new InMemoryStdOutput(true);
+    	CountingUpdateListener cul = new CountingUpdateListener(imo);
+    	
+    	runtime.configuration.removeListeners();
+    	runtime.configuration.addListener(cul);
+    	
+    	runtime.addStatement("context byhost select host, count(*) as cnt from logevents");
+    	
+    	runtime.waitInput = true;
+    	runtime.run();
+    	// lanes are drained on stop
+    	runtime.Stop();
+    	
+    	assertEquals(10, cul.totalNewEvents, "total eventcount wrong");
+    	Map<String, Object> last = (Map<String, Object>)imo.memData.get(imo.memData.size() - 1);
+    	assertEquals("localhost", last.get("host"), "host field wrong");
+    	assertEquals(10L, last.get("cnt"), "events of one host should be counted in one context partition");
+    }
+    
+    @Test
+    public void testRoutingKeyProjection() throws Exception {
+    	
+    	MonitorRuntimeConfiguration runtimeConf = new MonitorRuntimeConfiguration(null);
+    	runtimeConf.parserConfiguration.fieldProjection = true;
+    	runtimeConf.esperConfiguration.shards = 2;
+    	runtimeConf.esperConfiguration.shardKey = "host";
+    	FileInputConfiguration ic = new FileInputConfiguration(runtimeConf);
+    	ic.files = Arrays.asList("src/test/resources/hosts-logevent.log");
+    	runtimeConf.addInput(new FileInput(ic));
+    	MonitorRuntimeEsperImpl runtime = new MonitorRuntimeEsperImpl(runtimeConf);
+    	
+    	runtime.addParser(MonitorRuntime.DEFAULT_PARSER_ID, new Parser.Builder().build());
+    	
+    	InMemoryStdOutput imo = new InMemoryStdOutput(true);
+    	CountingUpdateListener cul = new CountingUpdateListener(imo);
+    	
+    	runtime.configuration.removeListeners();
+    	runtime.configuration.addListener(cul);
+    	
+    	// shard key is not referenced by statement
+    	runtime.addStatement("select pid from logevents");
+    	
+    	runtime.waitInput = true;
+    	runtime.run();
+    	runtime.Stop();
+    	
+    	assertEquals(12, cul.totalNewEvents, "total eventcount wrong");
+    	long[] routed = runtime.getRoutedEvents();
+    	assertEquals(9, routed[0], "events should be sharded by host");
+    	assertEquals(3, routed[1], "events should be spread over shards by host");
+    }
+    
+    @Test
+    public void testShardedRuntimes() throws Exception {
+    	
+    	Map<Object, Object> single = countByHost(0);
+    	Map<Object, Object> sharded = countByHost(2);
+    	
+    	Map<Object, Object> expected = new HashMap<Object, Object>();
+    	expected.put("alpha", 3L);
+    	expected.put("beta", 4L);
+    	expected.put("gamma", 2L);
+    	expected.put("delta", 3L);
+    	assertEquals(expected, single, "events should be counted by host");
+    	assertEquals(single, sharded, "sharded runtimes should give the same results as single runtime");
+    }
+    
+    @Test
+    public void testShardedTimeWindow() throws Exception {
+    	
+    	// file input drives external clock, events leave time window only when time of their shard moves on
+    	String statement = "select rstream host, pid from logevents#time(2 sec)";
+    	List<Object> single = runHosts(0, statement).stream().map( event -> ((Map<String, Object>)event).get("pid")).sorted().collect(Collectors.toList());
+    	List<Object> sharded = runHosts(2, statement).stream().map( event -> ((Map<String, Object>)event).get("pid")).sorted().collect(Collectors.toList());
+    	
+    	assertEquals(Arrays.asList("1000", "1001", "1002", "1003", "1004", "1005", "1006", "1007", "1008", "1009"), single, "events older than window should expire by the last timestamp");
+    	assertEquals(single, sharded, "time should move on in quiet shards too");
+    }
+    
+    /**
+     * @return last count of every host in hosts-logevent.log
+     */
+    private Map<Object, Object> countByHost(int shards) throws Exception {
+    	List<Object> results = runHosts(shards, "select host, count(*) as cnt from logevents group by host");
+    	
+    	assertEquals(12, results.size(), "total eventcount wrong");
+    	Map<Object, Object> counts = new HashMap<Object, Object>();
+    	results.forEach( event -> counts.put(((Map<String, Object>)event).get("host"), ((Map<String, Object>)event).get("cnt")));
+    	return counts;
+    }
+    
+    /**
+     * @return results of statement over hosts-logevent.log
+     */
+    private List<Object> runHosts(int shards, String statement) throws Exception {
+    	
+    	// Stop interrupts calling thread, clear it after previous run so routing does not give up right away
+    	Thread.interrupted();
+    	MonitorRuntimeConfiguration runtimeConf = new MonitorRuntimeConfiguration(null);
+    	runtimeConf.esperConfiguration.shards = shards;
+    	runtimeConf.esperConfiguration.shardKey = "host";
+    	// log is from the past, external clock starts just before it
+    	runtimeConf.initialTime = TimestampParser.ISO8601.parse("2020-04-14T14:11:20+03:00");
+    	FileInputConfiguration ic = new FileInputConfiguration(runtimeConf);
+    	ic.files = Arrays.asList("src/test/resources/hosts-logevent.log");
+    	runtimeConf.addInput(new FileInput(ic));
+    	MonitorRuntimeEsperImpl runtime = new MonitorRuntimeEsperImpl(runtimeConf);
+    	
+    	runtime.addParser(MonitorRuntime.DEFAULT_PARSER_ID, new Parser.Builder().build());
+    	
+    	InMemoryStdOutput imo = new InMemoryStdOutput(true);
+    	CountingUpdateListener cul = new CountingUpdateListener(imo);
+    	
+    	runtime.configuration.removeListeners();
+    	runtime.configuration.addListener(cul);
+    	
+    	runtime.addStatement(statement);
+    	
+    	runtime.waitInput = true;
+    	runtime.run();
+    	// shards are drained on stop
+    	runtime.Stop();
+    	
+    	if(shards > 1) {
+    		assertTrue(Arrays.stream(runtime.getRoutedEvents()).allMatch( routed -> routed > 0), "hosts should be spread over shards");
+    	}
+    	return imo.memData;
+    }
+    
+    @Test
+    public void testExternalClockReorder() throws Exception {
+    	
+    	MonitorRuntimeConfiguration runtimeConf = new MonitorRuntimeConfiguration(null);
+    	runtimeConf.esperConfiguration.clockGranularity = 1000;
+    	runtimeConf.esperConfiguration.clockLateness = 5000;
+    	FileInputConfiguration ic = new FileInputConfiguration(runtimeConf);
+    	ic.files = Arrays.asList("src/test/resources/unordered-logevent.log");
+    	runtimeConf.addInput(new FileInput(ic));
+    	MonitorRuntimeEsperImpl runtime = new MonitorRuntimeEsperImpl(runtimeConf);
+    	
+    	runtime.addParser(MonitorRuntime.DEFAULT_PARSER_ID, new Parser.Builder().build());
+    	
+    	InMemoryStdOutput imo = new InMemoryStdOutput(true);
+    	CountingUpdateListener cul = new CountingUpdateListener(imo);
+    	
+    	runtime.configuration.removeListeners();
+    	runtime.configuration.addListener(cul);
+    	
+    	runtime.addStatement("select pid from logevents");
+    	
+    	runtime.waitInput = true;
+    	runtime.run();
+    	// reorder buffer is flushed on stop
+    	runtime.Stop();
+    	
+    	assertEquals(6, cul.totalNewEvents, "total eventcount wrong");
+    	List<Object> pids = imo.memData.stream().map( event -> ((Map<String, Object>)event).get("pid")).collect(Collectors.toList());
+    	assertEquals(Arrays.asList("1", "2", "3", "0", "4", "5"), pids, "events within lateness should be released in timestamp order, late event right away");
+    	assertEquals(1, runtime.getLateEvents(), "one event should be late");
+    	assertEquals(TimestampParser.ISO8601.parse("2020-04-14T14:11:26+03:00"), runtime.getWatermark(), "watermark should be highest timestamp minus lateness");
+    }
+    
+    @Test
+    public void testAsyncOutput() throws Exception {
+    	
+    	MonitorRuntimeConfiguration runtimeConf = new MonitorRuntimeConfiguration(null);
+    	runtimeConf.runtimeName = "async-monitor";
+    	FileInputConfiguration ic = new FileInputConfiguration(runtimeConf);
+    	ic.files = Arrays.asList("src/test/resources/ten-logevent.log");
+    	runtimeConf.addInput(new FileInput(ic));
+    	MonitorRuntimeEsperImpl runtime = new MonitorRuntimeEsperImpl(runtimeConf);
+    	
+    	runtime.addParser(MonitorRuntime.DEFAULT_PARSER_ID, new Parser.Builder().build());
+    	
+    	AsyncOutputConfiguration async = new AsyncOutputConfiguration();
+    	async.queueSize = 4;
+    	async.batchSize = 3;
+    	List<String> writers = new ArrayList<String>();
+    	InMemoryStdOutput imo = new InMemoryStdOutput(true) {
+    		@Override
+    		public void printBatch(List<Object> batch) {
+    			writers.add(Thread.currentThread().getName());
+    			super.printBatch(batch);
+    		}
+    	};
+    	
+    	runtime.configuration.removeListeners();
+    	runtime.configuration.addListener("async", new EventUpdateListener(imo, async));
+    	
+    	runtime.addStatement("select host, pid, new{host=host} as nested from logevents");
+    	
+    	runtime.waitInput = true;
+    	runtime.run();
+    	// output queue is drained on stop
+    	runtime.Stop();
+    	
+    	assertEquals(10, imo.memData.size(), "all results should be written with block policy");
+    	Map<String, Object> last = (Map<String, Object>)imo.memData.get(imo.memData.size() - 1);
+    	assertEquals("localhost", ((Map<String, Object>)last.get("nested")).get("host"), "nested events should be unwrapped in writer thread");
+    	assertEquals("async-monitor-async-writer", writers.get(0), "writer thread should be named after monitor and output");
+    }
 }
@@ -1,10 +1,13 @@
 package com.github.arikastarvo.comet;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import org.junit.jupiter.api.Test;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Map;
 
 import com.github.arikastarvo.comet.MonitorRuntimeConfiguration;
@@ -13,6 +16,7 @@ import com.github.arikastarvo.comet.input.Input;
 import com.github.arikastarvo.comet.input.csv.CSVInput;
 import com.github.arikastarvo.comet.input.file.FileInput;
 import com.github.arikastarvo.comet.input.list.StaticListInput;
+import com.github.arikastarvo.comet.utils.OverflowPolicy;
 
 public class CometYAMLParserTest {
 
@@ -140,5 +144,71 @@ public class CometYAMLParserTest {
     	assertEquals(1, runtimeConf.persistenceConfiguration.persistence.size(), "there must be 1 persistence items");
     	assertEquals(10, runtimeConf.persistenceConfiguration.persistenceInterval, "persistence interval should be 10");
     }
+
+    @Test
+    public void Parser_1() throws Exception {
+    	MonitorRuntimeConfiguration runtimeConf = new MonitorRuntimeConfiguration(null);
+    	CometConfigurationYaml.parseConfiguration("src/test/resources/configs/parser-1.yaml", null, runtimeConf);
+    	
+    	// tests
+    	assertEquals(true, runtimeConf.parserConfiguration.combinedMatching, "combined matching should be enabled");
+    	assertEquals(4, runtimeConf.parserConfiguration.threads, "there should be 4 parser threads");
+    	assertEquals(256, runtimeConf.parserConfiguration.queueSize, "parse queue size should be 256");
+    	assertEquals(true, runtimeConf.parserConfiguration.objectArrayEvents, "object-array events should be enabled");
+    	assertEquals(true, runtimeConf.parserConfiguration.fieldProjection, "field projection should be enabled");
+    	assertEquals(true, runtimeConf.parserConfiguration.pruneEventTypes, "event type pruning should be enabled");
+    	assertEquals(true, runtimeConf.parserConfiguration.adaptiveOrdering, "adaptive ordering should be enabled");
+    	assertEquals(5000, runtimeConf.parserConfiguration.adaptiveOrderingInterval, "adaptive ordering interval should be 5000");
+    	assertEquals(1000000L, runtimeConf.parserConfiguration.regexStepBudget, "regex step budget should be 1000000");
+    	assertEquals(3, runtimeConf.parserConfiguration.regexQuarantineThreshold, "regex quarantine threshold should be 3");
+    	assertEquals(1000, runtimeConf.parserConfiguration.lineCacheSize, "line cache size should be 1000");
+    	assertTrue(runtimeConf.parserConfiguration.byteLines, "byte lines should be enabled");
+    }
+
+    @Test
+    public void Esper_1() throws Exception {
+    	MonitorRuntimeConfiguration runtimeConf = new MonitorRuntimeConfiguration(null);
+    	CometConfigurationYaml.parseConfiguration("src/test/resources/configs/esper-1.yaml", null, runtimeConf);
+    	
+    	// tests
+    	assertEquals(2, runtimeConf.esperConfiguration.inboundThreads, "there should be 2 inbound threads");
+    	assertEquals(5000, runtimeConf.esperConfiguration.inboundCapacity, "inbound capacity should be 5000");
+    	assertEquals(1, runtimeConf.esperConfiguration.outboundThreads, "there should be 1 outbound thread");
+    	assertEquals(1000, runtimeConf.esperConfiguration.outboundCapacity, "outbound capacity should be 1000");
+    	assertEquals(Arrays.asList("byhost", "bysrcip"), new ArrayList<String>(runtimeConf.esperConfiguration.contexts.keySet()), "contexts should be declared in order");
+    	assertEquals("host", runtimeConf.esperConfiguration.contexts.get("byhost"), "byhost context should be keyed by host");
+    	assertEquals(4, runtimeConf.esperConfiguration.lanes, "there should be 4 lanes");
+    	assertNull(runtimeConf.esperConfiguration.routeBy, "lanes should be routed by context key");
+    	assertEquals(512, runtimeConf.esperConfiguration.laneQueueSize, "lane queue size should be 512");
+    	assertEquals(2, runtimeConf.esperConfiguration.shards, "there should be 2 shards");
+    	assertEquals("host", runtimeConf.esperConfiguration.shardKey, "shards should be keyed by host");
+    	assertEquals(1000, runtimeConf.esperConfiguration.clockGranularity, "clock granularity should be 1000");
+    	assertEquals(5000, runtimeConf.esperConfiguration.clockLateness, "clock lateness should be 5000");
+    }
+    
+    @Test
+    public void Ingest_1() throws Exception {
+    	MonitorRuntimeConfiguration runtimeConf = new MonitorRuntimeConfiguration(null);
+    	CometConfigurationYaml.parseConfiguration("src/test/resources/configs/ingest-1.yaml", null, runtimeConf);
+    	
+    	// tests
+    	assertEquals(4096, runtimeConf.ingestConfiguration.queueSize, "ingest queue size should be 4096");
+    	assertEquals(OverflowPolicy.DROP_OLDEST, runtimeConf.ingestConfiguration.overflow, "overflow policy should be drop-oldest");
+    	assertEquals(5, runtimeConf.ingestConfiguration.sampleRate, "sample rate should be 5");
+    }
+    
+    @Test
+    public void Output_1() throws Exception {
+    	MonitorRuntimeConfiguration runtimeConf = new MonitorRuntimeConfiguration(null);
+    	CometConfigurationYaml.parseConfiguration("src/test/resources/configs/output-1.yaml", null, runtimeConf);
+    	
+    	// tests
+    	EventUpdateListener slow = (EventUpdateListener)runtimeConf.getListener("slow");
+    	EventUpdateListener fast = (EventUpdateListener)runtimeConf.getListener("fast");
+    	assertNotNull(slow.getDispatchStats(), "slow output should have its own writer thread");
+    	assertEquals(0L, slow.getDispatchStats().get("depth"), "slow output queue should be empty");
+    	assertNull(fast.getDispatchStats(), "fast output should be written in listener thread");
+    	assertTrue(Thread.getAllStackTraces().keySet().stream().noneMatch( thread -> thread.getName().endsWith("-slow-writer")), "writer thread should not be started before runtime");
+    }
     /** there should be some more different scenarios covered actually **/
 }
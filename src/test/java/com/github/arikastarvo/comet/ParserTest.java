@@ -1,16 +1,39 @@
 package com.github.arikastarvo.comet;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import io.krakens.grok.api.Grok;
+import io.krakens.grok.api.GrokCompiler;
+
+import com.github.arikastarvo.comet.parser.GrokRegistry;
+import com.github.arikastarvo.comet.parser.LiteralPrefilter;
+import com.github.arikastarvo.comet.parser.MatchContext;
 import com.github.arikastarvo.comet.parser.Parser;
+import com.github.arikastarvo.comet.parser.TimestampParser;
+import com.github.arikastarvo.comet.parser.ParserConfiguration;
 import com.github.arikastarvo.comet.parser.PatternDefinition;
+import com.github.arikastarvo.comet.utils.ByteLineReader;
 
 public class ParserTest {
     
@@ -53,6 +76,506 @@ public class ParserTest {
     }
 
     
+    @Test
+    public void testPatternOrder() throws Exception {
+    	PatternDefinition last = new PatternDefinition.Builder("ordered_last").withParent("events").withPattern("%{LD:value}").build();
+    	last.put("order", 20);
+    	PatternDefinition first = new PatternDefinition.Builder("ordered_first").withParent("events").withPattern("%{INT:value}").build();
+    	first.put("order", 10);
+    	
+    	Parser parser = new Parser.Builder().withPatternDefinition(last).withPatternDefinition(first).build();
+    	
+    	List<PatternDefinition> children = parser.getPlan().getChildren("events");
+    	assertEquals(Arrays.asList("logevents", "ordered_first", "ordered_last"), Arrays.asList(children.get(0).getName(), children.get(1).getName(), children.get(2).getName()), "children of 'events' should be sorted by order");
+    	assertEquals(0, parser.getPlan().getChildren("ordered_last").size(), "pattern without children should have empty level");
+    	
+    	assertEquals("ordered_first", parser.matchline("42").get("eventType"), "lower order pattern should be tried first");
+    	assertEquals("ordered_last", parser.matchline("abc").get("eventType"), "line should fall through to next sibling");
+    }
+    
+    @Test
+    public void testConditions() throws Exception {
+    	PatternDefinition sshd = new PatternDefinition.Builder("cond_sshd").withParent("logevents").withPattern("%{LD:msg}").build();
+    	sshd.put("cond", new HashMap<String, String>() {{ put("host", "sshd-[0-9]+"); }});
+    	PatternDefinition web = new PatternDefinition.Builder("cond_web").withParent("logevents").withPattern("%{LD:msg}").build();
+    	web.put("softcond", new HashMap<String, String>() {{ put("pid", "web"); }});
+    	
+    	Parser parser = new Parser.Builder().withPatternDefinition(sshd).withPatternDefinition(web).build();
+    	
+    	assertEquals("cond_sshd", parser.matchline("2020-04-14T14:11:21+03:00\tsshd-01\t1\tlogline").get("eventType"), "regex condition should match");
+    	assertEquals("cond_web", parser.matchline("2020-04-14T14:11:21+03:00\tlocalhost\tweb\tlogline").get("eventType"), "literal soft condition should match");
+    	assertEquals("logevents", parser.matchline("2020-04-14T14:11:21+03:00\tlocalhost\tapp\tlogline").get("eventType"), "no condition should match");
+    }
+    
+    @Test
+    public void testLiteralPrefilter() throws Exception {
+    	assertEquals(Arrays.asList("sshd[", "]: "), LiteralPrefilter.requiredLiterals("sshd\\[(?<pid>[0-9]+)\\]: (?<msg>.*)"), "literals should be extracted around groups");
+    	assertEquals(Arrays.asList("GET ", "\t"), LiteralPrefilter.requiredLiterals("GET (?<url>\\S+)(?: HTTP/1\\.[01])?\\t.*"), "optional group should not produce literals");
+    	assertEquals(0, LiteralPrefilter.requiredLiterals("GET .*|POST .*").size(), "top level alternation should not produce literals");
+    	assertEquals(0, LiteralPrefilter.requiredLiterals("(?i)GET .*").size(), "case insensitive pattern should not produce literals");
+    	
+    	PatternDefinition sshd = new PatternDefinition.Builder("prefilter_sshd").withParent("logevents").withPattern("sshd\\[%{INT:sshpid}\\]: %{LD:msg}").build();
+    	PatternDefinition get = new PatternDefinition.Builder("prefilter_get").withParent("logevents").withPattern("GET %{NOTSPACE:url}").withPattern("POST %{NOTSPACE:url}").build();
+    	Parser parser = new Parser.Builder().withPatternDefinition(sshd).withPatternDefinition(get).build();
+    	
+    	assertEquals("prefilter_sshd", parser.matchline("2020-04-14T14:11:21+03:00\tlocalhost\t1\tsshd[12]: hello").get("eventType"), "line should match sshd pattern");
+    	assertEquals("prefilter_get", parser.matchline("2020-04-14T14:11:21+03:00\tlocalhost\t1\tPOST /index").get("eventType"), "line should match second grok of get pattern");
+    	assertEquals("logevents", parser.matchline("2020-04-14T14:11:21+03:00\tlocalhost\t1\tsshd[12] hello").get("eventType"), "line should not match any child");
+    }
+    
+    @Test
+    public void testBadGrok() throws Exception {
+    	PatternDefinition bad = new PatternDefinition.Builder("bad_grok").withParent("logevents").withPattern("%{NOSUCHGROK:value}").withPattern("bad %{INT:value}").build();
+    	// pattern list that fails as a whole is left uncompiled
+    	PatternDefinition broken = new PatternDefinition.Builder("broken_grok").withParent("logevents").build();
+    	broken.put("pattern", Arrays.asList("broken %{INT:value}", 42));
+    	Parser parser = new Parser.Builder().withPatternDefinition(bad).withPatternDefinition(broken).build();
+    	
+    	assertEquals("bad_grok", parser.matchline("2020-04-14T14:11:21+03:00\tlocalhost\t1\tbad 12").get("eventType"), "grok that compiled should still match");
+    	assertEquals("logevents", parser.matchline("2020-04-14T14:11:21+03:00\tlocalhost\t1\tbroken 12").get("eventType"), "pattern that did not compile should not match");
+    }
+    
+    @Test
+    public void testCombinedMatching() throws Exception {
+    	ParserConfiguration conf = new ParserConfiguration();
+    	conf.combinedMatching = true;
+    	
+    	List<PatternDefinition> patterns = Arrays.asList(
+    		new PatternDefinition.Builder("combined_int").withParent("logevents").withPattern("%{INT:num}").build(),
+    		new PatternDefinition.Builder("combined_backref").withParent("logevents").withPattern("(?<word>[a-z]+)-\\k<word>").build(),
+    		new PatternDefinition.Builder("combined_kv").withParent("logevents").withPattern("%{WORD:key}=%{LD:value}").withPattern("%{WORD:key}: %{LD:value}").build(),
+    		new PatternDefinition.Builder("combined_any").withParent("logevents").withPattern("%{LD:rest}").build()
+    	);
+    	patterns.get(0).put("order", 1);
+    	patterns.get(1).put("order", 2);
+    	patterns.get(2).put("order", 3);
+    	patterns.get(2).put("cond", new HashMap<String, String>() {{ put("host", "kv.*"); }});
+    	patterns.get(3).put("order", 4);
+    	
+    	Parser parser = new Parser.Builder().withPatternDefinition(patterns).withConfiguration(conf).build();
+    	
+    	String prefix = "2020-04-14T14:11:21+03:00\t";
+    	assertEquals("combined_int", parser.matchline(prefix + "kvhost\t1\t42").get("eventType"), "first combined pattern should match");
+    	assertEquals(42, parser.matchline(prefix + "kvhost\t1\t42").get("num"), "captures should be kept");
+    	assertEquals("combined_backref", parser.matchline(prefix + "kvhost\t1\tabc-abc").get("eventType"), "pattern with backreference should use fallback");
+    	assertEquals("combined_kv", parser.matchline(prefix + "kvhost\t1\ta: b").get("eventType"), "second grok of pattern should match");
+    	assertEquals("combined_any", parser.matchline(prefix + "otherhost\t1\ta=b").get("eventType"), "pattern with failing condition should be skipped");
+    }
+    
+    @Test
+    public void testFieldConversion() throws Exception {
+    	PatternDefinition pattern = new PatternDefinition.Builder("converted").withParent("events").withPattern("%{NOTSPACE:count} %{NOTSPACE:size} %{NOTSPACE:ratio}").build();
+    	pattern.put("fields", new HashMap<String, String>() {{ put("count", "int"); put("size", "long"); put("ratio", "double"); }});
+    	
+    	Parser parser = new Parser.Builder().withPatternDefinition(pattern).withStats().build();
+    	
+    	Map<String, Object> data = parser.matchline("1 2 0.5");
+    	assertEquals(1, data.get("count"), "count should be converted to int");
+    	assertEquals(2L, data.get("size"), "size should be converted to long");
+    	assertEquals(0.5d, data.get("ratio"), "ratio should be converted to double");
+    	assertEquals(0, parser.getConversionFailures(), "there should be no conversion failures");
+    	
+    	data = parser.matchline("x 2 y");
+    	assertEquals("x", data.get("count"), "unconvertable value should be kept as is");
+    	assertEquals(2, parser.getConversionFailures(), "there should be 2 conversion failures");
+    	assertEquals(2, parser.getStats().get("convfail", "converted"), "conversion failures should be in stats");
+    }
+    
+    @Test
+    public void testFieldProjection() throws Exception {
+    	PatternDefinition pattern = new PatternDefinition.Builder("projected").withParent("events").withPattern("%{NOTSPACE:count} %{NOTSPACE:size} %{GREEDYDATA:payload}").build();
+    	pattern.put("fields", new HashMap<String, String>() {{ put("count", "int"); put("size", "long"); }});
+    	pattern.put("json", "payload");
+    	pattern.put("json.nested", true);
+    	
+    	Parser parser = new Parser.Builder().withPatternDefinition(pattern).build();
+    	String brokenJsonType = (String)parser.matchline("1 2 {broken").get("eventType");
+    	
+    	parser.setFieldProjection(Arrays.asList("count"));
+    	
+    	Map<String, Object> data = parser.matchline("1 x {\"a\":1}");
+    	assertEquals("projected", data.get("eventType"), "pattern should match");
+    	assertEquals(1, data.get("count"), "used field should be converted");
+    	assertFalse(data.containsKey("size"), "unused field should be dropped");
+    	assertEquals(0, parser.getConversionFailures(), "unused field should not be converted");
+    	assertFalse(data.containsKey("payload"), "unused json field should be dropped");
+    	assertFalse(data.containsKey("data"), "raw data should be dropped");
+    	assertEquals(brokenJsonType, parser.matchline("1 2 {broken").get("eventType"), "invalid json should be handled the same way as without projection");
+    	
+    	parser.setFieldProjection(null);
+    	data = parser.matchline("1 2 {\"a\":1}");
+    	assertEquals(2L, data.get("size"), "all fields should be converted without projection");
+    	assertTrue(data.get("payload") instanceof Map, "json should be expanded without projection");
+    }
+    
+    @Test
+    public void testEventTypePruning() throws Exception {
+    	PatternDefinition first = new PatternDefinition.Builder("first").withParent("events").withPattern("a %{GREEDYDATA:rest}").build();
+    	first.put("order", 1);
+    	PatternDefinition firstChild = new PatternDefinition.Builder("first_child").withParent("first").withPattern("x %{GREEDYDATA:tail}").build();
+    	firstChild.put("field", "rest");
+    	PatternDefinition second = new PatternDefinition.Builder("second").withParent("events").withPattern("%{WORD:word} %{GREEDYDATA:rest}").build();
+    	second.put("order", 2);
+    	PatternDefinition third = new PatternDefinition.Builder("third").withParent("events").withPattern("%{INT:number}").build();
+    	third.put("order", 3);
+    	
+    	Parser parser = new Parser.Builder().withPatternDefinition(first).withPatternDefinition(firstChild).withPatternDefinition(second).withPatternDefinition(third).build();
+    	assertEquals("first_child", parser.matchline("a x y").get("eventType"), "child should match without pruning");
+    	assertEquals("third", parser.matchline("12").get("eventType"), "third should match without pruning");
+    	
+    	parser.setConsumedEventTypes(Arrays.asList("second"));
+    	assertTrue(parser.getActiveEventTypes().containsAll(Arrays.asList("second", "events")), "consumed type and its parents should be parsed");
+    	assertEquals("first", parser.matchline("a x y").get("eventType"), "earlier sibling should still claim its lines, but its subtree should not be parsed");
+    	assertEquals("second", parser.matchline("b x y").get("eventType"), "consumed type should match");
+    	assertEquals("events", parser.matchline("12").get("eventType"), "type that is not consumed should not be parsed");
+    	
+    	parser.setConsumedEventTypes(null);
+    	assertNull(parser.getActiveEventTypes(), "all types should be parsed");
+    	assertEquals("first_child", parser.matchline("a x y").get("eventType"), "child should match again");
+    }
+    
+    @Test
+    public void testAdaptiveOrdering() throws Exception {
+    	PatternDefinition rare = new PatternDefinition.Builder("rare").withParent("events").withPattern("rare %{GREEDYDATA:rest}").build();
+    	rare.put("order", 3);
+    	PatternDefinition frequent = new PatternDefinition.Builder("frequent").withParent("events").withPattern("frequent %{GREEDYDATA:rest}").build();
+    	frequent.put("order", 3);
+    	frequent.put("exclusive-children", true);
+    	PatternDefinition last = new PatternDefinition.Builder("last").withParent("events").withPattern("last %{GREEDYDATA:rest}").build();
+    	last.put("order", 4);
+    	PatternDefinition childA = new PatternDefinition.Builder("child_a").withParent("frequent").withPattern("a").build();
+    	childA.put("field", "rest");
+    	childA.put("order", 1);
+    	PatternDefinition childB = new PatternDefinition.Builder("child_b").withParent("frequent").withPattern("b").build();
+    	childB.put("field", "rest");
+    	childB.put("order", 2);
+    	PatternDefinition plainA = new PatternDefinition.Builder("plain_a").withParent("events").withPattern("plain a %{GREEDYDATA:rest}").build();
+    	PatternDefinition plainB = new PatternDefinition.Builder("plain_b").withParent("events").withPattern("plain b %{GREEDYDATA:rest}").build();
+    	
+    	ParserConfiguration configuration = new ParserConfiguration();
+    	configuration.adaptiveOrdering = true;
+    	configuration.adaptiveOrderingInterval = 10;
+    	Parser parser = new Parser.Builder().withConfiguration(configuration)
+    			.withPatternDefinition(rare).withPatternDefinition(frequent).withPatternDefinition(last).withPatternDefinition(childA).withPatternDefinition(childB)
+    			.withPatternDefinition(plainA).withPatternDefinition(plainB).build();
+    	
+    	List<String> lines = new ArrayList<String>();
+    	for(int i = 0; i < 4; i++) {
+    		lines.add("frequent b");
+    		lines.add("plain b x");
+    	}
+    	lines.add("frequent b");
+    	lines.add("rare x");
+    	parser.matchlines(lines);
+    	
+    	List<String> order = new ArrayList<String>();
+    	parser.getPlan().getChildren("events").forEach( pattern -> order.add(pattern.getName()));
+    	assertEquals(Arrays.asList("plain_a", "plain_b", "logevents", "frequent", "rare", "last"), order, "siblings with same order should be reordered by matches, others should keep their order");
+    	Map<String, Double> scores = new HashMap<String, Double>();
+    	scores.put("frequent", 10.0);
+    	scores.put("child_b", 10.0);
+    	scores.put("plain_b", 100.0);
+    	assertFalse(parser.getPlan().reordersBy(scores), "siblings without order should not be reordered");
+    	scores.put("rare", 200.0);
+    	assertTrue(parser.getPlan().reordersBy(scores), "siblings with same order should be reordered");
+    	assertEquals("child_b", parser.getPlan().getChildren("frequent").get(0).getName(), "exclusive children should be reordered regardless of order");
+    	assertEquals("child_a", parser.matchline("frequent a").get("eventType"), "reordering should not change matching");
+    	assertEquals("rare", parser.matchline("rare a").get("eventType"), "reordering should not change matching");
+    }
+    
+    @Test
+    public void testRegexBudget() throws Exception {
+    	PatternDefinition pathological = new PatternDefinition.Builder("pathological").withParent("events").withPattern("(.*a){12}b").build();
+    	pathological.put("order", 3);
+    	PatternDefinition other = new PatternDefinition.Builder("other").withParent("events").withPattern("a+c%{GREEDYDATA:rest}").build();
+    	other.put("order", 4);
+    	
+    	ParserConfiguration configuration = new ParserConfiguration();
+    	configuration.regexStepBudget = 100000;
+    	configuration.regexQuarantineThreshold = 2;
+    	Parser parser = new Parser.Builder().withConfiguration(configuration).withStats().withPatternDefinition(pathological).withPatternDefinition(other).build();
+    	
+    	// would backtrack for ages without budget
+    	String line = "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaacb";
+    	assertEquals("pathological", parser.matchline("aaaaaaaaaaaab").get("eventType"), "pattern should match within budget");
+    	assertEquals("other", parser.matchline(line).get("eventType"), "aborted match should be handled as non-match");
+    	assertEquals(1, parser.getRegexBudgetExceeded(), "aborted match should be counted");
+    	assertEquals(1, parser.getStats().get("budgetexceeded", "pathological"), "pattern should be flagged in stats");
+    	PatternDefinition parsed = parser.getPatterns().stream().filter( pattern -> pattern.getName().equals("pathological")).findFirst().get();
+    	assertFalse(parsed.isQuarantined(), "pattern should not be quarantined before threshold");
+    	
+    	assertEquals("other", parser.matchline(line).get("eventType"), "aborted match should be handled as non-match");
+    	assertTrue(parsed.isQuarantined(), "pattern should be quarantined after threshold");
+    	assertEquals("events", parser.matchline("aaaaaaaaaaaab").get("eventType"), "quarantined pattern should be skipped");
+    	assertEquals(2, parser.getRegexBudgetExceeded(), "quarantined pattern should not be tried anymore");
+    }
+    
+    @Test
+    public void testRegexBudgetWithConverters() throws Exception {
+    	PatternDefinition converted = new PatternDefinition.Builder("converted").withParent("events").withPattern("(.*a){12}b %{INT:count:int}").build();
+    	
+    	ParserConfiguration configuration = new ParserConfiguration();
+    	configuration.regexStepBudget = 100000;
+    	Parser parser = new Parser.Builder().withConfiguration(configuration).withPatternDefinition(converted).build();
+    	
+    	Map<String, Object> event = parser.matchline("aaaaaaaaaaaab 5");
+    	assertEquals("converted", event.get("eventType"), "pattern should match within budget");
+    	assertEquals(5, event.get("count"), "inline converter should be applied");
+    	assertEquals("events", parser.matchline("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaacb 5").get("eventType"), "aborted match should be handled as non-match");
+    	assertEquals(1, parser.getRegexBudgetExceeded(), "grok with inline converters should be bounded by budget too");
+    }
+    
+    @Test
+    public void testLineCache() throws Exception {
+    	PatternDefinition cached = new PatternDefinition.Builder("cached").withParent("events").withPattern("ok %{INT:count}").build();
+    	cached.put("fields", new HashMap<String, String>() {{ put("count", "int"); }});
+    	PatternDefinition uncached = new PatternDefinition.Builder("uncached").withParent("events").withPattern("changing %{GREEDYDATA:rest}").build();
+    	uncached.put("cache", false);
+    	PatternDefinition nested = new PatternDefinition.Builder("nested").withParent("events").withPattern("json %{GREEDYDATA:payload}").build();
+    	nested.put("json", "payload");
+    	nested.put("json.nested", true);
+    	
+    	ParserConfiguration configuration = new ParserConfiguration();
+    	configuration.lineCacheSize = 10;
+    	Parser parser = new Parser.Builder().withConfiguration(configuration).withPatternDefinition(cached).withPatternDefinition(uncached).withPatternDefinition(nested).build();
+    	
+    	Map<String, Object> first = parser.matchline("ok 1");
+    	// same as runtime does without keepMatches and with removeRawData
+    	first.remove("__match");
+    	first.remove("data");
+    	Map<String, Object> second = parser.matchline("ok 1");
+    	assertEquals(1, parser.getLineCache().getHits(), "identical line should be a cache hit");
+    	assertEquals("cached", second.get("eventType"), "cached type should be returned");
+    	assertEquals(1, second.get("count"), "cached fields should be returned");
+    	assertEquals(Arrays.asList("events", "cached"), second.get("__match"), "matched type chain should be cached");
+    	assertEquals("ok 1", second.get("data"), "changes to returned event should not affect cache");
+    	
+    	parser.matchline("changing 1");
+    	parser.matchline("changing 1");
+    	parser.matchline("json {\"a\":1}");
+    	parser.matchline("json {\"a\":1}");
+    	assertEquals(1, parser.getLineCache().getHits(), "lines of uncached patterns and nested values should not be cached");
+    	
+    	parser.setFieldProjection(Arrays.asList("eventType"));
+    	assertFalse(parser.matchline("ok 1").containsKey("count"), "cache should be dropped when projection changes");
+    	assertEquals(1, parser.getLineCache().getHits(), "cache should be dropped when projection changes");
+    }
+    
+    @Test
+    public void testLineCacheHitsCountAsMatches() throws Exception {
+    	PatternDefinition first = new PatternDefinition.Builder("first").withParent("events").withPattern("first %{INT:count}").build();
+    	first.put("order", 3);
+    	PatternDefinition second = new PatternDefinition.Builder("second").withParent("events").withPattern("second %{INT:count}").build();
+    	second.put("order", 3);
+    	
+    	ParserConfiguration configuration = new ParserConfiguration();
+    	configuration.lineCacheSize = 10;
+    	configuration.adaptiveOrdering = true;
+    	configuration.adaptiveOrderingInterval = 2;
+    	Parser parser = new Parser.Builder().withConfiguration(configuration).withStats().withPatternDefinition(first).withPatternDefinition(second).build();
+    	
+    	for(int i = 0; i < 4; i++) {
+    		assertEquals("second", parser.matchline("second 1").get("eventType"), "line should be parsed");
+    	}
+    	// reorder starts with an empty cache, so one more line is a miss
+    	assertEquals(2, parser.getLineCache().getHits(), "repeated lines should be cache hits");
+    	assertEquals(4, parser.getStats().get("matches", "second"), "cache hits should be counted as matches");
+    	assertEquals("second", parser.getPlan().getChildren("events").get(1).getName(), "cache hits should count for adaptive ordering");
+    	
+    	long misses = parser.getLineCache().getMisses();
+    	StringBuilder longLine = new StringBuilder("second ");
+    	for(int i = 0; i < 5000; i++) {
+    		longLine.append("1");
+    	}
+    	assertEquals("second", parser.matchline(longLine.toString()).get("eventType"), "long line should be parsed");
+    	assertEquals(misses, parser.getLineCache().getMisses(), "long line should not be a cache miss");
+    	assertEquals(1, parser.getLineCache().getSkipped(), "long line should be skipped by cache");
+    	assertEquals(1, parser.getStats().get("linecache", "skipped"), "long line should be counted as skipped in stats");
+    	assertEquals(parser.getLineCache().getMisses(), (long)parser.getStats().get("linecache", "miss"), "cache and stats should count misses the same way");
+    }
+    
+    @Test
+    public void testSharedGrokRegistry() throws Exception {
+    	Parser first = new Parser.Builder().withPatternDefinition(new PatternDefinition.Builder("shared").withParent("events").withPattern("%{WORD:word} %{INT:number}").build()).build();
+    	int compiled = GrokRegistry.getInstance().size();
+    	Parser second = new Parser.Builder().withPatternDefinition(new PatternDefinition.Builder("shared").withParent("events").withPattern("%{WORD:word} %{INT:number}").build()).build();
+    	
+    	assertEquals(compiled, GrokRegistry.getInstance().size(), "second parser should not compile anything");
+    	PatternDefinition firstPattern = first.getPatterns().stream().filter( pattern -> pattern.getName().equals("shared")).findFirst().get();
+    	PatternDefinition secondPattern = second.getPatterns().stream().filter( pattern -> pattern.getName().equals("shared")).findFirst().get();
+    	assertSame(firstPattern.getCaptures()[0], secondPattern.getCaptures()[0], "parsers should share compiled groks");
+    	assertNotSame(firstPattern, secondPattern, "parsers should have their own pattern definitions");
+    	assertEquals("shared", second.matchline("abc 12").get("eventType"), "shared grok should match");
+    	
+    	GrokRegistry registry = GrokRegistry.getInstance();
+    	GrokCompiler one = GrokCompiler.newInstance();
+    	one.register("CUSTOM", "a+");
+    	GrokCompiler other = GrokCompiler.newInstance();
+    	other.register("CUSTOM", "b+");
+    	Grok oneGrok = registry.compile(one, registry.fingerprint(one.getPatternDefinitions()), "%{CUSTOM:custom}");
+    	Grok otherGrok = registry.compile(other, registry.fingerprint(other.getPatternDefinitions()), "%{CUSTOM:custom}");
+    	assertNotSame(oneGrok, otherGrok, "groks compiled with different definitions should not be shared");
+    	assertEquals("bbb", otherGrok.capture("bbb").get("custom"), "grok should be compiled with its own definitions");
+    	assertFalse(oneGrok.capture("bbb").containsKey("custom"), "grok should be compiled with its own definitions");
+    	
+    	GrokRegistry.PatternFile file = registry.read("patterns:\n  - name: x\n    cond:\n      a: b\n".getBytes());
+    	assertSame(file, registry.read("patterns:\n  - name: x\n    cond:\n      a: b\n".getBytes()), "same content should be parsed once");
+    	((Map<String, Object>)file.getPatterns().get(0).get("cond")).put("c", "d");
+    	assertEquals(1, ((Map<String, Object>)file.getPatterns().get(0).get("cond")).size(), "parsers should get their own copies of definitions");
+    	
+    	GrokRegistry bounded = new GrokRegistry(2, 2);
+    	String fingerprint = bounded.fingerprint(one.getPatternDefinitions());
+    	Grok eldest = bounded.compile(one, fingerprint, "%{CUSTOM:first}");
+    	bounded.compile(one, fingerprint, "%{CUSTOM:second}");
+    	bounded.compile(one, fingerprint, "%{CUSTOM:third}");
+    	assertEquals(2, bounded.size(), "registry should not keep more groks than its limit");
+    	assertNotSame(eldest, bounded.compile(one, fingerprint, "%{CUSTOM:first}"), "least recently used grok should be evicted");
+    	for(int i = 0; i < 3; i++) {
+    		bounded.read(("patterns:\n  - name: x" + i + "\n").getBytes());
+    	}
+    	assertEquals(2, bounded.fileCount(), "registry should not keep more files than its limit");
+    }
+    
+    @Test
+    public void testByteLines() throws Exception {
+    	ByteLineReader reader = new ByteLineReader(new ByteArrayInputStream("ok 1 first\r\nok 2 p\u00e4ev\n\nok 3 last".getBytes(StandardCharsets.UTF_8)), 16);
+    	List<CharSequence> lines = new ArrayList<CharSequence>();
+    	for(CharSequence line = reader.readLine(); line != null; line = reader.readLine()) {
+    		lines.add(line);
+    	}
+    	assertEquals(4, lines.size(), "lines should be split on newlines");
+    	assertTrue(lines.get(0) instanceof ByteLineReader.AsciiLine, "ascii line should not be decoded");
+    	assertEquals("ok 1 first", lines.get(0).toString(), "carriage return should be dropped");
+    	assertTrue(lines.get(1) instanceof String, "non-ascii line should be decoded");
+    	assertEquals("ok 2 p\u00e4ev", lines.get(1), "non-ascii line should be decoded as utf-8");
+    	assertEquals("", lines.get(2).toString(), "empty line should be kept");
+    	assertEquals("ok 3 last", lines.get(3).toString(), "last line without newline should be read");
+    	
+    	Parser parser = new Parser.Builder().withPatternDefinition(new PatternDefinition.Builder("bytes").withParent("events").withPattern("ok %{INT:count} %{WORD:word}").build()).build();
+    	List<Map<String, Object>> events = parser.matchlines(lines);
+    	assertEquals("bytes", events.get(0).get("eventType"), "byte line should match");
+    	assertEquals("first", events.get(0).get("word"), "captures of byte line should be strings");
+    	assertEquals("ok 1 first", events.get(0).get("data"), "raw data of byte line should be a string");
+    	assertEquals("last", events.get(3).get("word"), "line split between buffers should match");
+    	assertEquals(parser.matchline("ok 1 first"), events.get(0), "byte line should parse the same as string");
+    }
+    
+    @Test
+    public void testByteLineBuffers() throws Exception {
+    	StringBuilder decoded = new StringBuilder();
+    	StringBuilder views = new StringBuilder();
+    	for(int i = 0; i < 100; i++) {
+    		decoded.append("p\u00e4ev ").append(i).append("\n");
+    		views.append("day ").append(i).append("\n");
+    	}
+    	
+    	ByteLineReader reader = new ByteLineReader(new ByteArrayInputStream(decoded.toString().getBytes(StandardCharsets.UTF_8)), 16);
+    	int count = 0;
+    	for(CharSequence line = reader.readLine(); line != null; line = reader.readLine()) {
+    		assertEquals("p\u00e4ev " + count++, line, "decoded line should be read");
+    	}
+    	assertEquals(100, count, "all lines should be read");
+    	assertEquals(1, reader.getAllocations(), "buffer should be reused when no line refers to it");
+    	
+    	reader = new ByteLineReader(new ByteArrayInputStream(views.toString().getBytes(StandardCharsets.UTF_8)), 16);
+    	List<CharSequence> lines = new ArrayList<CharSequence>();
+    	for(CharSequence line = reader.readLine(); line != null; line = reader.readLine()) {
+    		lines.add(line);
+    	}
+    	assertTrue(reader.getAllocations() > 1, "buffer should not be overwritten while lines refer to it");
+    	for(int i = 0; i < 100; i++) {
+    		assertEquals("day " + i, lines.get(i).toString(), "earlier lines should stay valid");
+    	}
+    	
+    	reader = new ByteLineReader(new ByteArrayInputStream(views.toString().getBytes(StandardCharsets.UTF_8)), 16);
+    	count = 0;
+    	for(CharSequence line = reader.readLine(); line != null; line = reader.readLine()) {
+    		assertEquals("day " + count++, line.toString(), "ASCII line should be read");
+    		// lines are not kept, so buffers they referred to can be collected and reused
+    		System.gc();
+    	}
+    	assertTrue(reader.getAllocations() < 10, "buffers should be reused once lines referring to them are gone");
+    	
+    	reader = new ByteLineReader(new ByteArrayInputStream("p\u00e4ev that does not fit into buffer\nok".getBytes(StandardCharsets.UTF_8)), 16);
+    	assertEquals("p\u00e4ev that does not fit into buffer", reader.readLine(), "buffer should grow for long line");
+    	assertEquals("ok", reader.readLine().toString(), "line after long line should be read");
+    	assertEquals(3, reader.getAllocations(), "buffer should only be allocated when line does not fit");
+    }
+    
+    @Test
+    public void testReplaceAndUrlArgs() throws Exception {
+    	PatternDefinition request = new PatternDefinition.Builder("request").withParent("events").withPattern("GET %{NOTSPACE:path}\\?%{GREEDYDATA:args}").build();
+    	request.put("urlargs", "args");
+    	request.put("replace", Arrays.asList(
+    			new HashMap<String, String>() {{ put("field", "path"); put("regex", "/+"); put("replacement", "/"); }},
+    			new HashMap<String, String>() {{ put("field", "path"); put("regex", "([a-z]+)\\.php$"); put("replacement", "$1"); }},
+    			new HashMap<String, String>() {{ put("field", "path"); put("regex", "(invalid"); put("replacement", ""); }}));
+    	Parser parser = new Parser.Builder().withPatternDefinition(request).build();
+    	
+    	Map<String, Object> event = parser.matchline("GET //api//index.php?q=a+b%20c&lang=%C3%A4&empty=&flag");
+    	assertEquals("request", event.get("eventType"), "line should match");
+    	assertEquals("/api/index", event.get("path"), "replaces should be applied in order (invalid regex is ignored)");
+    	assertEquals("a b c", event.get("q"), "plus and escapes should be decoded");
+    	assertEquals("\u00e4", event.get("lang"), "multi-byte escapes should be decoded as utf-8");
+    	assertTrue(event.containsKey("empty") && event.get("empty") == null, "empty value should be null");
+    	assertTrue(event.containsKey("flag") && event.get("flag") == null, "key without value should be null");
+    	
+    	for(String args : Arrays.asList("", "a", "a=1&&b=2&", "=x&%41=%42", "k%20x=v+w&k%20x=2", "&&", "plain=text")) {
+    		Map<String, String> expected = new LinkedHashMap<String, String>();
+    		for(String pair : args.split("&")) {
+    			int idx = pair.indexOf("=");
+    			expected.put(idx > 0 ? URLDecoder.decode(pair.substring(0, idx), "UTF-8") : pair, idx > 0 && pair.length() > idx + 1 ? URLDecoder.decode(pair.substring(idx + 1), "UTF-8") : null);
+    		}
+    		assertEquals(expected, Parser.splitArgs(args), "decoding should be the same as with URLDecoder for '" + args + "'");
+    	}
+    	assertThrows(IllegalArgumentException.class, () -> Parser.splitArgs("a=%zz"), "malformed escape should fail");
+    	assertThrows(IllegalArgumentException.class, () -> Parser.splitArgs("a=%4"), "incomplete escape should fail");
+    }
+    
+    @Test
+    public void testSelectiveJson() throws Exception {
+    	PatternDefinition selective = new PatternDefinition.Builder("selective").withParent("events").withPattern("sel %{GREEDYDATA:payload}").build();
+    	selective.put("json", "payload");
+    	selective.put("json.selective", true);
+    	selective.put("fields", new HashMap<String, String>() {{ put("user", "string"); put("request", "string"); }});
+    	PatternDefinition full = new PatternDefinition.Builder("full").withParent("events").withPattern("full %{GREEDYDATA:payload}").build();
+    	full.put("json", "payload");
+    	PatternDefinition fallback = new PatternDefinition.Builder("fallback").withParent("events").withPattern("%{WORD:word} %{GREEDYDATA:rest}").build();
+    	fallback.put("order", 10);
+    	Parser parser = new Parser.Builder().withPatternDefinition(selective).withPatternDefinition(full).withPatternDefinition(fallback).build();
+    	
+    	String payload = "{\"user\":\"bob\",\"big\":{\"a\":[1,2,{\"b\":\"c\"}]},\"request\":{\"path\":\"/x\",\"status\":200},\"n\":1.5}";
+    	Map<String, Object> event = parser.matchline("sel " + payload);
+    	assertEquals("selective", event.get("eventType"), "json line should match");
+    	assertEquals("bob", event.get("user"), "declared key should be read");
+    	assertEquals(new HashMap<String, Object>() {{ put("path", "/x"); put("status", 200); }}, event.get("request"), "declared nested object should be built");
+    	assertFalse(event.containsKey("big") || event.containsKey("n") || event.containsKey("payload"), "undeclared keys and raw json should be left out");
+    	assertEquals("fallback", parser.matchline("sel {\"user\":\"bob\",").get("eventType"), "invalid json should still fail the pattern");
+    	
+    	assertTrue(parser.matchline("full " + payload).containsKey("big"), "whole object should be read without selective or projection");
+    	parser.setFieldProjection(Arrays.asList("n"));
+    	event = parser.matchline("full " + payload);
+    	assertEquals(1.5, event.get("n"), "key used by statements should be read");
+    	assertFalse(event.containsKey("big") || event.containsKey("user"), "keys not used by statements should be left out");
+    }
+    
+    @Test
+    public void testGrokCapture() throws Exception {
+    	PatternDefinition parent = new PatternDefinition.Builder("request").withParent("events").withPattern("%{WORD:method} %{GREEDYDATA:rest}").build();
+    	PatternDefinition child = new PatternDefinition.Builder("request_with_user").withParent("request").withPattern("(%{WORD:method} )?%{NOTSPACE:path} (?:user=%{NOTSPACE:user}|anonymous)").build();
+    	child.put("field", "rest");
+    	
+    	Parser parser = new Parser.Builder().withPatternDefinition(parent).withPatternDefinition(child).build();
+    	
+    	Map<String, Object> data = parser.matchline("GET /x user=\"bob\"");
+    	assertEquals("GET", data.get("method"), "optional group that did not participate should not overwrite parent value");
+    	assertEquals("bob", data.get("user"), "quotes should be stripped");
+    	
+    	data = parser.matchline("GET /x anonymous");
+    	assertEquals("request_with_user", data.get("eventType"), "child pattern should match");
+    	assertFalse(data.containsKey("user"), "group that did not participate should not be in event");
+    }
+    
     @Test
     public void testSrctimeParser() throws Exception {
     	Parser parser;
@@ -71,6 +594,74 @@ public class ParserTest {
     	assertEquals("mydata", data.get("data"), "data does not match");
     }
     
+    @Test
+    public void testTimestampParser() throws Exception {
+    	TimestampParser iso = TimestampParser.ISO8601;
+    	assertEquals(1551909614000L, iso.parse("2019-03-07T00:00:14+02:00"), "offset with colon");
+    	assertEquals(1551909614000L, iso.parse("2019-03-07T00:00:14+0200"), "offset without colon");
+    	assertEquals(1551909614000L, iso.parse("2019-03-07T00:00:14+02"), "hour offset");
+    	assertEquals(1551909614250L, iso.parse("2019-03-06T22:00:14.25Z"), "fraction and utc");
+    	assertEquals(1551952814000L, iso.parse("2019-03-07T12:00:14+02:00"), "hour 12 should be noon");
+    	assertEquals(1551909615000L, iso.parse("2019-03-07T00:00:15+02:00"), "memoized second should not be reused for next second");
+    	assertThrows(ParseException.class, () -> iso.parse("2019-03-07 00:00:14"), "invalid timestamp should fail");
+    	
+    	assertEquals(1551909614000L, TimestampParser.forPattern("dd/MM/yyyy HH:mm:ss Z").parse("07/03/2019 00:00:14 +0200"), "other formats should be parsed with date format");
+    }
+    
+    @Test
+    public void testConcurrentMatching() throws Exception {
+    	PatternDefinition csv = new PatternDefinition.Builder("csvevents").withParent("logevents").withPattern("csv:%{GREEDYDATA:csvdata}").build();
+    	csv.put("csv", "csvdata");
+    	csv.put("csv-fields", Arrays.asList("first", "second"));
+    	
+    	Parser parser = new Parser.Builder().withPatternDefinition(csv).withStats().build();
+    	
+    	ExecutorService executor = Executors.newFixedThreadPool(4);
+    	List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+    	for(int t = 0; t < 4; t++) {
+    		int thread = t;
+    		results.add(executor.submit(() -> {
+    			MatchContext context = parser.newContext();
+    			for(int i = 0; i < 1000; i++) {
+    				Map<String, Object> data = new HashMap<String, Object>();
+    				parser.matchline("2020-04-14T14:11:21+03:00\thost" + thread + "\t" + i + "\tcsv:\"a" + i + "\",b" + thread, data, context);
+    				if(!("csvevents".equals(data.get("eventType")) && ("a" + i).equals(data.get("first")) && ("b" + thread).equals(data.get("second")) && ("host" + thread).equals(data.get("host")))) {
+    					return false;
+    				}
+    			}
+    			return true;
+    		}));
+    	}
+    	for(Future<Boolean> result : results) {
+    		assertTrue(result.get(), "every thread should get its own lines parsed correctly");
+    	}
+    	executor.shutdown();
+    	
+    	assertEquals(4000, parser.getStats().get("matches", "csvevents"), "matches from all threads should be counted");
+    }
+    
+    @Test
+    public void testBatchMatching() throws Exception {
+    	Parser parser = new Parser.Builder().withStats().build();
+    	
+    	List<String> lines = Arrays.asList("2020-04-14T14:11:21+03:00\tlocalhost\t1234\tlogline", "logline", "2020-04-14T14:11:22+03:00\totherhost\t\tsecond");
+    	List<Map<String, Object>> events = parser.matchlines(lines);
+    	
+    	assertEquals(3, events.size(), "there should be an event for every line");
+    	for(int i = 0; i < lines.size(); i++) {
+    		assertEquals(parser.matchline(lines.get(i)), events.get(i), "batch result should be the same as single line result");
+    	}
+    	assertEquals(4, parser.getStats().get("matchcount", "logevents"), "batch stats should be flushed");
+    	
+    	// existing containers are parsed into
+    	List<Map<String, Object>> reused = new ArrayList<Map<String, Object>>();
+    	reused.add(new HashMap<String, Object>() {{ put("source", "file"); }});
+    	parser.matchlines(new CharSequence[] { "x", "logline", "y" }, 1, 1, reused, parser.newContext());
+    	assertEquals(1, reused.size(), "only given range should be parsed");
+    	assertEquals("file", reused.get(0).get("source"), "prefilled fields should be kept");
+    	assertEquals("logline", reused.get(0).get("data"), "line should be parsed into existing container");
+    }
+    
     @Test
     public void testBasePatterns() throws Exception {
 
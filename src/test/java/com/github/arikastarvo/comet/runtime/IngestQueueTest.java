@@ -0,0 +1,131 @@
+package com.github.arikastarvo.comet.runtime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+
+import com.github.arikastarvo.comet.utils.OverflowPolicy;
+
+public class IngestQueueTest {
+
+    private static ParsePipeline.ParsedEvent event(int seq) {
+    	Map<String, Object> event = new HashMap<String, Object>();
+    	event.put("seq", seq);
+    	return new ParsePipeline.ParsedEvent("events", event);
+    }
+
+    @Test
+    public void testBlockKeepsInputOrder() throws Exception {
+    	List<Object> ingested = Collections.synchronizedList(new ArrayList<Object>());
+    	IngestQueue queue = new IngestQueue("test", 8, OverflowPolicy.BLOCK, 10, parsed -> ingested.add(parsed.event.get("seq")));
+    	
+    	List<Thread> inputs = new ArrayList<Thread>();
+    	for(int input = 0; input < 4; input++) {
+    		String inputId = "input-" + input;
+    		int offset = input * 1000;
+    		Thread thread = new Thread(() -> {
+    			for(int i = 0; i < 500; i++) {
+    				queue.put(inputId, event(offset + i));
+    			}
+    		});
+    		inputs.add(thread);
+    		thread.start();
+    	}
+    	for(Thread thread : inputs) {
+    		thread.join();
+    	}
+    	queue.stop();
+    	
+    	assertEquals(2000, ingested.size(), "all events should be ingested before stop returns");
+    	int[] last = new int[] { -1, 999, 1999, 2999 };
+    	for(Object seq : ingested) {
+    		int input = (Integer)seq / 1000;
+    		assertEquals(last[input] + 1, (int)(Integer)seq, "events of one input should be ingested in order");
+    		last[input] = (Integer)seq;
+    	}
+    	assertEquals(500, queue.getInputStats("input-0").getEnqueued(), "enqueued count of input wrong");
+    	assertEquals(0, queue.getInputStats("input-0").getDropped(), "block policy should not drop events");
+    	assertEquals(0, queue.getInputStats("input-0").getDepth(), "queue of input should be empty");
+    }
+    
+    @Test
+    public void testDropPolicies() throws Exception {
+    	for(OverflowPolicy policy : new OverflowPolicy[] { OverflowPolicy.DROP_NEWEST, OverflowPolicy.DROP_OLDEST }) {
+    		List<Object> ingested = Collections.synchronizedList(new ArrayList<Object>());
+    		CountDownLatch taken = new CountDownLatch(1);
+    		CountDownLatch release = new CountDownLatch(1);
+    		IngestQueue queue = new IngestQueue("test", 4, policy, 10, parsed -> {
+    			taken.countDown();
+    			try {
+    				// slow runtime
+    				release.await();
+    			} catch (InterruptedException e) {
+    				Thread.currentThread().interrupt();
+    			}
+    			ingested.add(parsed.event.get("seq"));
+    		});
+    		
+    		queue.put("input", event(0));
+    		taken.await();
+    		for(int i = 1; i <= 10; i++) {
+    			queue.put("input", event(i));
+    		}
+    		assertEquals(4, queue.getInputStats("input").getDepth(), policy + ": queue should be full");
+    		assertEquals(6, queue.getInputStats("input").getDropped(), policy + ": events that do not fit should be dropped");
+    		release.countDown();
+    		queue.stop();
+    		
+    		List<Object> expected = policy == OverflowPolicy.DROP_NEWEST ? List.of(0, 1, 2, 3, 4) : List.of(0, 7, 8, 9, 10);
+    		assertEquals(expected, ingested, policy + ": wrong events ingested");
+    	}
+    }
+    
+    @Test
+    public void testSamplePolicy() throws Exception {
+    	List<Object> ingested = Collections.synchronizedList(new ArrayList<Object>());
+    	CountDownLatch taken = new CountDownLatch(1);
+    	// runtime takes one event per permit
+    	Semaphore permits = new Semaphore(0);
+    	IngestQueue queue = new IngestQueue("test", 4, OverflowPolicy.SAMPLE, 3, parsed -> {
+    		taken.countDown();
+    		permits.acquireUninterruptibly();
+    		ingested.add(parsed.event.get("seq"));
+    	});
+    	
+    	queue.put("input", event(0));
+    	taken.await();
+    	for(int i = 1; i <= 4; i++) {
+    		queue.put("input", event(i));
+    	}
+    	// kept samples wait for room, so overflowing events come from another input thread
+    	Thread input = new Thread(() -> {
+    		for(int i = 5; i <= 13; i++) {
+    			queue.put("input", event(i));
+    		}
+    	});
+    	input.start();
+    	for(int sample = 1; sample <= 3; sample++) {
+    		long deadline = System.currentTimeMillis() + 5000;
+    		while(queue.getInputStats("input").getDropped() < sample * 2 && System.currentTimeMillis() < deadline) {
+    			Thread.sleep(1);
+    		}
+    		assertEquals(sample * 2, queue.getInputStats("input").getDropped(), "events between samples should be dropped");
+    		// makes room for exactly one event
+    		permits.release();
+    	}
+    	input.join();
+    	permits.release(100);
+    	queue.stop();
+    	
+    	assertEquals(List.of(0, 1, 2, 3, 4, 7, 10, 13), ingested, "every 3rd overflowing event should be kept");
+    	assertEquals(8, queue.getInputStats("input").getEnqueued(), "enqueued count of input wrong");
+    	assertEquals(6, queue.getInputStats("input").getDropped(), "rest of overflowing events should be dropped");
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.arikastarvo.comet.runtime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+public class ParsePipelineTest {
+
+    @Test
+    public void testInputOrder() throws Exception {
+    	List<Object> ingested = Collections.synchronizedList(new ArrayList<Object>());
+    	ParsePipeline pipeline = new ParsePipeline("test", 4, 16, parsed -> ingested.add(parsed.event.get("seq")));
+    	
+    	for(int i = 0; i < 500; i++) {
+    		int seq = i;
+    		pipeline.submit(() -> {
+    			// workers finish in random order
+    			Thread.sleep(ThreadLocalRandom.current().nextInt(3));
+    			Map<String, Object> event = new HashMap<String, Object>();
+    			event.put("seq", seq);
+    			return new ParsePipeline.ParsedEvent("events", event);
+    		});
+    	}
+    	pipeline.stop();
+    	
+    	assertEquals(500, ingested.size(), "all lines should be ingested before stop returns");
+    	for(int i = 0; i < 500; i++) {
+    		assertEquals(i, ingested.get(i), "events should be ingested in input order");
+    	}
+    }
+    
+    @Test
+    public void testFailedParse() throws Exception {
+    	List<Object> ingested = Collections.synchronizedList(new ArrayList<Object>());
+    	ParsePipeline pipeline = new ParsePipeline("test", 2, 4, parsed -> ingested.add(parsed.type));
+    	
+    	pipeline.submit(() -> new ParsePipeline.ParsedEvent("first", new HashMap<String, Object>()));
+    	pipeline.submit(() -> { throw new IllegalStateException("broken line"); });
+    	pipeline.submit(() -> new ParsePipeline.ParsedEvent("third", new HashMap<String, Object>()));
+    	pipeline.stop();
+    	
+    	assertEquals(2, ingested.size(), "failed line should be skipped");
+    	assertEquals("third", ingested.get(1), "lines after failed one should be ingested");
+    }
+    
+    @Test
+    public void testStopWhileSubmitting() throws Exception {
+    	List<Object> ingested = Collections.synchronizedList(new ArrayList<Object>());
+    	ParsePipeline pipeline = new ParsePipeline("test", 2, 4, parsed -> ingested.add(parsed.type));
+    	
+    	List<Thread> inputs = new ArrayList<Thread>();
+    	for(int input = 0; input < 4; input++) {
+    		Thread thread = new Thread(() -> {
+    			for(int i = 0; i < 1000; i++) {
+    				pipeline.submit(() -> new ParsePipeline.ParsedEvent("events", new HashMap<String, Object>()));
+    			}
+    		});
+    		inputs.add(thread);
+    		thread.start();
+    	}
+    	Thread.sleep(5);
+    	pipeline.stop();
+    	for(Thread thread : inputs) {
+    		thread.join();
+    	}
+    	
+    	assertEquals(4000, ingested.size() + pipeline.getDropped(), "every line should be either ingested or counted as dropped");
+    }
+}
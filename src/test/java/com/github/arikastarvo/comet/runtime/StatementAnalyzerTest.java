@@ -0,0 +1,61 @@
+package com.github.arikastarvo.comet.runtime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+public class StatementAnalyzerTest {
+
+    private static final Set<String> FIELDS = new HashSet<String>(Arrays.asList("host", "pid", "srcip", "data"));
+
+    private static StatementAnalyzer analyze(String... modules) {
+    	return new StatementAnalyzer(Arrays.asList(modules), FIELDS);
+    }
+
+    @Test
+    public void testIdentifiers() throws Exception {
+    	StatementAnalyzer analyzer = analyze("@Name('sshmonitor') select count(*) as cnt, host from logevents(pid = '1') where `src.ip` is not null group by host // data");
+    	
+    	assertFalse(analyzer.needsWholeEvents(), "count(*) is not a wildcard");
+    	assertTrue(analyzer.getIdentifiers().containsAll(Arrays.asList("host", "pid", "src.ip", "logevents", "cnt")), "referenced identifiers are missing");
+    	assertFalse(analyzer.getIdentifiers().contains("data"), "comments should be ignored");
+    	assertFalse(analyzer.getIdentifiers().contains("sshmonitor"), "string literals should be ignored");
+    }
+
+    @Test
+    public void testWholeEvents() throws Exception {
+    	assertTrue(analyze("select host from logevents", "select * from events").needsWholeEvents(), "select * needs whole events");
+    	assertTrue(analyze("select a.*, b.host from pattern[every a=logevents -> b=logevents]").needsWholeEvents(), "stream wildcard needs whole events");
+    	assertTrue(analyze("select a, b from pattern[every a=logevents -> b=logevents]").needsWholeEvents(), "selected stream alias needs whole events");
+    	assertTrue(analyze("create window w#keepall as logevents").needsWholeEvents(), "window of existing type needs whole events");
+    	assertFalse(analyze("create window w#keepall (host string, pid string); insert into w select host, pid from logevents").needsWholeEvents(), "window with own columns does not need whole events");
+    	assertFalse(analyze("select distinct host as h, (select pid from logevents#lastevent) as p from events").needsWholeEvents(), "selected fields do not need whole events");
+    }
+
+    @Test
+    public void testPartitionSafety() throws Exception {
+    	Set<String> contexts = Collections.singleton("byhost");
+    	assertNull(StatementAnalyzer.partitionUnsafeReason("select * from logevents where pid = '1'", "host", contexts), "filter without state is partition-safe");
+    	assertNull(StatementAnalyzer.partitionUnsafeReason("select host, count(*) as cnt from logevents group by pid, host having count(*) > 1", "host", contexts), "aggregate grouped by key is partition-safe");
+    	assertNull(StatementAnalyzer.partitionUnsafeReason("@Name('count') context byhost select count(*) from logevents", "host", contexts), "aggregate in keyed context is partition-safe");
+    	assertEquals("aggregate not grouped by 'host'", StatementAnalyzer.partitionUnsafeReason("select count(*) as cnt from logevents // group by host", "host", contexts), "aggregate over all events is not partition-safe");
+    	assertEquals("aggregate not grouped by 'host'", StatementAnalyzer.partitionUnsafeReason("select pid, count(*) from logevents group by pid", "host", contexts), "aggregate grouped by other field is not partition-safe");
+    	assertEquals("shared window", StatementAnalyzer.partitionUnsafeReason("create window w#keepall as logevents", "host", contexts), "named window is not partition-safe");
+    	
+    	assertEquals("join not correlated by 'host'", StatementAnalyzer.partitionUnsafeReason("select a.pid from logevents#lastevent as a, logevents#lastevent as b where a.pid = b.pid", "host", contexts), "join without key is not partition-safe");
+    	assertEquals("join not correlated by 'host'", StatementAnalyzer.partitionUnsafeReason("select a.pid from logevents#lastevent as a inner join logevents#lastevent as b on a.pid = b.pid", "host", contexts), "join without key is not partition-safe");
+    	assertNull(StatementAnalyzer.partitionUnsafeReason("select a.pid from logevents#lastevent as a inner join logevents#lastevent as b on a.host = b.host", "host", contexts), "join on key is partition-safe");
+    	assertEquals("pattern not correlated by 'host'", StatementAnalyzer.partitionUnsafeReason("select a.host from pattern [every a=logevents -> b=logevents(pid = a.pid)]", "host", contexts), "pattern without key is not partition-safe");
+    	assertNull(StatementAnalyzer.partitionUnsafeReason("select a.pid from pattern [every a=logevents -> b=logevents(host = a.host)]", "host", contexts), "pattern correlated by key is partition-safe");
+    	assertEquals("subquery not correlated by 'host'", StatementAnalyzer.partitionUnsafeReason("select host from logevents as e where exists (select * from logevents#length(10) where pid = e.pid)", "host", contexts), "subquery without key is not partition-safe");
+    	assertNull(StatementAnalyzer.partitionUnsafeReason("select pid from logevents as e where exists (select * from logevents#length(10) as o where o.host = e.host)", "host", contexts), "subquery correlated by key is partition-safe");
+    	assertNull(StatementAnalyzer.partitionUnsafeReason("context byhost select a.pid from pattern [every a=logevents -> b=logevents]", "host", contexts), "pattern in keyed context is partition-safe");
+    }
+}